@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.benchmark;
+
+import io.gravitee.policy.json2xml.transformer.XML;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Escaping of text values, which happens for every leaf of the document.
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapeBenchmark {
+
+    /**
+     * How often a character to escape appears: never, once in a while, or all the time.
+     */
+    @Param({ "CLEAN", "SPARSE", "DENSE" })
+    public String text;
+
+    @Param({ "16", "1024" })
+    public int length;
+
+    private String value;
+    private final StringBuilder writer = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        final String pattern;
+        switch (text) {
+            case "SPARSE":
+                pattern = "Some text & more";
+                break;
+            case "DENSE":
+                pattern = "<a href=\"x\">&'";
+                break;
+            default:
+                pattern = "Some plain text.";
+        }
+        value = pattern.repeat(length / pattern.length() + 1).substring(0, length);
+    }
+
+    @Benchmark
+    public String escape() {
+        return XML.escape(value);
+    }
+
+    @Benchmark
+    public StringBuilder escapeToAppendable() throws IOException {
+        writer.setLength(0);
+        XML.escape(value, writer);
+        return writer;
+    }
+}
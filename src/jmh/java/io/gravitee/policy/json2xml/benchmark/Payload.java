@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.benchmark;
+
+import java.util.Random;
+
+/**
+ * The JSON payload shapes used by the benchmarks. Payloads are generated from a fixed seed so that every run works on
+ * the same documents.
+ *
+ * @author GraviteeSource Team
+ */
+public enum Payload {
+    /** A single record of a few hundred bytes. */
+    SMALL {
+        @Override
+        void write(StringBuilder json, Random random) {
+            record(json, random, 0);
+        }
+    },
+    /** A hundred records, around 20KB. */
+    MEDIUM {
+        @Override
+        void write(StringBuilder json, Random random) {
+            records(json, random, 100);
+        }
+    },
+    /** Ten thousand records, around 2MB. */
+    LARGE {
+        @Override
+        void write(StringBuilder json, Random random) {
+            records(json, random, 10_000);
+        }
+    },
+    /** Arrays nested 45 levels deep into objects nested 90 levels deep, within the default max depth. */
+    DEEP {
+        @Override
+        void write(StringBuilder json, Random random) {
+            final int depth = 45;
+            for (int i = 0; i < depth; i++) {
+                json.append("{\"level").append(i).append("\":{\"value\":").append(random.nextInt(1000)).append(",\"children\":[");
+            }
+            json.append("\"leaf\"");
+            for (int i = 0; i < depth; i++) {
+                json.append("]}}");
+            }
+        }
+    },
+    /** A single object with ten thousand distinct keys. */
+    WIDE {
+        @Override
+        void write(StringBuilder json, Random random) {
+            json.append('{');
+            for (int i = 0; i < 10_000; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("\"key").append(i).append("\":\"value").append(random.nextInt(1_000_000)).append('"');
+            }
+            json.append('}');
+        }
+    },
+    /** Long text values, some of them with characters to escape or outside of ASCII. */
+    STRING_HEAVY {
+        @Override
+        void write(StringBuilder json, Random random) {
+            json.append("{\"documents\":[");
+            for (int i = 0; i < 500; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"title\":\"Document ").append(i).append("\",\"body\":\"");
+                for (int j = 0; j < 20; j++) {
+                    json.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                json.append("\"}");
+            }
+            json.append("]}");
+        }
+    },
+    /** Series of numeric samples, like telemetry payloads. */
+    NUMBER_HEAVY {
+        @Override
+        void write(StringBuilder json, Random random) {
+            json.append("{\"series\":[");
+            for (int i = 0; i < 100; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"id\":").append(i).append(",\"timestamp\":").append(1_700_000_000_000L + i).append(",\"values\":[");
+                for (int j = 0; j < 500; j++) {
+                    if (j > 0) {
+                        json.append(',');
+                    }
+                    if (j % 2 == 0) {
+                        json.append(random.nextInt(100_000));
+                    } else {
+                        json.append(random.nextDouble() * 1000);
+                    }
+                }
+                json.append("]}");
+            }
+            json.append("]}");
+        }
+    };
+
+    private static final String[] WORDS = {
+        "lorem",
+        "ipsum",
+        "dolor",
+        "sit",
+        "amet",
+        "a < b",
+        "b > c",
+        "Tom & Jerry",
+        "\\\"quoted\\\"",
+        "l'été",
+        "crème brûlée",
+        "日本語",
+        "line\\nbreak",
+    };
+
+    abstract void write(StringBuilder json, Random random);
+
+    /**
+     * @return the JSON text of the payload.
+     */
+    public String json() {
+        final StringBuilder json = new StringBuilder();
+        write(json, new Random(42));
+        return json.toString();
+    }
+
+    private static void records(StringBuilder json, Random random, int count) {
+        json.append("{\"items\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            record(json, random, i);
+        }
+        json.append("],\"count\":").append(count).append('}');
+    }
+
+    private static void record(StringBuilder json, Random random, int id) {
+        json
+            .append("{\"id\":")
+            .append(id)
+            .append(",\"name\":\"User ")
+            .append(random.nextInt(100_000))
+            .append("\",\"email\":\"user")
+            .append(id)
+            .append("@example.com\",\"active\":")
+            .append(random.nextBoolean())
+            .append(",\"score\":")
+            .append(random.nextDouble() * 100)
+            .append(",\"tags\":[\"alpha\",\"beta\",\"gamma\"],\"address\":{\"street\":\"")
+            .append(random.nextInt(200))
+            .append(" Main Street\",\"city\":\"Lille\",\"zip\":\"59000\"},\"note\":null}");
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.benchmark;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+
+import io.gravitee.policy.json2xml.transformer.JSONObject;
+import io.gravitee.policy.json2xml.transformer.Utf8ByteSink;
+import io.gravitee.policy.json2xml.transformer.XML;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of an already parsed {@link JSONObject} tree into XML.
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({ "SMALL", "MEDIUM", "LARGE", "DEEP", "WIDE", "STRING_HEAVY", "NUMBER_HEAVY" })
+    public Payload payload;
+
+    private JSONObject tree;
+
+    @Setup
+    public void setUp() {
+        tree = new JSONObject().append("root", new JSONObject(payload.json(), DEFAULT_MAX_DEPTH));
+    }
+
+    @Benchmark
+    public String toXmlString() {
+        return XML.toString(tree);
+    }
+
+    @Benchmark
+    public Utf8ByteSink writeXmlBytes() {
+        return XML.write(tree, null, new Utf8ByteSink());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.benchmark;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.policy.json2xml.JsonToXmlTransformationPolicy;
+import io.gravitee.policy.json2xml.configuration.ExecutionPlan;
+import io.gravitee.policy.json2xml.configuration.JsonToXmlTransformationPolicyConfiguration;
+import io.gravitee.policy.json2xml.transformer.JSONObject;
+import io.gravitee.policy.json2xml.transformer.JsonToXmlStreamTranscoder;
+import io.gravitee.policy.json2xml.transformer.Utf8ByteSink;
+import io.gravitee.policy.json2xml.transformer.XML;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole transformation of a body, as done by the policy, compared with the original tree based transformation.
+ * The same transformation is also run from several threads to show how it scales.
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformationBenchmark {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param({ "SMALL", "MEDIUM", "LARGE", "DEEP", "WIDE", "STRING_HEAVY", "NUMBER_HEAVY" })
+    public Payload payload;
+
+    @Param({ "UTF-8", "ISO-8859-1" })
+    public String charset;
+
+    private BenchmarkedPolicy policy;
+    private Charset bodyCharset;
+    private String json;
+    private byte[] bytes;
+    private Buffer body;
+
+    @Setup
+    public void setUp() {
+        policy = new BenchmarkedPolicy(new JsonToXmlTransformationPolicyConfiguration());
+        bodyCharset = Charset.forName(charset);
+        json = payload.json();
+        bytes = json.getBytes(bodyCharset);
+        body = Buffer.buffer(bytes);
+    }
+
+    @Benchmark
+    public String tree() {
+        final JSONObject jsonPayloadWithRoot = new JSONObject();
+        jsonPayloadWithRoot.append("root", new JSONObject(new String(bytes, bodyCharset), DEFAULT_MAX_DEPTH));
+        return XML.toString(jsonPayloadWithRoot);
+    }
+
+    @Benchmark
+    public Buffer transform() {
+        return policy.transformToXml(body, bodyCharset);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Buffer transform4Threads() {
+        return policy.transformToXml(body, bodyCharset);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Buffer transformMaxThreads() {
+        return policy.transformToXml(body, bodyCharset);
+    }
+
+    /**
+     * The streaming transformation, fed with chunks of the size the gateway usually reads. Only UTF-8 is streamed.
+     */
+    @Benchmark
+    public Utf8ByteSink stream() {
+        final JsonToXmlStreamTranscoder transcoder = new JsonToXmlStreamTranscoder("root", DEFAULT_MAX_DEPTH);
+        final Utf8ByteSink xml = new Utf8ByteSink(CHUNK_SIZE);
+        final byte[] utf8 = StandardCharsets.UTF_8.equals(bodyCharset) ? bytes : json.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < utf8.length; i += CHUNK_SIZE) {
+            transcoder.write(ByteBuffer.wrap(utf8, i, Math.min(CHUNK_SIZE, utf8.length - i)), xml);
+        }
+        return transcoder.end(xml);
+    }
+
+    private static class BenchmarkedPolicy extends JsonToXmlTransformationPolicy {
+
+        private final ExecutionPlan plan;
+
+        BenchmarkedPolicy(JsonToXmlTransformationPolicyConfiguration configuration) {
+            super(configuration);
+            this.plan = new ExecutionPlan(configuration, DEFAULT_MAX_DEPTH);
+        }
+
+        Buffer transformToXml(Buffer input, Charset charset) {
+            return transform(plan, input, charset);
+        }
+    }
+}
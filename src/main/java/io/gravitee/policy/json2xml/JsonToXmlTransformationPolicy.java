@@ -15,29 +15,53 @@
  */
 package io.gravitee.policy.json2xml;
 
-import io.gravitee.common.http.HttpStatusCode;
-import io.gravitee.gateway.api.ExecutionContext;
 import io.gravitee.gateway.api.buffer.Buffer;
 import io.gravitee.gateway.api.http.HttpHeaderNames;
 import io.gravitee.gateway.api.http.HttpHeaders;
 import io.gravitee.gateway.api.stream.exception.TransformationException;
 import io.gravitee.gateway.reactive.api.ExecutionFailure;
+import io.gravitee.gateway.reactive.api.context.ContextAttributes;
 import io.gravitee.gateway.reactive.api.context.GenericExecutionContext;
 import io.gravitee.gateway.reactive.api.context.HttpExecutionContext;
 import io.gravitee.gateway.reactive.api.context.MessageExecutionContext;
 import io.gravitee.gateway.reactive.api.message.Message;
 import io.gravitee.gateway.reactive.api.policy.Policy;
 import io.gravitee.node.api.configuration.Configuration;
+import io.gravitee.policy.json2xml.batch.BatchedMessage;
+import io.gravitee.policy.json2xml.configuration.ExecutionPlan;
 import io.gravitee.policy.json2xml.configuration.JsonToXmlTransformationPolicyConfiguration;
-import io.gravitee.policy.json2xml.transformer.JSONObject;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics.Phase;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics.Recorder;
+import io.gravitee.policy.json2xml.offload.ByteBudget;
+import io.gravitee.policy.json2xml.offload.TransformationOffloader;
+import io.gravitee.policy.json2xml.spill.SpilledBody;
+import io.gravitee.policy.json2xml.transformer.DirectUtf8ByteSink;
 import io.gravitee.policy.json2xml.transformer.JSONTokener;
-import io.gravitee.policy.json2xml.transformer.XML;
+import io.gravitee.policy.json2xml.transformer.JsonToXmlStreamTranscoder;
+import io.gravitee.policy.json2xml.transformer.JsonToXmlTranscoder;
+import io.gravitee.policy.json2xml.transformer.TranscodingLimitException;
+import io.gravitee.policy.json2xml.transformer.TranscodingLimits;
+import io.gravitee.policy.json2xml.transformer.TranscodingScratch;
+import io.gravitee.policy.json2xml.transformer.Utf8ByteSink;
 import io.gravitee.policy.json2xml.utils.CharsetHelper;
 import io.gravitee.policy.v3.json2xml.JsonToXmlTransformationPolicyV3;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Flowable;
 import io.reactivex.rxjava3.core.Maybe;
+import io.vertx.core.Context;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * @author Jeoffrey HAEYAERT (jeoffrey.haeyaert at graviteesource.com)
@@ -45,18 +69,62 @@ import java.nio.charset.StandardCharsets;
  */
 public class JsonToXmlTransformationPolicy extends JsonToXmlTransformationPolicyV3 implements Policy {
 
-    public static final String POLICY_JSON_XML_MAXDEPTH = "policy.json-xml.maxdepth";
+    public static final String POLICY_JSON_XML_MAXDEPTH = ExecutionPlan.POLICY_JSON_XML_MAXDEPTH;
     public static final String ENVVAR_POLICY_JSON_XML_MAXDEPTH = "gravitee_policy_jsonxml_maxdepth";
-    private static final String INVALID_PAYLOAD_FAILURE_KEY = "JSON_INVALID_PAYLOAD";
-    private static final String INVALID_MESSAGE_PAYLOAD_FAILURE_KEY = "JSON_INVALID_MESSAGE_PAYLOAD";
+
+    /**
+     * The initial capacity of the direct buffer of each chunk of XML, grown when the XML of a chunk is larger.
+     */
+    private static final int DIRECT_OUTPUT_CAPACITY = 8 * 1024;
 
     public JsonToXmlTransformationPolicy(final JsonToXmlTransformationPolicyConfiguration configuration) {
         super(configuration);
     }
 
+    public JsonToXmlTransformationPolicy(
+        final JsonToXmlTransformationPolicyConfiguration configuration,
+        final TransformationMetrics metrics
+    ) {
+        super(configuration, metrics);
+    }
+
     private static void setContentHeaders(final HttpHeaders headers, final Buffer xmlBuffer) {
+        setContentHeaders(headers, xmlBuffer.length());
+    }
+
+    private static void setContentHeaders(final HttpHeaders headers, final long length) {
         headers.set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
-        headers.set(HttpHeaderNames.CONTENT_LENGTH, Integer.toString(xmlBuffer.length()));
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, Long.toString(length));
+    }
+
+    /**
+     * Set the headers of a body streamed as XML, which must be set before its first chunk is read, the headers being
+     * sent with it.
+     *
+     * @return the action restoring the headers as they were, for a body which turns out to be empty.
+     */
+    private static Runnable setStreamingContentHeaders(final HttpHeaders headers) {
+        final List<String> contentType = values(headers, HttpHeaderNames.CONTENT_TYPE);
+        final List<String> contentLength = values(headers, HttpHeaderNames.CONTENT_LENGTH);
+        final List<String> transferEncoding = values(headers, HttpHeaderNames.TRANSFER_ENCODING);
+        headers.set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+        headers.remove(HttpHeaderNames.CONTENT_LENGTH);
+        headers.set(HttpHeaderNames.TRANSFER_ENCODING, "chunked");
+        return () -> {
+            restoreHeader(headers, HttpHeaderNames.CONTENT_TYPE, contentType);
+            restoreHeader(headers, HttpHeaderNames.CONTENT_LENGTH, contentLength);
+            restoreHeader(headers, HttpHeaderNames.TRANSFER_ENCODING, transferEncoding);
+        };
+    }
+
+    private static List<String> values(final HttpHeaders headers, final String name) {
+        final List<String> values = headers.getAll(name);
+        return values == null ? List.of() : List.copyOf(values);
+    }
+
+    private static void restoreHeader(final HttpHeaders headers, final String name, final List<String> values) {
+        headers.remove(name);
+        values.forEach(value -> headers.add(name, value));
     }
 
     @Override
@@ -66,88 +134,576 @@ public class JsonToXmlTransformationPolicy extends JsonToXmlTransformationPolicy
 
     @Override
     public Completable onRequest(final HttpExecutionContext ctx) {
-        return ctx.request().onBody(body -> transformBodyToXml(ctx, body, ctx.request().headers(), HttpStatusCode.BAD_REQUEST_400));
+        return withPlan(
+            ctx,
+            plan -> {
+                if (plan.getBypass().bypassContentType(ctx.request().headers().get(HttpHeaderNames.CONTENT_TYPE))) {
+                    return Completable.complete();
+                }
+                if (plan.readsChunks()) {
+                    return ctx
+                        .request()
+                        .onChunks(chunks -> transformChunksToXml(ctx, plan, chunks, ctx.request().headers(), Phase.REQUEST));
+                }
+                return ctx.request().onBody(body -> transformBodyToXml(ctx, plan, body, ctx.request().headers(), Phase.REQUEST));
+            },
+            ctx::interruptWith
+        );
     }
 
     @Override
     public Completable onResponse(final HttpExecutionContext ctx) {
-        return ctx
-            .response()
-            .onBody(body -> transformBodyToXml(ctx, body, ctx.response().headers(), HttpStatusCode.INTERNAL_SERVER_ERROR_500));
+        return withPlan(
+            ctx,
+            plan -> {
+                if (bypassResponse(ctx, plan) || plan.getBypass().bypassStatus(ctx.response().status())) {
+                    return Completable.complete();
+                }
+                if (plan.readsChunks()) {
+                    return ctx
+                        .response()
+                        .onChunks(chunks -> transformChunksToXml(ctx, plan, chunks, ctx.response().headers(), Phase.RESPONSE));
+                }
+                return ctx.response().onBody(body -> transformBodyToXml(ctx, plan, body, ctx.response().headers(), Phase.RESPONSE));
+            },
+            ctx::interruptWith
+        );
     }
 
     private Maybe<Buffer> transformBodyToXml(
         final HttpExecutionContext ctx,
+        final ExecutionPlan plan,
         final Maybe<Buffer> bodyUpstream,
         final HttpHeaders httpHeaders,
-        final int failureHttpCode
+        final Phase phase
     ) {
         return bodyUpstream
-            .flatMap(buffer -> transformToXml(buffer, CharsetHelper.extractCharset(httpHeaders), getMaxDepth(ctx)))
-            .doOnSuccess(xmlBuffer -> setContentHeaders(httpHeaders, xmlBuffer))
-            .onErrorResumeWith(
-                ctx.interruptBodyWith(
-                    new ExecutionFailure(failureHttpCode)
-                        .key(INVALID_PAYLOAD_FAILURE_KEY)
-                        .message("Unable to transform invalid JSON payload to XML")
-                )
-            );
+            .flatMap(buffer -> {
+                if (bypassBody(plan, buffer, httpHeaders)) {
+                    return Maybe.just(buffer);
+                }
+                return transformToXml(ctx, plan, buffer, httpHeaders, metrics.start(apiId(ctx), phase))
+                    .doOnSuccess(xmlBuffer -> setContentHeaders(httpHeaders, xmlBuffer));
+            })
+            .onErrorResumeNext(error -> ctx.interruptBodyWith(failure(plan, phase, error)));
+    }
+
+    /**
+     * Transform the body chunk by chunk, each chunk of JSON giving the chunk of XML that can be written from it. The
+     * length of the XML is not known upfront, so it is sent with a chunked transfer encoding. As when the body is
+     * transformed as a whole, an empty body is left as it is, its headers included.
+     */
+    private Flowable<Buffer> transformChunksToXml(
+        final HttpExecutionContext ctx,
+        final ExecutionPlan plan,
+        final Flowable<Buffer> chunksUpstream,
+        final HttpHeaders httpHeaders,
+        final Phase phase
+    ) {
+        final TranscodingLimits limits = plan.getLimits();
+        final long declaredLength = declaredLength(httpHeaders);
+        if (!plan.streams(CharsetHelper.extractCharset(httpHeaders))) {
+            if (plan.getSpillThreshold() > 0) {
+                return spillChunksToXml(ctx, plan, chunksUpstream, httpHeaders, phase, declaredLength);
+            }
+            // Only UTF-8 can be read chunk by chunk, a body using another charset, or read as chunks only to count its
+            // bytes, is transformed as a whole.
+            final Maybe<Buffer> body = Flowable
+                .defer(() -> {
+                    limits.checkInputSize(declaredLength);
+                    final long[] size = new long[1];
+                    return chunksUpstream.doOnNext(chunk -> limits.checkInputSize(size[0] += chunk.length()));
+                })
+                .reduce(Buffer::appendBuffer);
+            return transformBodyToXml(ctx, plan, body, httpHeaders, phase).toFlowable();
+        }
+
+        final Runnable restoreHeaders = setStreamingContentHeaders(httpHeaders);
+        return Flowable
+            .defer(() -> {
+                limits.checkInputSize(declaredLength);
+                final Recorder recorder = metrics.startStreaming(apiId(ctx), phase);
+                final JsonToXmlStreamTranscoder transcoder = new JsonToXmlStreamTranscoder(
+                    plan.getRootElement(),
+                    plan.getMaxDepth(),
+                    plan.isPreserveNumberFormat(),
+                    plan.getTags(),
+                    limits,
+                    plan.getRecordElement(),
+                    plan.isDelimited()
+                );
+                // The direct buffers are owned by the sink until the body ends, the gateway never releasing them.
+                final DirectUtf8ByteSink direct = plan.isDirectOutput()
+                    ? new DirectUtf8ByteSink(PooledByteBufAllocator.DEFAULT, DIRECT_OUTPUT_CAPACITY).limit(limits)
+                    : null;
+                final long[] bytes = new long[2];
+                return chunksUpstream
+                    .map(chunk -> {
+                        bytes[0] += chunk.length();
+                        if (direct != null) {
+                            return Buffer.buffer(transcoder.write(read(chunk), direct).take());
+                        }
+                        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+                            return toBuffer(transcoder.write(read(chunk), scratch.output(chunk.length())), scratch);
+                        }
+                    })
+                    .concatWith(
+                        Maybe.fromCallable(() ->
+                            direct != null ? Buffer.buffer(transcoder.end(direct).take()) : toBuffer(transcoder.end(new Utf8ByteSink()))
+                        )
+                    )
+                    .doOnNext(xmlBuffer -> limits.checkOutputSize(bytes[1] += xmlBuffer.length()))
+                    .doOnComplete(() -> {
+                        // The headers are only restored when no XML was written, they frame the XML otherwise.
+                        if (bytes[0] == 0 && bytes[1] == 0) {
+                            restoreHeaders.run();
+                            return;
+                        }
+                        recorder.success(transcoder, bytes[0], bytes[1]);
+                    })
+                    .doOnError(recorder::failure)
+                    .filter(xmlBuffer -> xmlBuffer.length() > 0)
+                    .doFinally(() -> {
+                        if (direct != null) {
+                            direct.release();
+                        }
+                    });
+            })
+            .onErrorResumeNext(error -> ctx.interruptBodyWith(failure(plan, phase, error)).toFlowable());
+    }
+
+    /**
+     * Transform the body as a whole, holding it in memory until it reaches the spill threshold and spilling it to a file
+     * from then on. A spilled body is transformed by a worker thread into a file of XML, sent chunk by chunk as they are
+     * requested, with its Content-Length. The files are deleted once the XML has been sent, or as soon as the body
+     * fails or is cancelled.
+     */
+    private Flowable<Buffer> spillChunksToXml(
+        final HttpExecutionContext ctx,
+        final ExecutionPlan plan,
+        final Flowable<Buffer> chunksUpstream,
+        final HttpHeaders httpHeaders,
+        final Phase phase,
+        final long declaredLength
+    ) {
+        final TranscodingLimits limits = plan.getLimits();
+        return Flowable
+            .defer(() -> {
+                limits.checkInputSize(declaredLength);
+                final SpilledBody body = new SpilledBody(plan.getSpillThreshold(), plan.getSpillDirectory());
+                return chunksUpstream
+                    .doOnNext(chunk -> {
+                        limits.checkInputSize(body.size() + chunk.length());
+                        body.append(chunk);
+                    })
+                    .ignoreElements()
+                    .andThen(Flowable.defer(() -> transformSpilledToXml(ctx, plan, body, httpHeaders, phase)))
+                    .doFinally(body::close);
+            })
+            .onErrorResumeNext(error -> ctx.interruptBodyWith(failure(plan, phase, error)).toFlowable());
+    }
+
+    private Flowable<Buffer> transformSpilledToXml(
+        final HttpExecutionContext ctx,
+        final ExecutionPlan plan,
+        final SpilledBody body,
+        final HttpHeaders httpHeaders,
+        final Phase phase
+    ) {
+        if (!body.isSpilled()) {
+            final Maybe<Buffer> buffer = body.head() == null ? Maybe.empty() : Maybe.just(body.head());
+            return transformBodyToXml(ctx, plan, buffer, httpHeaders, phase).toFlowable();
+        }
+        // A spilled body is bypassed from its first bytes, those held in memory before it was spilled.
+        if (bypassBody(plan, body.head(), httpHeaders)) {
+            return body.readInput();
+        }
+        // The files are always read and written by a worker thread, never by the event loop.
+        return transformToXml(
+            ctx,
+            plan,
+            true,
+            httpHeaders,
+            metrics.start(apiId(ctx), phase),
+            (charset, recorder) -> transform(plan, body, charset, recorder)
+        )
+            .flatMapPublisher(length -> {
+                setContentHeaders(httpHeaders, length);
+                return body.readOutput();
+            });
+    }
+
+    /**
+     * Transform a spilled body from its file into the file of its XML.
+     *
+     * @return the number of bytes of the XML.
+     */
+    private static long transform(final ExecutionPlan plan, final SpilledBody body, final Charset charset, final Recorder recorder) {
+        final TranscodingLimits limits = plan.getLimits();
+        final JsonToXmlTranscoder transcoder;
+        try (Reader reader = body.reader(charset); Writer writer = body.writer(limits)) {
+            transcoder =
+                new JsonToXmlTranscoder(
+                    new JSONTokener(reader, plan.getMaxDepth()).limit(limits),
+                    plan.isPreserveNumberFormat(),
+                    plan.getTags(),
+                    limits
+                );
+            transcoder.transcode(plan.getRootElement(), plan.getRecordElement(), plan.isDelimited(), writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        recorder.success(transcoder, body.size(), body.outputSize());
+        return body.outputSize();
+    }
+
+    private static ExecutionFailure failure(final ExecutionPlan plan, final Phase phase, final Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TranscodingLimitException) {
+                return plan.failure(phase, true);
+            }
+            if (cause instanceof RejectedExecutionException) {
+                return plan.rejection();
+            }
+        }
+        return plan.failure(phase, false);
     }
 
     @Override
     public Completable onMessageRequest(MessageExecutionContext ctx) {
-        return ctx
-            .request()
-            .onMessage(message -> transformMessageToXml(ctx, message, ctx.request().headers(), HttpStatusCode.BAD_REQUEST_400));
+        return withPlan(
+            ctx,
+            plan -> {
+                if (plan.getBypass().bypassContentType(ctx.request().headers().get(HttpHeaderNames.CONTENT_TYPE))) {
+                    return Completable.complete();
+                }
+                if (plan.getBatching() != null) {
+                    return ctx
+                        .request()
+                        .onMessages(messages -> transformBatchesToXml(ctx, plan, messages, ctx.request().headers(), Phase.MESSAGE_REQUEST));
+                }
+                if (plan.getParallelism() > 1) {
+                    return ctx
+                        .request()
+                        .onMessages(messages ->
+                            transformMessagesToXml(ctx, plan, messages, ctx.request().headers(), Phase.MESSAGE_REQUEST)
+                        );
+                }
+                return ctx
+                    .request()
+                    .onMessage(message -> transformMessageToXml(ctx, plan, message, ctx.request().headers(), Phase.MESSAGE_REQUEST));
+            },
+            failure -> ctx.request().onMessages(messages -> ctx.interruptMessagesWith(failure))
+        );
     }
 
     @Override
     public Completable onMessageResponse(MessageExecutionContext ctx) {
-        return ctx
-            .response()
-            .onMessage(message -> transformMessageToXml(ctx, message, ctx.response().headers(), HttpStatusCode.INTERNAL_SERVER_ERROR_500));
+        return withPlan(
+            ctx,
+            plan -> {
+                if (bypassResponse(ctx, plan)) {
+                    return Completable.complete();
+                }
+                if (plan.getBatching() != null) {
+                    return ctx
+                        .response()
+                        .onMessages(messages ->
+                            transformBatchesToXml(ctx, plan, messages, ctx.response().headers(), Phase.MESSAGE_RESPONSE)
+                        );
+                }
+                if (plan.getParallelism() > 1) {
+                    return ctx
+                        .response()
+                        .onMessages(messages ->
+                            transformMessagesToXml(ctx, plan, messages, ctx.response().headers(), Phase.MESSAGE_RESPONSE)
+                        );
+                }
+                return ctx
+                    .response()
+                    .onMessage(message -> transformMessageToXml(ctx, plan, message, ctx.response().headers(), Phase.MESSAGE_RESPONSE));
+            },
+            failure -> ctx.response().onMessages(messages -> ctx.interruptMessagesWith(failure))
+        );
     }
 
     private Maybe<Message> transformMessageToXml(
         final MessageExecutionContext ctx,
+        final ExecutionPlan plan,
         final Message message,
         final HttpHeaders httpHeaders,
-        final int failureHttpCode
+        final Phase phase
     ) {
+        if (bypassBody(plan, message.content(), httpHeaders)) {
+            return Maybe.just(message);
+        }
+        final Buffer buffer = message.content();
+        final Recorder recorder = metrics.start(apiId(ctx), phase);
+        // A message without content is never offloaded, its transformation failing as it would on the event loop.
         return transformToXml(
-            message.content(),
-            CharsetHelper.extractCharset(httpHeaders),
-            ctx.getComponent(Configuration.class).getProperty(POLICY_JSON_XML_MAXDEPTH, Integer.class, JSONTokener.DEFAULT_MAX_DEPTH)
+            ctx,
+            plan,
+            plan.offloadsMessage(contentLength(message)),
+            httpHeaders,
+            recorder,
+            (charset, transformation) -> transform(plan, buffer, charset, transformation)
         )
             .map(message::content)
             .doOnSuccess(xmlMessage -> setContentHeaders(message.headers(), xmlMessage.content()))
-            .onErrorResumeWith(
-                ctx.interruptMessageWith(
-                    new ExecutionFailure(failureHttpCode)
-                        .key(INVALID_MESSAGE_PAYLOAD_FAILURE_KEY)
-                        .message("Unable to transform invalid JSON message to XML")
+            .onErrorResumeNext(error -> ctx.interruptMessageWith(failure(plan, phase, error)));
+    }
+
+    /**
+     * Transform the messages concurrently, each one failing or succeeding as it would on its own.
+     */
+    private Flowable<Message> transformMessagesToXml(
+        final MessageExecutionContext ctx,
+        final ExecutionPlan plan,
+        final Flowable<Message> messages,
+        final HttpHeaders httpHeaders,
+        final Phase phase
+    ) {
+        return transformInOrder(
+            plan,
+            messages,
+            JsonToXmlTransformationPolicy::contentLength,
+            message -> transformMessageToXml(ctx, plan, message, httpHeaders, phase)
+        );
+    }
+
+    /**
+     * Transform the messages by batches, each batch giving a single XML message. A batch of several messages gives a
+     * {@link BatchedMessage}, carrying the XML of all of them and acknowledging, or flagging as an error, all of them.
+     * A batch of a single message keeps that message, its content being replaced by its XML. As for messages transformed one by one, a batch which cannot be transformed interrupts the
+     * messages: the batches after it are discarded, the ones before it having already been sent.
+     */
+    private Flowable<Message> transformBatchesToXml(
+        final MessageExecutionContext ctx,
+        final ExecutionPlan plan,
+        final Flowable<Message> messages,
+        final HttpHeaders httpHeaders,
+        final Phase phase
+    ) {
+        return plan
+            .getBatching()
+            .batches(messages, message -> message.content().length(), message -> isPassThrough(plan, message, httpHeaders))
+            .compose(batches ->
+                transformInOrder(
+                    plan,
+                    batches,
+                    batch -> batch.stream().mapToLong(JsonToXmlTransformationPolicy::contentLength).sum(),
+                    batch -> transformBatchToXml(ctx, plan, batch, httpHeaders, phase)
                 )
-            );
+            )
+            .onErrorResumeNext(error -> ctx.interruptMessagesWith(failure(plan, phase, error)));
     }
 
-    private Maybe<Buffer> transformToXml(Buffer buffer, final Charset charset, int maxDepth) {
+    private Maybe<Message> transformBatchToXml(
+        final MessageExecutionContext ctx,
+        final ExecutionPlan plan,
+        final List<Message> batch,
+        final HttpHeaders httpHeaders,
+        final Phase phase
+    ) {
+        final Message first = batch.get(0);
+        if (batch.size() == 1 && isPassThrough(plan, first, httpHeaders)) {
+            return Maybe.just(first);
+        }
+        final List<Buffer> inputs = new ArrayList<>(batch.size());
+        for (Message message : batch) {
+            inputs.add(message.content());
+        }
+        final Recorder recorder = metrics.start(apiId(ctx), phase);
+        final long length = batch.stream().mapToLong(JsonToXmlTransformationPolicy::contentLength).sum();
+        return transformToXml(
+            ctx,
+            plan,
+            plan.offloadsMessage(length),
+            httpHeaders,
+            recorder,
+            (charset, transformation) -> transform(plan, inputs, charset, transformation)
+        )
+            .map(xmlBuffer -> {
+                final Message xmlMessage = batch.size() == 1 ? first.content(xmlBuffer) : new BatchedMessage(batch, xmlBuffer);
+                setContentHeaders(xmlMessage.headers(), xmlBuffer);
+                return xmlMessage;
+            });
+    }
+
+    /**
+     * Transform items one after the other, or concurrently on the worker threads when the plan parallelizes the
+     * transformations of messages, every item being then offloaded whatever its size. The results are emitted in the
+     * order of the items either way, and the first failure in that order ends the flow, the results of the items after
+     * it being dropped as if they had never been transformed. The concurrent transformations are bounded by the
+     * parallelism of the plan, and by its maximum number of bytes in flight.
+     */
+    private static <T> Flowable<Message> transformInOrder(
+        final ExecutionPlan plan,
+        final Flowable<T> items,
+        final ToLongFunction<T> size,
+        final Function<T, Maybe<Message>> transformation
+    ) {
+        if (plan.getParallelism() <= 1) {
+            return items.concatMapMaybe(transformation::apply);
+        }
+        return Flowable.defer(() -> {
+            final ByteBudget budget = new ByteBudget(plan.getMaxBytesInFlight());
+            return items
+                .concatMapEager(
+                    item -> budget.run(size.applyAsLong(item), () -> transformation.apply(item)).materialize().toFlowable(),
+                    plan.getParallelism(),
+                    1
+                )
+                .filter(notification -> !notification.isOnComplete())
+                .dematerialize(notification -> notification);
+        });
+    }
+
+    /**
+     * @return the length of the body declared by its Content-Length header, -1 when unknown.
+     */
+    private static long declaredLength(final HttpHeaders httpHeaders) {
+        final String contentLength = httpHeaders.get(HttpHeaderNames.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return -1;
+        }
         try {
-            String encodedPayload = new String(buffer.toString(charset).getBytes(StandardCharsets.UTF_8));
-            JSONObject jsonPayload = new JSONObject(encodedPayload, maxDepth);
-            JSONObject jsonPayloadWithRoot = new JSONObject();
-            jsonPayloadWithRoot.append(configuration.getRootElement(), jsonPayload);
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 
-            return Maybe.just(Buffer.buffer(XML.toString(jsonPayloadWithRoot)));
+    private static long contentLength(final Message message) {
+        return message.content() == null ? 0 : message.content().length();
+    }
+
+    /**
+     * @return true if the message is let through as it is by a batch, having no content or being bypassed.
+     */
+    private static boolean isPassThrough(final ExecutionPlan plan, final Message message, final HttpHeaders httpHeaders) {
+        return message.content() == null || bypassBody(plan, message.content(), httpHeaders);
+    }
+
+    /**
+     * The content type of the response and the accepted types of the request are known before the response body is
+     * read, so that a bypassed response is not even buffered.
+     */
+    private static boolean bypassResponse(final GenericExecutionContext ctx, final ExecutionPlan plan) {
+        return (
+            plan.getBypass().bypassContentType(ctx.response().headers().get(HttpHeaderNames.CONTENT_TYPE)) ||
+            plan.getBypass().bypassAccept(() -> ctx.request().headers().get(HttpHeaderNames.ACCEPT))
+        );
+    }
+
+    private static boolean bypassBody(final ExecutionPlan plan, final Buffer buffer, final HttpHeaders httpHeaders) {
+        if (buffer == null || !plan.getBypass().inspectsBody()) {
+            return false;
+        }
+        final Charset charset;
+        try {
+            charset = CharsetHelper.extractCharset(httpHeaders);
+        } catch (IllegalArgumentException ex) {
+            // The transformation fails on the same charset, and records the failure.
+            return false;
+        }
+        return plan.getBypass().bypassBody(buffer.getNativeBuffer(), charset);
+    }
+
+    /**
+     * Transform a payload on the current thread, or on a worker thread when it reaches the offload threshold of the
+     * configuration, so that a large payload does not hold the event loop during its transformation.
+     */
+    private Maybe<Buffer> transformToXml(
+        final GenericExecutionContext ctx,
+        final ExecutionPlan plan,
+        final Buffer buffer,
+        final HttpHeaders httpHeaders,
+        final Recorder recorder
+    ) {
+        return transformToXml(
+            ctx,
+            plan,
+            plan.offloads(buffer.length()),
+            httpHeaders,
+            recorder,
+            (charset, transformation) -> transform(plan, buffer, charset, transformation)
+        );
+    }
+
+    /**
+     * Run a transformation on the current thread, or on a worker thread. An offloaded transformation is timed from the
+     * moment a worker thread runs it, its wait in the queue of the workers not being part of its transcoding.
+     */
+    private <T> Maybe<T> transformToXml(
+        final GenericExecutionContext ctx,
+        final ExecutionPlan plan,
+        final boolean offload,
+        final HttpHeaders httpHeaders,
+        final Recorder recorder,
+        final BiFunction<Charset, Recorder, T> transformation
+    ) {
+        final Charset charset;
+        try {
+            charset = CharsetHelper.extractCharset(httpHeaders);
         } catch (Exception ex) {
-            return Maybe.error(new TransformationException("Unable to transform JSON into XML: " + ex.getMessage(), ex));
+            return Maybe.error(transformationFailure(ex, recorder));
         }
+        if (offload) {
+            return TransformationOffloader
+                .getDefault(ctx.getComponent(Configuration.class))
+                .offload(() -> transformation.apply(charset, recorder.restart()))
+                .onErrorResumeNext(ex -> Maybe.error(transformationFailure(ex, recorder)));
+        }
+        try {
+            return Maybe.just(transformation.apply(charset, recorder));
+        } catch (Exception ex) {
+            return Maybe.error(transformationFailure(ex, recorder));
+        }
+    }
+
+    /**
+     * A payload is only split when it is offloaded, its worker thread waiting for the fork-join pool. An offloaded
+     * payload run by the event loop, the workers being too busy to take it, is never split.
+     */
+    @Override
+    protected boolean forks(final ExecutionPlan plan, final long length) {
+        return plan.forks(length) && !Context.isOnEventLoopThread();
+    }
+
+    private static TransformationException transformationFailure(final Throwable error, final Recorder recorder) {
+        recorder.failure(error);
+        return new TransformationException("Unable to transform JSON into XML: " + error.getMessage(), error);
     }
 
-    protected int getMaxDepth(GenericExecutionContext ctx) {
-        if (this.maxDepth == null) {
-            this.maxDepth =
-                ctx.getComponent(Configuration.class).getProperty(POLICY_JSON_XML_MAXDEPTH, Integer.class, JSONTokener.DEFAULT_MAX_DEPTH);
+    private static String apiId(final GenericExecutionContext ctx) {
+        return ctx.getAttribute(ContextAttributes.ATTR_API);
+    }
+
+    /**
+     * Run an execution with the plan of the transformations. The plan is built on the first execution, the configuration
+     * of the gateway being only known then, so that a configuration of the policy which cannot be planned interrupts
+     * the execution instead of being thrown out of the policy.
+     */
+    private Completable withPlan(
+        final GenericExecutionContext ctx,
+        final Function<ExecutionPlan, Completable> execution,
+        final Function<ExecutionFailure, Completable> interruption
+    ) {
+        final ExecutionPlan plan;
+        try {
+            plan = plan(ctx);
+        } catch (IllegalArgumentException ex) {
+            return interruption.apply(ExecutionPlan.invalidConfiguration(ex));
         }
-        return this.maxDepth;
+        return execution.apply(plan);
+    }
+
+    /**
+     * @return the plan of the transformations, built from the configuration of the gateway on the first call.
+     */
+    protected ExecutionPlan plan(final GenericExecutionContext ctx) {
+        final ExecutionPlan current = plan;
+        return current != null ? current : plan(ctx.getComponent(Configuration.class));
     }
 }
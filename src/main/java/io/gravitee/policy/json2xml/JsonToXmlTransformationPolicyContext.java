@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml;
+
+import io.gravitee.policy.api.PolicyContext;
+import io.gravitee.policy.json2xml.offload.TransformationOffloader;
+import io.gravitee.policy.json2xml.transformer.JsonToXmlForkJoinTranscoder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The lifecycle of the thread pools shared by all the APIs using the policy: the worker threads of the offloading and
+ * the fork-join pool. They are created by the first transformation needing them, and shut down once the gateway has
+ * deactivated the context of the policy as many times as it activated it, so that their threads and meters do not keep
+ * the plugin loaded. The activations of the context are counted, not the APIs using the policy.
+ *
+ * @author GraviteeSource Team
+ */
+public class JsonToXmlTransformationPolicyContext implements PolicyContext {
+
+    /**
+     * The number of activations of the context of the policy not followed yet by a deactivation.
+     */
+    private static final AtomicInteger ACTIVATIONS = new AtomicInteger();
+
+    @Override
+    public void onActivation() {
+        ACTIVATIONS.incrementAndGet();
+    }
+
+    @Override
+    public void onDeactivation() {
+        if (ACTIVATIONS.updateAndGet(activations -> Math.max(0, activations - 1)) == 0) {
+            TransformationOffloader.shutdownDefault();
+            JsonToXmlForkJoinTranscoder.shutdownDefaultPool();
+        }
+    }
+}
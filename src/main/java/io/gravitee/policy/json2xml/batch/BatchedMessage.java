@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.batch;
+
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.gravitee.gateway.reactive.api.message.DefaultMessage;
+import io.gravitee.gateway.reactive.api.message.Message;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The message carrying the XML of a batch of several messages. It stands for all of them downstream: acknowledging it
+ * acknowledges every message of the batch, and flagging it as an error flags every message of the batch, so that the
+ * failure of its delivery is not lost for the messages it batches. Its only headers are its content headers, it carries
+ * none of the headers, attributes and metadata of the messages it batches, which can differ from one message to another.
+ *
+ * @author GraviteeSource Team
+ */
+public class BatchedMessage extends DefaultMessage {
+
+    private final List<Message> messages;
+
+    /**
+     * @param messages the messages of the batch.
+     * @param content the XML of the batch.
+     */
+    public BatchedMessage(List<Message> messages, Buffer content) {
+        this.messages = List.copyOf(messages);
+        headers(HttpHeaders.create());
+        metadata(new HashMap<>());
+        content(content);
+        ackRunnable(() -> this.messages.forEach(Message::ack));
+    }
+
+    @Override
+    public DefaultMessage error(boolean error) {
+        super.error(error);
+        messages.forEach(message -> message.error(error));
+        return this;
+    }
+
+    /**
+     * @return the messages of the batch.
+     */
+    public List<Message> messages() {
+        return messages;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.batch;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * The batches of messages transformed together into a single XML message, each message being written as a record of
+ * the root element. The messages are grouped into windows, closed once they hold the maximum number of messages, or
+ * once the maximum delay has elapsed since they were opened. A window is cut into batches as its messages arrive, a
+ * batch being emitted as soon as it reaches the maximum number of bytes, so that no more than a batch of messages is
+ * held at a time.
+ *
+ * @author GraviteeSource Team
+ */
+public final class MessageBatching {
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final long maxDelay;
+    private final String recordElement;
+
+    /**
+     * @param maxMessages the maximum number of messages of a batch, at least 1.
+     * @param maxBytes the maximum number of bytes of the messages of a batch, 0 for no limit. A message larger than
+     * this limit is transformed alone.
+     * @param maxDelay the maximum time, in milliseconds, a message waits for the other messages of its batch, 0 to
+     * wait until the batch is full.
+     * @param recordElement the name of the element enclosing each message of a batch.
+     * @throws IllegalArgumentException If the maximum number of messages is not positive.
+     */
+    public MessageBatching(int maxMessages, long maxBytes, long maxDelay, String recordElement) {
+        if (maxMessages < 1) {
+            throw new IllegalArgumentException("The maximum number of messages of a batch must be positive: " + maxMessages);
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.maxDelay = maxDelay;
+        this.recordElement = recordElement;
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public String getRecordElement() {
+        return recordElement;
+    }
+
+    /**
+     * Group the messages into batches, the timer of the windows running on the Vert.x context of the subscriber, or on
+     * the computation scheduler when there is no such context.
+     */
+    public <T> Flowable<List<T>> batches(Flowable<T> messages, ToLongFunction<T> size, Predicate<T> passThrough) {
+        return Flowable.defer(() -> batches(messages, size, passThrough, contextScheduler()));
+    }
+
+    /**
+     * Group the messages into batches, bounded by the maximum number of messages, by the maximum delay and by the
+     * maximum number of bytes. A message which must not be transformed is alone in its batch, so that it can be let
+     * through as it is.
+     *
+     * @param messages the messages.
+     * @param size gives the number of bytes of a message.
+     * @param passThrough tells the messages which must not be transformed.
+     * @param scheduler the scheduler of the timer closing the windows.
+     * @return the non-empty batches, in the order of their messages.
+     */
+    public <T> Flowable<List<T>> batches(Flowable<T> messages, ToLongFunction<T> size, Predicate<T> passThrough, Scheduler scheduler) {
+        final Flowable<Flowable<T>> windows = maxDelay > 0
+            ? messages.window(maxDelay, TimeUnit.MILLISECONDS, scheduler, maxMessages)
+            : messages.window(maxMessages);
+        // Windows must be subscribed to as soon as they are opened, and never overlap.
+        return windows.concatMapEager(window ->
+            Flowable.defer(() -> {
+                final Batcher<T> batcher = new Batcher<>(size, passThrough);
+                return window.concatMapIterable(batcher::add).concatWith(Flowable.defer(batcher::flush));
+            })
+        );
+    }
+
+    private static Scheduler contextScheduler() {
+        final Context context = Vertx.currentContext();
+        if (context == null) {
+            return Schedulers.computation();
+        }
+        return Schedulers.from(command -> context.runOnContext(v -> command.run()));
+    }
+
+    /**
+     * Cuts the messages of a window into batches whose messages do not exceed the maximum number of bytes.
+     */
+    private final class Batcher<T> {
+
+        private final ToLongFunction<T> size;
+        private final Predicate<T> passThrough;
+        private List<T> batch;
+        private long bytes;
+
+        private Batcher(ToLongFunction<T> size, Predicate<T> passThrough) {
+            this.size = size;
+            this.passThrough = passThrough;
+        }
+
+        /**
+         * @return the batches closed by the message.
+         */
+        private List<List<T>> add(T message) {
+            final List<List<T>> closed = new ArrayList<>(2);
+            if (passThrough.test(message)) {
+                close(closed);
+                closed.add(Collections.singletonList(message));
+                return closed;
+            }
+            final long length = size.applyAsLong(message);
+            if (maxBytes > 0 && bytes + length > maxBytes) {
+                close(closed);
+            }
+            if (batch == null) {
+                batch = new ArrayList<>();
+            }
+            batch.add(message);
+            bytes += length;
+            if (maxBytes > 0 && bytes >= maxBytes) {
+                close(closed);
+            }
+            return closed;
+        }
+
+        /**
+         * @return the batch left open when the window is closed, if any.
+         */
+        private Flowable<List<T>> flush() {
+            final List<List<T>> closed = new ArrayList<>(1);
+            close(closed);
+            return Flowable.fromIterable(closed);
+        }
+
+        private void close(List<List<T>> closed) {
+            if (batch != null) {
+                closed.add(batch);
+                batch = null;
+                bytes = 0;
+            }
+        }
+    }
+}
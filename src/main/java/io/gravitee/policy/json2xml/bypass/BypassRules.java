@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.bypass;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * The rules deciding that a payload is left as it is instead of being transformed. They only look at headers, at the
+ * status of the response or at the first bytes of the payload, so that a payload which is not JSON, or whose XML is
+ * not wanted, is let through without being parsed.
+ *
+ * @author GraviteeSource Team
+ */
+public final class BypassRules {
+
+    /**
+     * No bypass at all, every payload is transformed.
+     */
+    public static final BypassRules NONE = new BypassRules(false, null, false, false);
+
+    private static final int MAX_STATUS = 999;
+    private static final byte[] UTF_8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    private final boolean nonJson;
+    private final BitSet statusCodes;
+    private final boolean emptyBody;
+    private final boolean xmlNotAccepted;
+
+    /**
+     * @param nonJson bypass the payloads whose content type is not JSON, or which do not start with an object or an
+     * array.
+     * @param statusCodes the status codes, or ranges of status codes, of the responses to bypass, separated by commas
+     * (<code>204, 400-599</code>). May be null.
+     * @param emptyBody bypass the empty payloads, and the payloads made of blanks only.
+     * @param xmlNotAccepted bypass the responses when the <code>Accept</code> header of the request does not accept XML.
+     * @throws IllegalArgumentException If the status codes cannot be parsed.
+     */
+    public BypassRules(boolean nonJson, String statusCodes, boolean emptyBody, boolean xmlNotAccepted) {
+        this.nonJson = nonJson;
+        this.statusCodes = parseStatusCodes(statusCodes);
+        this.emptyBody = emptyBody;
+        this.xmlNotAccepted = xmlNotAccepted;
+    }
+
+    private static BitSet parseStatusCodes(String statusCodes) {
+        final BitSet codes = new BitSet();
+        if (statusCodes == null) {
+            return codes;
+        }
+        for (String range : statusCodes.split(",")) {
+            final String trimmed = range.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            final int dash = trimmed.indexOf('-');
+            try {
+                final int from = Integer.parseInt((dash < 0 ? trimmed : trimmed.substring(0, dash)).trim());
+                final int to = dash < 0 ? from : Integer.parseInt(trimmed.substring(dash + 1).trim());
+                if (from < 0 || to > MAX_STATUS || from > to) {
+                    throw new IllegalArgumentException("Invalid range of status codes: " + trimmed);
+                }
+                codes.set(from, to + 1);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid range of status codes: " + trimmed, ex);
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * @param contentType the <code>Content-Type</code> header of the payload, may be null.
+     * @return true if the payload declares a content type which is not JSON.
+     */
+    public boolean bypassContentType(String contentType) {
+        return nonJson && contentType != null && !isJson(contentType);
+    }
+
+    /**
+     * @param status the status of the response.
+     * @return true if the status of the response is one of the bypassed ones.
+     */
+    public boolean bypassStatus(int status) {
+        return status >= 0 && status <= MAX_STATUS && statusCodes.get(status);
+    }
+
+    /**
+     * @param accept the supplier of the <code>Accept</code> header of the request, only called when this rule is
+     * enabled. The header may be null.
+     * @return true if the client does not accept XML.
+     */
+    public boolean bypassAccept(Supplier<String> accept) {
+        if (!xmlNotAccepted) {
+            return false;
+        }
+        final String value = accept.get();
+        return value != null && !value.isBlank() && !acceptsXml(value);
+    }
+
+    /**
+     * @param body the bytes of the payload.
+     * @param charset the charset of the payload.
+     * @return true if the payload is empty or blank, or does not start with an object or an array. A blank payload is
+     * bypassed as an empty one, whether the non JSON payloads are bypassed or not.
+     */
+    public boolean bypassBody(ByteBuf body, Charset charset) {
+        if (!body.isReadable()) {
+            return emptyBody;
+        }
+        if (!isAsciiCompatible(charset)) {
+            return false;
+        }
+        int index = body.readerIndex();
+        if (
+            body.readableBytes() >= UTF_8_BOM.length &&
+            body.getByte(index) == UTF_8_BOM[0] &&
+            body.getByte(index + 1) == UTF_8_BOM[1] &&
+            body.getByte(index + 2) == UTF_8_BOM[2]
+        ) {
+            index += UTF_8_BOM.length;
+        }
+        final int first = body.forEachByte(index, body.writerIndex() - index, b -> b == ' ' || b == '\t' || b == '\n' || b == '\r');
+        if (first < 0) {
+            // Only blanks, which hold no more JSON than an empty payload.
+            return emptyBody;
+        }
+        if (!nonJson) {
+            return false;
+        }
+        final byte b = body.getByte(first);
+        return b != '{' && b != '[';
+    }
+
+    /**
+     * @return true if payloads may be bypassed once read, so that their first bytes have to be looked at.
+     */
+    public boolean inspectsBody() {
+        return nonJson || emptyBody;
+    }
+
+    private static boolean isJson(String contentType) {
+        final String subtype = subtype(mediaType(contentType));
+        return subtype != null && subtype.endsWith("json");
+    }
+
+    private static boolean acceptsXml(String accept) {
+        for (String range : accept.split(",")) {
+            final String mediaRange = mediaType(range);
+            if (isXmlRange(mediaRange) && quality(range) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isXmlRange(String mediaRange) {
+        final int slash = mediaRange.indexOf('/');
+        if (slash < 0) {
+            return "*".equals(mediaRange);
+        }
+        final String type = mediaRange.substring(0, slash);
+        final String subtype = mediaRange.substring(slash + 1);
+        if ("*".equals(subtype)) {
+            return "*".equals(type) || "application".equals(type) || "text".equals(type);
+        }
+        return "xml".equals(subtype) || subtype.endsWith("+xml");
+    }
+
+    private static float quality(String range) {
+        for (String parameter : range.split(";")) {
+            final String trimmed = parameter.trim();
+            if (trimmed.length() > 2 && (trimmed.charAt(0) == 'q' || trimmed.charAt(0) == 'Q') && trimmed.charAt(1) == '=') {
+                try {
+                    return Float.parseFloat(trimmed.substring(2).trim());
+                } catch (NumberFormatException ex) {
+                    return 1;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static String mediaType(String value) {
+        final int semicolon = value.indexOf(';');
+        return (semicolon < 0 ? value : value.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String subtype(String mediaType) {
+        final int slash = mediaType.indexOf('/');
+        return slash < 0 ? null : mediaType.substring(slash + 1);
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        // The bytes of the structural characters of JSON are only known for the charsets extending ASCII.
+        return StandardCharsets.UTF_8.equals(charset) || !(charset.name().contains("UTF-16") || charset.name().contains("UTF-32"));
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.configuration;
+
+import io.gravitee.common.http.HttpStatusCode;
+import io.gravitee.gateway.reactive.api.ExecutionFailure;
+import io.gravitee.node.api.configuration.Configuration;
+import io.gravitee.policy.json2xml.batch.MessageBatching;
+import io.gravitee.policy.json2xml.bypass.BypassRules;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics.Phase;
+import io.gravitee.policy.json2xml.transformer.JSONTokener;
+import io.gravitee.policy.json2xml.transformer.JsonToXmlForkJoinTranscoder;
+import io.gravitee.policy.json2xml.transformer.TagCache;
+import io.gravitee.policy.json2xml.transformer.TranscodingLimits;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Everything a policy needs to transform a payload, resolved once from its configuration and from the configuration of
+ * the gateway, and shared by all the transformations of the policy whatever their engine and their thread. A plan is
+ * immutable: a policy whose configuration changes is a new policy, with a new plan.
+ *
+ * @author GraviteeSource Team
+ */
+public final class ExecutionPlan {
+
+    public static final String POLICY_JSON_XML_MAXDEPTH = "policy.json-xml.maxdepth";
+    public static final String POLICY_JSON_XML_FORKJOIN_PARALLELISM = "policy.json-xml.forkjoin.parallelism";
+    public static final int DEFAULT_FORKJOIN_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    public static final String POLICY_JSON_XML_SPILL_DIRECTORY = "policy.json-xml.spill.directory";
+
+    private static final String INVALID_PAYLOAD_FAILURE_KEY = "JSON_INVALID_PAYLOAD";
+    private static final String INVALID_MESSAGE_PAYLOAD_FAILURE_KEY = "JSON_INVALID_MESSAGE_PAYLOAD";
+    private static final String PAYLOAD_LIMIT_EXCEEDED_FAILURE_KEY = "JSON_PAYLOAD_LIMIT_EXCEEDED";
+    private static final String MESSAGE_PAYLOAD_LIMIT_EXCEEDED_FAILURE_KEY = "JSON_MESSAGE_PAYLOAD_LIMIT_EXCEEDED";
+    private static final String TRANSFORMATION_REJECTED_FAILURE_KEY = "JSON_TRANSFORMATION_REJECTED";
+    private static final String INVALID_CONFIGURATION_FAILURE_KEY = "JSON_XML_INVALID_CONFIGURATION";
+
+    private final String rootElement;
+    private final String recordElement;
+    private final boolean delimited;
+    private final boolean streaming;
+    private final boolean directOutput;
+    private final boolean preserveNumberFormat;
+    private final int maxDepth;
+    private final int offloadThreshold;
+    private final int parallelism;
+    private final long maxBytesInFlight;
+    private final TranscodingLimits limits;
+    private final BypassRules bypass;
+    private final MessageBatching batching;
+    private final TagCache tags;
+    private final int forkJoinThreshold;
+    private final JsonToXmlForkJoinTranscoder forkJoin;
+    private final int spillThreshold;
+    private final Path spillDirectory;
+    private final ExecutionFailure[] invalidFailures = new ExecutionFailure[Phase.values().length];
+    private final ExecutionFailure[] limitFailures = new ExecutionFailure[Phase.values().length];
+    private final ExecutionFailure rejectedFailure = new ExecutionFailure(HttpStatusCode.SERVICE_UNAVAILABLE_503)
+        .key(TRANSFORMATION_REJECTED_FAILURE_KEY)
+        .message("Too many JSON payloads are being transformed to XML");
+
+    /**
+     * @param configuration the configuration of the policy.
+     * @param maxDepth the maximum number of nested objects or arrays, -1 for no limit.
+     * @throws IllegalArgumentException If the bypassed status codes, or the batches of messages, are invalid.
+     */
+    public ExecutionPlan(JsonToXmlTransformationPolicyConfiguration configuration, int maxDepth) {
+        this(configuration, maxDepth, DEFAULT_FORKJOIN_PARALLELISM);
+    }
+
+    /**
+     * @param configuration the configuration of the policy.
+     * @param maxDepth the maximum number of nested objects or arrays, -1 for no limit.
+     * @param forkJoinParallelism the number of threads of the pool transcoding the segments of large payloads, when it
+     * is first created.
+     * @throws IllegalArgumentException If the bypassed status codes, or the batches of messages, are invalid.
+     */
+    public ExecutionPlan(JsonToXmlTransformationPolicyConfiguration configuration, int maxDepth, int forkJoinParallelism) {
+        this(configuration, maxDepth, forkJoinParallelism, null);
+    }
+
+    /**
+     * @param configuration the configuration of the policy.
+     * @param maxDepth the maximum number of nested objects or arrays, -1 for no limit.
+     * @param forkJoinParallelism the number of threads of the pool transcoding the segments of large payloads, when it
+     * is first created.
+     * @param spillDirectory the directory of the files of the spilled bodies, null for the default temporary directory.
+     * @throws IllegalArgumentException If the bypassed status codes, or the batches of messages, are invalid.
+     */
+    public ExecutionPlan(
+        JsonToXmlTransformationPolicyConfiguration configuration,
+        int maxDepth,
+        int forkJoinParallelism,
+        Path spillDirectory
+    ) {
+        final InputMode inputMode = configuration.getInputMode() == null ? InputMode.OBJECT : configuration.getInputMode();
+        final String records = configuration.getRecordElement() == null
+            ? JsonToXmlTransformationPolicyConfiguration.DEFAULT_RECORD_ELEMENT
+            : configuration.getRecordElement();
+        this.rootElement = configuration.getRootElement();
+        this.recordElement = inputMode == InputMode.OBJECT ? null : records;
+        this.delimited = inputMode == InputMode.NDJSON;
+        // A sequence of records is streamed, so that it is never held as a whole.
+        this.streaming = configuration.isStreaming() || delimited;
+        this.directOutput = configuration.isDirectOutput();
+        this.preserveNumberFormat = configuration.isPreserveNumberFormat();
+        this.maxDepth = maxDepth;
+        this.offloadThreshold = configuration.getOffloadThreshold();
+        this.parallelism = Math.max(1, configuration.getMessageParallelism());
+        this.maxBytesInFlight = Math.max(0, configuration.getMessageMaxBytesInFlight());
+        this.limits =
+            new TranscodingLimits(
+                configuration.getMaxInputSize(),
+                configuration.getMaxElements(),
+                configuration.getMaxStringLength(),
+                configuration.getMaxKeysPerObject(),
+                configuration.getMaxOutputSize()
+            );
+        this.bypass =
+            new BypassRules(
+                configuration.isBypassNonJson(),
+                configuration.getBypassStatusCodes(),
+                configuration.isBypassEmptyBody(),
+                configuration.isBypassWhenXmlNotAccepted()
+            );
+        this.batching =
+            configuration.isBatching()
+                ? new MessageBatching(
+                    configuration.getBatchMaxMessages(),
+                    configuration.getBatchMaxBytes(),
+                    configuration.getBatchMaxDelay(),
+                    records
+                )
+                : null;
+        this.tags = new TagCache(TagCache.DEFAULT_MAX_SIZE, rootElement, records);
+        this.forkJoinThreshold = configuration.getForkJoinThreshold();
+        // A sequence of records is always streamed, it is never transformed as a whole.
+        this.forkJoin =
+            forkJoinThreshold > 0 && !delimited
+                ? new JsonToXmlForkJoinTranscoder(
+                    JsonToXmlForkJoinTranscoder.getDefaultPool(forkJoinParallelism),
+                    rootElement,
+                    recordElement,
+                    maxDepth,
+                    preserveNumberFormat,
+                    tags,
+                    limits
+                )
+                : null;
+        this.spillThreshold = Math.max(0, configuration.getSpillThreshold());
+        this.spillDirectory = spillDirectory;
+        for (Phase phase : Phase.values()) {
+            final boolean message = phase == Phase.MESSAGE_REQUEST || phase == Phase.MESSAGE_RESPONSE;
+            final int status = phase == Phase.REQUEST || phase == Phase.MESSAGE_REQUEST
+                ? HttpStatusCode.BAD_REQUEST_400
+                : HttpStatusCode.INTERNAL_SERVER_ERROR_500;
+            invalidFailures[phase.ordinal()] =
+                message
+                    ? new ExecutionFailure(status)
+                        .key(INVALID_MESSAGE_PAYLOAD_FAILURE_KEY)
+                        .message("Unable to transform invalid JSON message to XML")
+                    : new ExecutionFailure(status)
+                        .key(INVALID_PAYLOAD_FAILURE_KEY)
+                        .message("Unable to transform invalid JSON payload to XML");
+            limitFailures[phase.ordinal()] =
+                message
+                    ? new ExecutionFailure(status)
+                        .key(MESSAGE_PAYLOAD_LIMIT_EXCEEDED_FAILURE_KEY)
+                        .message("JSON message exceeds the limits of the transformation to XML")
+                    : new ExecutionFailure(status)
+                        .key(PAYLOAD_LIMIT_EXCEEDED_FAILURE_KEY)
+                        .message("JSON payload exceeds the limits of the transformation to XML");
+        }
+    }
+
+    /**
+     * @param configuration the configuration of the policy.
+     * @param nodeConfiguration the configuration of the gateway, giving the maximum depth, the parallelism of the
+     * fork-join pool and the directory of the spilled bodies. May be null.
+     * @return the plan of the policy.
+     */
+    public static ExecutionPlan of(JsonToXmlTransformationPolicyConfiguration configuration, Configuration nodeConfiguration) {
+        final Integer maxDepth = nodeConfiguration == null
+            ? null
+            : nodeConfiguration.getProperty(POLICY_JSON_XML_MAXDEPTH, Integer.class, JSONTokener.DEFAULT_MAX_DEPTH);
+        final Integer forkJoinParallelism = nodeConfiguration == null
+            ? null
+            : nodeConfiguration.getProperty(POLICY_JSON_XML_FORKJOIN_PARALLELISM, Integer.class, DEFAULT_FORKJOIN_PARALLELISM);
+        final String spillDirectory = nodeConfiguration == null ? null : nodeConfiguration.getProperty(POLICY_JSON_XML_SPILL_DIRECTORY);
+        return new ExecutionPlan(
+            configuration,
+            maxDepth == null ? JSONTokener.DEFAULT_MAX_DEPTH : maxDepth,
+            forkJoinParallelism == null ? DEFAULT_FORKJOIN_PARALLELISM : forkJoinParallelism,
+            spillDirectory == null || spillDirectory.isBlank() ? null : Path.of(spillDirectory)
+        );
+    }
+
+    /**
+     * @param error the reason why the configuration of the policy cannot be planned.
+     * @return the failure interrupting the executions of a policy whose configuration cannot be planned.
+     */
+    public static ExecutionFailure invalidConfiguration(IllegalArgumentException error) {
+        return new ExecutionFailure(HttpStatusCode.INTERNAL_SERVER_ERROR_500)
+            .key(INVALID_CONFIGURATION_FAILURE_KEY)
+            .message("Invalid configuration of the transformation of JSON to XML: " + error.getMessage());
+    }
+
+    public String getRootElement() {
+        return rootElement;
+    }
+
+    /**
+     * @return the name of the elements of the records of a top-level array or of a sequence, null when only an object
+     * is accepted.
+     */
+    public String getRecordElement() {
+        return recordElement;
+    }
+
+    /**
+     * @return true if the payload is a sequence of values separated by new lines (NDJSON).
+     */
+    public boolean isDelimited() {
+        return delimited;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * @return true if the XML of a streamed body is written into pooled direct buffers rather than into heap arrays.
+     */
+    public boolean isDirectOutput() {
+        return directOutput;
+    }
+
+    public boolean isPreserveNumberFormat() {
+        return preserveNumberFormat;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public TranscodingLimits getLimits() {
+        return limits;
+    }
+
+    public BypassRules getBypass() {
+        return bypass;
+    }
+
+    /**
+     * @return the batching of the messages, null when each message is transformed on its own.
+     */
+    public MessageBatching getBatching() {
+        return batching;
+    }
+
+    /**
+     * @return the maximum number of messages, or of batches, transformed at the same time.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the maximum number of bytes of the messages, or of the batches, transformed at the same time, 0 for no
+     * limit.
+     */
+    public long getMaxBytesInFlight() {
+        return maxBytesInFlight;
+    }
+
+    /**
+     * @return the encoded tags of the elements written by the policy, starting with the root element.
+     */
+    public TagCache getTags() {
+        return tags;
+    }
+
+    /**
+     * @param size the size of the payload.
+     * @return true if the payload is large enough to be transformed by a worker thread.
+     */
+    public boolean offloads(long size) {
+        return offloadThreshold > 0 && size >= offloadThreshold;
+    }
+
+    /**
+     * @param size the size of the message, or of the batch.
+     * @return true if the message is large enough to be transformed by a worker thread, or if the messages are
+     * transformed concurrently, which only the worker threads can do.
+     */
+    public boolean offloadsMessage(long size) {
+        return parallelism > 1 || offloads(size);
+    }
+
+    /**
+     * @param size the size of the payload.
+     * @return true if the payload is large enough to be split into segments transcoded by the fork-join pool. The
+     * thread splitting a payload waits for its segments, so only the payloads offloaded to a worker thread are split.
+     */
+    public boolean forks(long size) {
+        return forkJoin != null && size >= forkJoinThreshold && offloads(size);
+    }
+
+    /**
+     * @return the transcoder of the payloads reaching the fork-join threshold, null when every payload is transcoded
+     * by a single thread.
+     */
+    public JsonToXmlForkJoinTranscoder getForkJoin() {
+        return forkJoin;
+    }
+
+    /**
+     * @return true if the body is read chunk by chunk: to be transformed as it is received, to be rejected as soon as
+     * it exceeds the maximum input size rather than once it has been entirely buffered, or to be spilled to a file.
+     */
+    public boolean readsChunks() {
+        return streaming || limits.getMaxInputSize() > 0 || spillThreshold > 0;
+    }
+
+    /**
+     * @return the number of bytes from which a body transformed as a whole is spilled to a file, 0 if it is always
+     * held in memory.
+     */
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * @return the directory of the files of the spilled bodies, null for the default temporary directory.
+     */
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @param charset the charset of the body.
+     * @return true if the body is transformed chunk by chunk, false if it is transformed as a whole.
+     */
+    public boolean streams(Charset charset) {
+        return streaming && StandardCharsets.UTF_8.equals(charset);
+    }
+
+    /**
+     * @param phase the phase of the failed transformation.
+     * @param limitExceeded true if the payload exceeds one of the limits, false if it is invalid.
+     * @return the failure interrupting the execution. It is shared, and must not be modified.
+     */
+    public ExecutionFailure failure(Phase phase, boolean limitExceeded) {
+        return (limitExceeded ? limitFailures : invalidFailures)[phase.ordinal()];
+    }
+
+    /**
+     * @return the failure interrupting the execution when the worker threads cannot take the transformation. It is
+     * shared, and must not be modified.
+     */
+    public ExecutionFailure rejection() {
+        return rejectedFailure;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.configuration;
+
+/**
+ * The shapes of JSON accepted by the policy.
+ *
+ * @author GraviteeSource Team
+ */
+public enum InputMode {
+    /** A JSON object, whose members are written into the root element. */
+    OBJECT,
+    /** A JSON object, or a JSON array whose values are written as records into the root element. */
+    ARRAY,
+    /** JSON values separated by new lines (NDJSON), written as records into the root element. */
+    NDJSON,
+}
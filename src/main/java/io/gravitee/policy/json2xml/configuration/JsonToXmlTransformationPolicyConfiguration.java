@@ -21,10 +21,68 @@ public class JsonToXmlTransformationPolicyConfiguration implements PolicyConfigu
 
     public static final String DEFAULT_ROOT = "root";
 
+    public static final String DEFAULT_RECORD_ELEMENT = "array";
+
+    public static final int DEFAULT_OFFLOAD_THRESHOLD = 1024 * 1024;
+
+    public static final int DEFAULT_BATCH_MAX_MESSAGES = 100;
+
+    public static final int DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;
+
+    public static final int DEFAULT_BATCH_MAX_DELAY = 100;
+
+    public static final int DEFAULT_MESSAGE_MAX_BYTES_IN_FLIGHT = 16 * 1024 * 1024;
+
     private PolicyScope scope = PolicyScope.RESPONSE;
 
     private String rootElement = DEFAULT_ROOT;
 
+    private InputMode inputMode = InputMode.OBJECT;
+
+    private String recordElement = DEFAULT_RECORD_ELEMENT;
+
+    private boolean streaming = false;
+
+    private boolean directOutput = false;
+
+    private boolean preserveNumberFormat = false;
+
+    private int maxInputSize = 0;
+
+    private int maxElements = 0;
+
+    private int maxStringLength = 0;
+
+    private int maxKeysPerObject = 0;
+
+    private int maxOutputSize = 0;
+
+    private int offloadThreshold = DEFAULT_OFFLOAD_THRESHOLD;
+
+    private int forkJoinThreshold = 0;
+
+    private int spillThreshold = 0;
+
+    private boolean bypassNonJson = false;
+
+    private String bypassStatusCodes;
+
+    private boolean bypassEmptyBody = false;
+
+    private boolean bypassWhenXmlNotAccepted = false;
+
+    private boolean batching = false;
+
+    private int batchMaxMessages = DEFAULT_BATCH_MAX_MESSAGES;
+
+    private int batchMaxBytes = DEFAULT_BATCH_MAX_BYTES;
+
+    private int batchMaxDelay = DEFAULT_BATCH_MAX_DELAY;
+
+    private int messageParallelism = 1;
+
+    private int messageMaxBytesInFlight = DEFAULT_MESSAGE_MAX_BYTES_IN_FLIGHT;
+
     public PolicyScope getScope() {
         return scope;
     }
@@ -40,4 +98,188 @@ public class JsonToXmlTransformationPolicyConfiguration implements PolicyConfigu
     public String getRootElement() {
         return rootElement;
     }
+
+    public InputMode getInputMode() {
+        return inputMode;
+    }
+
+    public void setInputMode(InputMode inputMode) {
+        this.inputMode = inputMode;
+    }
+
+    public String getRecordElement() {
+        return recordElement;
+    }
+
+    public void setRecordElement(String recordElement) {
+        this.recordElement = recordElement;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isDirectOutput() {
+        return directOutput;
+    }
+
+    public void setDirectOutput(boolean directOutput) {
+        this.directOutput = directOutput;
+    }
+
+    public boolean isPreserveNumberFormat() {
+        return preserveNumberFormat;
+    }
+
+    public void setPreserveNumberFormat(boolean preserveNumberFormat) {
+        this.preserveNumberFormat = preserveNumberFormat;
+    }
+
+    public int getMaxInputSize() {
+        return maxInputSize;
+    }
+
+    public void setMaxInputSize(int maxInputSize) {
+        this.maxInputSize = maxInputSize;
+    }
+
+    public int getMaxElements() {
+        return maxElements;
+    }
+
+    public void setMaxElements(int maxElements) {
+        this.maxElements = maxElements;
+    }
+
+    public int getMaxStringLength() {
+        return maxStringLength;
+    }
+
+    public void setMaxStringLength(int maxStringLength) {
+        this.maxStringLength = maxStringLength;
+    }
+
+    public int getMaxKeysPerObject() {
+        return maxKeysPerObject;
+    }
+
+    public void setMaxKeysPerObject(int maxKeysPerObject) {
+        this.maxKeysPerObject = maxKeysPerObject;
+    }
+
+    public int getMaxOutputSize() {
+        return maxOutputSize;
+    }
+
+    public void setMaxOutputSize(int maxOutputSize) {
+        this.maxOutputSize = maxOutputSize;
+    }
+
+    public int getOffloadThreshold() {
+        return offloadThreshold;
+    }
+
+    public void setOffloadThreshold(int offloadThreshold) {
+        this.offloadThreshold = offloadThreshold;
+    }
+
+    public int getForkJoinThreshold() {
+        return forkJoinThreshold;
+    }
+
+    public void setForkJoinThreshold(int forkJoinThreshold) {
+        this.forkJoinThreshold = forkJoinThreshold;
+    }
+
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    public void setSpillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    public boolean isBypassNonJson() {
+        return bypassNonJson;
+    }
+
+    public void setBypassNonJson(boolean bypassNonJson) {
+        this.bypassNonJson = bypassNonJson;
+    }
+
+    public String getBypassStatusCodes() {
+        return bypassStatusCodes;
+    }
+
+    public void setBypassStatusCodes(String bypassStatusCodes) {
+        this.bypassStatusCodes = bypassStatusCodes;
+    }
+
+    public boolean isBypassEmptyBody() {
+        return bypassEmptyBody;
+    }
+
+    public void setBypassEmptyBody(boolean bypassEmptyBody) {
+        this.bypassEmptyBody = bypassEmptyBody;
+    }
+
+    public boolean isBypassWhenXmlNotAccepted() {
+        return bypassWhenXmlNotAccepted;
+    }
+
+    public void setBypassWhenXmlNotAccepted(boolean bypassWhenXmlNotAccepted) {
+        this.bypassWhenXmlNotAccepted = bypassWhenXmlNotAccepted;
+    }
+
+    public boolean isBatching() {
+        return batching;
+    }
+
+    public void setBatching(boolean batching) {
+        this.batching = batching;
+    }
+
+    public int getBatchMaxMessages() {
+        return batchMaxMessages;
+    }
+
+    public void setBatchMaxMessages(int batchMaxMessages) {
+        this.batchMaxMessages = batchMaxMessages;
+    }
+
+    public int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public void setBatchMaxBytes(int batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public int getBatchMaxDelay() {
+        return batchMaxDelay;
+    }
+
+    public void setBatchMaxDelay(int batchMaxDelay) {
+        this.batchMaxDelay = batchMaxDelay;
+    }
+
+    public int getMessageParallelism() {
+        return messageParallelism;
+    }
+
+    public void setMessageParallelism(int messageParallelism) {
+        this.messageParallelism = messageParallelism;
+    }
+
+    public int getMessageMaxBytesInFlight() {
+        return messageMaxBytesInFlight;
+    }
+
+    public void setMessageMaxBytesInFlight(int messageMaxBytesInFlight) {
+        this.messageMaxBytesInFlight = messageMaxBytesInFlight;
+    }
 }
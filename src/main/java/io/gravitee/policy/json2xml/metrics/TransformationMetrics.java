@@ -0,0 +1,421 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.metrics;
+
+import io.gravitee.gateway.api.stream.exception.TransformationException;
+import io.gravitee.policy.json2xml.transformer.JSONException;
+import io.gravitee.policy.json2xml.transformer.JSONTokener;
+import io.gravitee.policy.json2xml.transformer.TranscodingLimitException;
+import io.gravitee.policy.json2xml.transformer.TranscodingStatistics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.micrometer.backends.BackendRegistries;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the JSON to XML transformations, tagged by API and phase:
+ * <ul>
+ *     <li><code>gravitee_policy_json_xml_transcoding</code>: time spent transcoding a payload, its JSON being parsed
+ *     and its XML written in a single pass, so that parsing and serialization are not timed apart</li>
+ *     <li><code>gravitee_policy_json_xml_bytes_in</code> and <code>gravitee_policy_json_xml_bytes_out</code>: size of the
+ *     JSON and XML payloads</li>
+ *     <li><code>gravitee_policy_json_xml_depth</code> and <code>gravitee_policy_json_xml_elements</code>: depth and number
+ *     of elements of the XML payloads</li>
+ *     <li><code>gravitee_policy_json_xml_failures</code>: failed transformations, also tagged by cause</li>
+ * </ul>
+ * Meters are registered into the registry of the gateway when its metrics are enabled, and looked up once per API and
+ * phase. Micrometer counters and summaries are backed by striped adders, so that event loops do not contend on them.
+ * The registry of the gateway may be created after the policy: until it is, the default metrics register their meters
+ * into the global registry, and move them to the registry of the gateway once it exists.
+ *
+ * The meters of at most {@link #DEFAULT_MAX_APIS} APIs are kept: beyond that, the meters of the API which has not
+ * transformed a payload for the longest time are removed from the registry, so that the meters of undeployed APIs do not
+ * pile up. They are registered again, starting from zero, if the API transforms a payload again.
+ *
+ * @author GraviteeSource Team
+ */
+public class TransformationMetrics {
+
+    /**
+     * Default number of APIs whose meters are kept.
+     */
+    public static final int DEFAULT_MAX_APIS = 1024;
+
+    private static final String PREFIX = "gravitee.policy.json.xml";
+    private static final String TAG_API = "api";
+    private static final String TAG_PHASE = "phase";
+    private static final String TAG_CAUSE = "cause";
+    private static final String UNKNOWN_API = "unknown";
+
+    private static final TransformationMetrics DEFAULT = new TransformationMetrics(
+        BackendRegistries::getDefaultNow,
+        DEFAULT_MAX_APIS
+    );
+
+    private final Supplier<MeterRegistry> backend;
+    private volatile MeterRegistry registry;
+    private final int maxApis;
+    private final ConcurrentMap<String, ApiMeters> meters = new ConcurrentHashMap<>();
+
+    public TransformationMetrics(MeterRegistry registry) {
+        this(registry, DEFAULT_MAX_APIS);
+    }
+
+    /**
+     * @param registry the registry of the meters.
+     * @param maxApis the number of APIs whose meters are kept.
+     */
+    public TransformationMetrics(MeterRegistry registry, int maxApis) {
+        this(() -> registry, maxApis);
+    }
+
+    /**
+     * @param backend the registry of the meters, looked up until it is not null. Until then, the meters are registered
+     * into the global registry.
+     * @param maxApis the number of APIs whose meters are kept.
+     */
+    TransformationMetrics(Supplier<MeterRegistry> backend, int maxApis) {
+        this.backend = backend;
+        this.maxApis = Math.max(1, maxApis);
+    }
+
+    /**
+     * @return the metrics registered into the registry of the gateway, or into the global registry as long as the
+     * registry of the gateway does not exist.
+     */
+    public static TransformationMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the registry of the meters. For the default metrics, the global registry until the registry of the
+     * gateway is created.
+     */
+    public MeterRegistry getRegistry() {
+        MeterRegistry current = registry;
+        if (current == null) {
+            // Only the registry of the gateway is kept, so that it is looked up again until it is created.
+            current = backend.get();
+            if (current == null) {
+                return Metrics.globalRegistry;
+            }
+            registry = current;
+        }
+        return current;
+    }
+
+    /**
+     * Start recording a transformation.
+     *
+     * @param api the id of the API, may be null.
+     * @param phase the phase of the transformation.
+     * @return the recorder of the transformation.
+     */
+    public Recorder start(String api, Phase phase) {
+        return new Recorder(meters(api, phase), System.nanoTime());
+    }
+
+    /**
+     * Start recording a streamed transformation. Its duration depends on the time taken to receive the chunks, so it
+     * is not recorded.
+     *
+     * @param api the id of the API, may be null.
+     * @param phase the phase of the transformation.
+     * @return the recorder of the transformation.
+     */
+    public Recorder startStreaming(String api, Phase phase) {
+        return new Recorder(meters(api, phase), -1);
+    }
+
+    private Meters meters(String api, Phase phase) {
+        final String key = api == null ? UNKNOWN_API : api;
+        final MeterRegistry current = getRegistry();
+        ApiMeters apiMeters = meters.get(key);
+        if (apiMeters != null && apiMeters.registry != current) {
+            // The registry of the gateway was created since the meters of the API were registered.
+            if (meters.remove(key, apiMeters)) {
+                apiMeters.remove();
+            }
+            apiMeters = null;
+        }
+        if (apiMeters == null) {
+            apiMeters = meters.computeIfAbsent(key, k -> new ApiMeters(current));
+            if (meters.size() > maxApis) {
+                evict(apiMeters);
+            }
+        }
+        apiMeters.lastUsed = System.nanoTime();
+        final Meters[] byPhase = apiMeters.byPhase;
+        Meters phaseMeters = byPhase[phase.ordinal()];
+        if (phaseMeters == null) {
+            // Concurrent creations are harmless, the registry returns the same meters for the same tags.
+            phaseMeters = new Meters(apiMeters.registry, Tags.of(TAG_API, key, TAG_PHASE, phase.tag));
+            byPhase[phase.ordinal()] = phaseMeters;
+        }
+        return phaseMeters;
+    }
+
+    /**
+     * Remove the meters of the least recently used APIs until the bound is met again, the meters just added aside.
+     */
+    private void evict(ApiMeters added) {
+        while (meters.size() > maxApis) {
+            String eldest = null;
+            long eldestUse = Long.MAX_VALUE;
+            for (Map.Entry<String, ApiMeters> entry : meters.entrySet()) {
+                if (entry.getValue() != added && entry.getValue().lastUsed - eldestUse < 0) {
+                    eldest = entry.getKey();
+                    eldestUse = entry.getValue().lastUsed;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            final ApiMeters removed = meters.remove(eldest);
+            if (removed != null) {
+                removed.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of APIs whose meters are kept.
+     */
+    int apiCount() {
+        return meters.size();
+    }
+
+    /**
+     * The phase during which a payload is transformed.
+     */
+    public enum Phase {
+        REQUEST,
+        RESPONSE,
+        MESSAGE_REQUEST,
+        MESSAGE_RESPONSE;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The cause of a failed transformation.
+     */
+    public enum Cause {
+        INVALID_JSON,
+        MAX_DEPTH,
+        LIMIT,
+        CHARSET,
+        REJECTED,
+        OTHER;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+
+        public static Cause of(Throwable throwable) {
+            Throwable cause = throwable;
+            if (cause instanceof TransformationException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (
+                cause instanceof IllegalCharsetNameException ||
+                cause instanceof UnsupportedCharsetException ||
+                cause instanceof CharacterCodingException
+            ) {
+                return CHARSET;
+            }
+            if (cause instanceof TranscodingLimitException) {
+                return LIMIT;
+            }
+            if (cause instanceof RejectedExecutionException) {
+                return REJECTED;
+            }
+            if (cause instanceof IllegalArgumentException && JSONTokener.MAX_DEPTH_EXCEEDED.equals(cause.getMessage())) {
+                return MAX_DEPTH;
+            }
+            if (cause instanceof JSONException) {
+                return INVALID_JSON;
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * Records the outcome of a single transformation.
+     */
+    public static class Recorder {
+
+        /**
+         * A recorder which records nothing.
+         */
+        public static final Recorder NOOP = new Recorder(null, -1);
+
+        private final Meters meters;
+        private final long start;
+
+        private Recorder(Meters meters, long start) {
+            this.meters = meters;
+            this.start = start;
+        }
+
+        /**
+         * @return a recorder of the same transformation whose clock starts now, for a transformation which waited
+         * before being run, so that the wait is not timed as transcoding.
+         */
+        public Recorder restart() {
+            return start < 0 ? this : new Recorder(meters, System.nanoTime());
+        }
+
+        /**
+         * Record a successful transformation.
+         *
+         * @param statistics the statistics of the written XML.
+         * @param bytesIn the size of the JSON payload.
+         * @param bytesOut the size of the XML payload.
+         */
+        public void success(TranscodingStatistics statistics, long bytesIn, long bytesOut) {
+            if (meters == null) {
+                return;
+            }
+            if (start >= 0) {
+                meters.transcoding.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            meters.bytesIn.increment(bytesIn);
+            meters.bytesOut.increment(bytesOut);
+            meters.depth.record(statistics.depth());
+            meters.elements.record(statistics.elementCount());
+        }
+
+        /**
+         * Record a failed transformation.
+         *
+         * @param throwable the reason of the failure.
+         */
+        public void failure(Throwable throwable) {
+            if (meters == null) {
+                return;
+            }
+            meters.failure(Cause.of(throwable)).increment();
+        }
+    }
+
+    private static class ApiMeters {
+
+        private final MeterRegistry registry;
+        private final Meters[] byPhase = new Meters[Phase.values().length];
+        private volatile long lastUsed = System.nanoTime();
+
+        private ApiMeters(MeterRegistry registry) {
+            this.registry = registry;
+        }
+
+        private void remove() {
+            for (Meters phaseMeters : byPhase) {
+                if (phaseMeters != null) {
+                    phaseMeters.remove();
+                }
+            }
+        }
+    }
+
+    private static class Meters {
+
+        private final MeterRegistry registry;
+        private final Tags tags;
+        private final Timer transcoding;
+        private final Counter bytesIn;
+        private final Counter bytesOut;
+        private final DistributionSummary depth;
+        private final DistributionSummary elements;
+        private final Counter[] failures = new Counter[Cause.values().length];
+
+        private Meters(MeterRegistry registry, Tags tags) {
+            this.registry = registry;
+            this.tags = tags;
+            this.transcoding =
+                Timer
+                    .builder(PREFIX + ".transcoding")
+                    .description("Time spent parsing JSON payloads and writing their XML, in a single pass")
+                    .tags(tags)
+                    .register(registry);
+            this.bytesIn =
+                Counter
+                    .builder(PREFIX + ".bytes.in")
+                    .description("Size of the transformed JSON payloads")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry);
+            this.bytesOut =
+                Counter
+                    .builder(PREFIX + ".bytes.out")
+                    .description("Size of the produced XML payloads")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry);
+            this.depth =
+                DistributionSummary
+                    .builder(PREFIX + ".depth")
+                    .description("Depth of the produced XML payloads")
+                    .tags(tags)
+                    .register(registry);
+            this.elements =
+                DistributionSummary
+                    .builder(PREFIX + ".elements")
+                    .description("Number of elements of the produced XML payloads")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        private void remove() {
+            registry.remove(transcoding);
+            registry.remove(bytesIn);
+            registry.remove(bytesOut);
+            registry.remove(depth);
+            registry.remove(elements);
+            for (Counter failure : failures) {
+                if (failure != null) {
+                    registry.remove(failure);
+                }
+            }
+        }
+
+        private Counter failure(Cause cause) {
+            Counter counter = failures[cause.ordinal()];
+            if (counter == null) {
+                counter =
+                    Counter
+                        .builder(PREFIX + ".failures")
+                        .description("Number of payloads which could not be transformed")
+                        .tags(tags)
+                        .tag(TAG_CAUSE, cause.tag)
+                        .register(registry);
+                failures[cause.ordinal()] = counter;
+            }
+            return counter;
+        }
+    }
+}
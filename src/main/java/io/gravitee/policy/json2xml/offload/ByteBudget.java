@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.offload;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.CompletableEmitter;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.functions.Supplier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounds the number of bytes of the payloads being transformed at the same time. A payload which does not fit waits,
+ * without holding any thread, until enough bytes are released by the payloads before it. The payloads are admitted in
+ * the order they asked for their bytes, and a payload larger than the whole budget is admitted alone.
+ *
+ * The bytes of a payload are given back exactly once, by whichever comes last of its admission and the end of its
+ * transformation, so that a transformation disposed while it is being admitted does not keep its bytes forever.
+ *
+ * @author GraviteeSource Team
+ */
+public final class ByteBudget {
+
+    private final long maxBytes;
+    private final ArrayDeque<Lease> waiters = new ArrayDeque<>();
+    private long inFlight;
+
+    /**
+     * @param maxBytes the maximum number of bytes in flight, 0 for no limit.
+     */
+    public ByteBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param bytes the number of bytes of the payload.
+     * @param task the transformation of the payload.
+     * @return a maybe running the transformation once its bytes have been taken from the budget, and giving them back
+     * when the transformation terminates or is disposed.
+     */
+    public <T> Maybe<T> run(long bytes, Supplier<Maybe<T>> task) {
+        return Maybe.defer(() -> {
+            final Lease lease = new Lease(bytes);
+            return acquire(lease)
+                .andThen(Maybe.defer(task))
+                .doFinally(() -> {
+                    lease.finished = true;
+                    lease.release();
+                });
+        });
+    }
+
+    /**
+     * @return a completable completing once the bytes of the lease have been taken from the budget. Disposing it while
+     * it waits gives up its place.
+     */
+    private Completable acquire(Lease lease) {
+        return Completable.create(emitter -> {
+            synchronized (this) {
+                if (!waiters.isEmpty() || !fits(lease.bytes)) {
+                    lease.emitter = emitter;
+                    waiters.add(lease);
+                    emitter.setCancellable(() -> cancel(lease));
+                    return;
+                }
+                inFlight += lease.bytes;
+                lease.granted = true;
+            }
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Give back bytes to the budget, admitting the payloads waiting for them.
+     */
+    private void release(long bytes) {
+        final List<Lease> admitted = new ArrayList<>();
+        synchronized (this) {
+            inFlight -= bytes;
+            while (!waiters.isEmpty() && fits(waiters.peek().bytes)) {
+                final Lease lease = waiters.poll();
+                inFlight += lease.bytes;
+                lease.granted = true;
+                admitted.add(lease);
+            }
+        }
+        // Outside of the lock, the admitted payloads may start their transformation synchronously.
+        for (Lease lease : admitted) {
+            lease.emitter.onComplete();
+            // A payload disposed while it was admitted has already finished, its bytes are given back here.
+            lease.release();
+        }
+    }
+
+    /**
+     * @return the number of bytes taken from the budget.
+     */
+    public synchronized long inFlight() {
+        return inFlight;
+    }
+
+    private boolean fits(long bytes) {
+        return maxBytes <= 0 || inFlight == 0 || inFlight + bytes <= maxBytes;
+    }
+
+    private void cancel(Lease lease) {
+        final boolean waiting;
+        synchronized (this) {
+            waiting = waiters.remove(lease);
+        }
+        if (waiting) {
+            // The payloads behind it may fit now.
+            release(0);
+        }
+    }
+
+    /**
+     * The bytes of a single payload, given back once they have been granted and its transformation has finished.
+     * Each flag is set before the other one is checked, so that at least one of the two sides sees both.
+     */
+    private final class Lease {
+
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean granted;
+        private volatile boolean finished;
+        private CompletableEmitter emitter;
+
+        private Lease(long bytes) {
+            this.bytes = bytes;
+        }
+
+        private void release() {
+            if (granted && finished && released.compareAndSet(false, true)) {
+                ByteBudget.this.release(bytes);
+            }
+        }
+    }
+}
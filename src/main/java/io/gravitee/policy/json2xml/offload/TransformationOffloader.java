@@ -0,0 +1,254 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.offload;
+
+import io.gravitee.node.api.configuration.Configuration;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.reactivex.rxjava3.core.Maybe;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the transformations of large payloads on a bounded pool of worker threads, so that they do not hold the event
+ * loop which received them. The result of a transformation is delivered back on the Vert.x context of the caller, or on
+ * the worker thread when there is no such context.
+ *
+ * The pool is shared by all the policies of the gateway. When all its workers are busy and its queue is full, the
+ * transformation is run by the caller, as it would have been without offloading. When the pool rejects the
+ * transformations it cannot take, it fails right away with a {@link RejectedExecutionException} instead, sparing the
+ * event loop of the caller. The default pool is shut down, and its meters removed from the registry, once the context
+ * of the policy is deactivated, and created again by the next transformation.
+ *
+ * The following meters are registered with the metrics of the policy:
+ * <ul>
+ *     <li><code>gravitee_policy_json_xml_offload_queue</code>: transformations waiting for a worker</li>
+ *     <li><code>gravitee_policy_json_xml_offload_active</code>: transformations being run by a worker</li>
+ *     <li><code>gravitee_policy_json_xml_offload_tasks</code>: transformations handed to the pool</li>
+ *     <li><code>gravitee_policy_json_xml_offload_rejected</code>: transformations the workers could not take because
+ *     the queue was full, run by the caller or failed</li>
+ * </ul>
+ *
+ * @author GraviteeSource Team
+ */
+public class TransformationOffloader {
+
+    public static final String POLICY_JSON_XML_OFFLOAD_WORKERS = "policy.json-xml.offload.workers";
+    public static final String POLICY_JSON_XML_OFFLOAD_QUEUE = "policy.json-xml.offload.queue";
+    public static final String POLICY_JSON_XML_OFFLOAD_REJECT = "policy.json-xml.offload.reject";
+    public static final int DEFAULT_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private static final String PREFIX = "gravitee.policy.json.xml.offload";
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static volatile TransformationOffloader defaultOffloader;
+
+    private final ThreadPoolExecutor executor;
+    private final boolean rejectWhenFull;
+    private final MeterRegistry registry;
+    private final Counter offloaded;
+    private final Counter rejected;
+    private final List<Meter> meters;
+
+    /**
+     * @param workers the maximum number of worker threads.
+     * @param queueCapacity the maximum number of transformations waiting for a worker.
+     * @param rejectWhenFull true to fail the transformations the workers cannot take, false to run them on the caller.
+     * @param registry the registry of the meters of the pool.
+     */
+    public TransformationOffloader(int workers, int queueCapacity, boolean rejectWhenFull, MeterRegistry registry) {
+        this.executor =
+            new ThreadPoolExecutor(
+                workers,
+                workers,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new WorkerThreadFactory()
+            );
+        this.executor.allowCoreThreadTimeOut(true);
+        this.rejectWhenFull = rejectWhenFull;
+        this.registry = registry;
+        final Gauge queue = Gauge
+            .builder(PREFIX + ".queue", executor, e -> e.getQueue().size())
+            .description("Transformations of JSON payloads waiting for a worker")
+            .register(registry);
+        final Gauge active = Gauge
+            .builder(PREFIX + ".active", executor, ThreadPoolExecutor::getActiveCount)
+            .description("Transformations of JSON payloads being run by a worker")
+            .register(registry);
+        this.offloaded =
+            Counter.builder(PREFIX + ".tasks").description("Transformations of JSON payloads handed to the workers").register(registry);
+        this.rejected =
+            Counter
+                .builder(PREFIX + ".rejected")
+                .description("Transformations the workers could not take because their queue was full")
+                .register(registry);
+        this.meters = List.of(queue, active, offloaded, rejected);
+    }
+
+    /**
+     * @param configuration the configuration of the gateway, giving the size of the pool when it is first created.
+     * @return the pool shared by all the policies, registered into the metrics registry of the gateway.
+     */
+    public static TransformationOffloader getDefault(Configuration configuration) {
+        TransformationOffloader offloader = defaultOffloader;
+        if (offloader == null) {
+            synchronized (TransformationOffloader.class) {
+                offloader = defaultOffloader;
+                if (offloader == null) {
+                    offloader =
+                        new TransformationOffloader(
+                            configuration.getProperty(POLICY_JSON_XML_OFFLOAD_WORKERS, Integer.class, DEFAULT_WORKERS),
+                            configuration.getProperty(POLICY_JSON_XML_OFFLOAD_QUEUE, Integer.class, DEFAULT_QUEUE_CAPACITY),
+                            Boolean.TRUE.equals(configuration.getProperty(POLICY_JSON_XML_OFFLOAD_REJECT, Boolean.class, false)),
+                            TransformationMetrics.getDefault().getRegistry()
+                        );
+                    defaultOffloader = offloader;
+                }
+            }
+        }
+        return offloader;
+    }
+
+    /**
+     * Shut down the pool shared by all the policies, if any. It is created again by the next call to
+     * {@link #getDefault(Configuration)}.
+     */
+    public static void shutdownDefault() {
+        final TransformationOffloader offloader;
+        synchronized (TransformationOffloader.class) {
+            offloader = defaultOffloader;
+            defaultOffloader = null;
+        }
+        if (offloader != null) {
+            offloader.shutdown();
+        }
+    }
+
+    /**
+     * Run a transformation on a worker thread. A transformation which has not started yet when the returned
+     * {@link Maybe} is disposed is not run. A transformation the workers cannot take is run by the subscriber, unless
+     * the pool rejects them.
+     *
+     * @param transformation the transformation to run.
+     * @return the result of the transformation, emitted on the Vert.x context of the subscriber when there is one, or a
+     * {@link RejectedExecutionException} when the pool rejects the transformations it cannot take, and its queue is
+     * full or it is shut down.
+     */
+    public <T> Maybe<T> offload(Callable<T> transformation) {
+        return Maybe.create(emitter -> {
+            final Context context = Vertx.currentContext();
+            final FutureTask<Void> task = new FutureTask<>(
+                () -> {
+                    try {
+                        final T result = transformation.call();
+                        deliver(context, () -> emitter.onSuccess(result));
+                    } catch (Throwable throwable) {
+                        deliver(context, () -> emitter.tryOnError(throwable));
+                    }
+                },
+                null
+            );
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                rejected.increment();
+                if (rejectWhenFull) {
+                    emitter.onError(ex);
+                    return;
+                }
+                try {
+                    emitter.onSuccess(transformation.call());
+                } catch (Throwable throwable) {
+                    emitter.tryOnError(throwable);
+                }
+                return;
+            }
+            offloaded.increment();
+            emitter.setCancellable(() -> {
+                if (task.cancel(false)) {
+                    executor.remove(task);
+                }
+            });
+        });
+    }
+
+    private static void deliver(Context context, Runnable action) {
+        if (context == null) {
+            action.run();
+        } else {
+            context.runOnContext(v -> action.run());
+        }
+    }
+
+    /**
+     * @return the number of transformations waiting for a worker.
+     */
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of transformations handed to the workers.
+     */
+    public long offloadedCount() {
+        return (long) offloaded.count();
+    }
+
+    /**
+     * @return the number of transformations the workers could not take because the queue was full.
+     */
+    public long rejectedCount() {
+        return (long) rejected.count();
+    }
+
+    /**
+     * Stop the workers once the pending transformations are done, and remove the meters of the pool from the registry.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        meters.forEach(registry::remove);
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+        private final String prefix = "gravitee-json-xml-worker-" + POOL_COUNT.incrementAndGet() + "-";
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.spill;
+
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.policy.json2xml.transformer.TranscodingLimits;
+import io.netty.buffer.Unpooled;
+import io.reactivex.rxjava3.core.Flowable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A body held in memory until it reaches a threshold, and spilled to a temporary file from then on, along with the XML
+ * it is transformed into. The files are read back lazily, chunk by chunk, so that neither the JSON nor the XML of a
+ * large body is ever held as a whole in the heap.
+ *
+ * The files are written and read through file channels rather than mapped: a mapped region is only unmapped once it
+ * is garbage collected, which would keep the pages of a deleted file alive until then.
+ *
+ * Closing the body deletes its files, whether it is closed once its XML has been read, or on an error or a
+ * cancellation. A body can be closed by any thread, while another one is still transforming it.
+ *
+ * @author GraviteeSource Team
+ */
+public final class SpilledBody implements AutoCloseable {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String PREFIX = "gravitee-json-xml-";
+
+    private final long threshold;
+    private final Path directory;
+    private Buffer head;
+    private long size;
+    private FileChannel input;
+    private Path inputFile;
+    private Path outputFile;
+    private volatile long outputSize;
+    private boolean closed;
+
+    /**
+     * @param threshold the number of bytes from which the body is spilled to a file.
+     * @param directory the directory of the files, null for the default temporary directory.
+     */
+    public SpilledBody(long threshold, Path directory) {
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    /**
+     * Append a chunk to the body, in memory until the body exceeds the threshold, and to its file from then on.
+     *
+     * @throws IOException If the chunk cannot be written, or if the body has been closed.
+     */
+    public synchronized void append(Buffer chunk) throws IOException {
+        ensureOpen();
+        size += chunk.length();
+        // The first chunk is always held in memory, having been received as a whole anyway.
+        if (input == null && (head == null || size <= threshold)) {
+            head = head == null ? chunk : head.appendBuffer(chunk);
+            return;
+        }
+        if (input == null) {
+            inputFile = createTempFile(".json");
+            input = FileChannel.open(inputFile, StandardOpenOption.WRITE);
+            if (head != null) {
+                write(input, head);
+            }
+        }
+        write(input, chunk);
+    }
+
+    /**
+     * @return the bytes held in memory: the whole body when it has not been spilled, otherwise its first bytes, read
+     * before it exceeded the threshold. Null when the body is empty.
+     */
+    public synchronized Buffer head() {
+        return head;
+    }
+
+    /**
+     * @return the number of bytes of the body.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return true if the body has been spilled to a file.
+     */
+    public synchronized boolean isSpilled() {
+        return inputFile != null;
+    }
+
+    /**
+     * @param charset the charset of the body.
+     * @return a reader of the spilled body, to be closed by the caller.
+     * @throws IOException If the file cannot be read, or if the body has been closed.
+     */
+    public synchronized Reader reader(Charset charset) throws IOException {
+        ensureOpen();
+        return new BufferedReader(new InputStreamReader(Files.newInputStream(inputFile), charset), CHUNK_SIZE);
+    }
+
+    /**
+     * @param limits the limits of the transformation, whose maximum output size is checked as the XML is written.
+     * @return a writer of the XML of the body, encoded as UTF-8 into its own file, to be closed by the caller.
+     * @throws IOException If the file cannot be created, or if the body has been closed.
+     */
+    public synchronized Writer writer(TranscodingLimits limits) throws IOException {
+        ensureOpen();
+        outputFile = createTempFile(".xml");
+        final OutputStream output = new FilterOutputStream(Files.newOutputStream(outputFile)) {
+            @Override
+            public void write(int b) throws IOException {
+                limits.checkOutputSize(++outputSize);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                limits.checkOutputSize(outputSize += len);
+                out.write(b, off, len);
+            }
+        };
+        return new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), CHUNK_SIZE);
+    }
+
+    /**
+     * @return the number of bytes of XML written so far.
+     */
+    public long outputSize() {
+        return outputSize;
+    }
+
+    /**
+     * @return the spilled body, read chunk by chunk as the chunks are requested.
+     */
+    public synchronized Flowable<Buffer> readInput() {
+        return read(inputFile);
+    }
+
+    /**
+     * @return the XML of the body, read chunk by chunk as the chunks are requested.
+     */
+    public synchronized Flowable<Buffer> readOutput() {
+        return read(outputFile);
+    }
+
+    /**
+     * Delete the files of the body. Closing it again does nothing.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        head = null;
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                // Deleted anyway.
+            }
+        }
+        delete(inputFile);
+        delete(outputFile);
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private Path createTempFile(String suffix) throws IOException {
+        return directory == null ? Files.createTempFile(PREFIX, suffix) : Files.createTempFile(directory, PREFIX, suffix);
+    }
+
+    private static void write(FileChannel channel, Buffer chunk) throws IOException {
+        final ByteBuffer bytes = chunk.getNativeBuffer().nioBuffer();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private static Flowable<Buffer> read(Path file) {
+        return Flowable.generate(
+            () -> FileChannel.open(file, StandardOpenOption.READ),
+            (channel, emitter) -> {
+                final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+                if (channel.read(bytes) < 0) {
+                    emitter.onComplete();
+                    return;
+                }
+                emitter.onNext(Buffer.buffer(Unpooled.wrappedBuffer(bytes.array(), 0, bytes.position())));
+            },
+            FileChannel::close
+        );
+    }
+
+    private static void delete(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Left to the end of the gateway, when it cannot be deleted now.
+            file.toFile().deleteOnExit();
+        }
+    }
+}
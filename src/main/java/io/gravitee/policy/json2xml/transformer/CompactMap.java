@@ -0,0 +1,287 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An insertion-ordered map holding its first entries into parallel key and value arrays, looked up by a linear scan.
+ * Most JSON objects have a handful of members, for which this takes far less memory than a {@link LinkedHashMap}
+ * and its entry per key. Once it holds more than {@link #THRESHOLD} entries, the map moves them to a
+ * {@link LinkedHashMap}.
+ *
+ * @author GraviteeSource Team
+ */
+final class CompactMap<K, V> extends AbstractMap<K, V> {
+
+    /**
+     * Number of entries above which they are moved to a hash table.
+     */
+    static final int THRESHOLD = 8;
+
+    private Object[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * The hash table holding the entries once there are more than {@link #THRESHOLD}, null before.
+     */
+    private LinkedHashMap<K, V> table;
+
+    private Set<Entry<K, V>> entrySet;
+
+    CompactMap() {
+        this.keys = new Object[4];
+        this.values = new Object[4];
+    }
+
+    @Override
+    public int size() {
+        return table != null ? table.size() : size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return table != null ? table.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (table != null) {
+            return table.get(key);
+        }
+        final int index = indexOf(key);
+        return index >= 0 ? (V) values[index] : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (table != null) {
+            return table.put(key, value);
+        }
+        final int index = indexOf(key);
+        if (index >= 0) {
+            final V previous = (V) values[index];
+            values[index] = value;
+            return previous;
+        }
+        add(key, value);
+        return null;
+    }
+
+    /**
+     * Associate the value to the key unless the key is already associated to a non-null value, with a single lookup.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(K key, V value) {
+        if (table != null) {
+            return table.putIfAbsent(key, value);
+        }
+        final int index = indexOf(key);
+        if (index >= 0) {
+            final V previous = (V) values[index];
+            if (previous == null) {
+                values[index] = value;
+            }
+            return previous;
+        }
+        add(key, value);
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (table != null) {
+            return table.remove(key);
+        }
+        final int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        final V previous = (V) values[index];
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        if (table != null) {
+            table.clear();
+        } else {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (table != null) {
+            return table.entrySet();
+        }
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private int indexOf(Object key) {
+        final Object[] keys = this.keys;
+        for (int i = 0, n = size; i < n; i++) {
+            if (Objects.equals(keys[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(K key, V value) {
+        if (size == THRESHOLD) {
+            table = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                table.put((K) keys[i], (V) values[i]);
+            }
+            table.put(key, value);
+            keys = null;
+            values = null;
+            size = 0;
+            entrySet = null;
+            return;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, THRESHOLD);
+            values = Arrays.copyOf(values, THRESHOLD);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+    }
+
+    private void removeAt(int index) {
+        final int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+        }
+        size--;
+        keys[size] = null;
+        values[size] = null;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return CompactMap.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            if (table != null) {
+                return table.entrySet().iterator();
+            }
+            return new Iterator<>() {
+                private int next;
+                private int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public Entry<K, V> next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    last = next++;
+                    return new ArrayEntry(last);
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    removeAt(last);
+                    next = last;
+                    last = -1;
+                }
+            };
+        }
+    }
+
+    private final class ArrayEntry implements Map.Entry<K, V> {
+
+        private final int index;
+
+        private ArrayEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K getKey() {
+            return (K) keys[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return (V) values[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V value) {
+            final V previous = (V) values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (
+                o instanceof Map.Entry<?, ?> entry &&
+                Objects.equals(getKey(), entry.getKey()) &&
+                Objects.equals(getValue(), entry.getValue())
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
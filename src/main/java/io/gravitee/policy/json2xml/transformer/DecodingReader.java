@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * A Reader decoding the bytes of a buffer as they are read, straight into the array of the caller, so that a JSON
+ * source using a charset which cannot be read as bytes is decoded once without being converted into a String.
+ * Malformed and unmappable input is replaced, as it is when the bytes are converted into a String.
+ *
+ * @author GraviteeSource Team
+ */
+final class DecodingReader extends Reader {
+
+    private final ByteBuffer input;
+    private final CharsetDecoder decoder;
+    private boolean flushed;
+    private int pending = -1;
+
+    /**
+     * @param buffer the bytes to decode, from its position to its limit. The position of the buffer is left untouched.
+     * @param decoder the decoder of the charset of the bytes, reset by the reader.
+     */
+    DecodingReader(ByteBuffer buffer, CharsetDecoder decoder) {
+        this.input = buffer.duplicate();
+        this.decoder = decoder.reset();
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws CharacterCodingException {
+        if (length == 0) {
+            return 0;
+        }
+        if (pending >= 0) {
+            chars[offset] = (char) pending;
+            pending = -1;
+            return 1;
+        }
+        if (flushed) {
+            return -1;
+        }
+        final int read = decode(CharBuffer.wrap(chars, offset, length));
+        if (read > 0 || flushed) {
+            return read > 0 ? read : -1;
+        }
+        // A surrogate pair does not fit in a single char, its low surrogate is returned by the next read.
+        final CharBuffer pair = CharBuffer.allocate(2);
+        decode(pair);
+        chars[offset] = pair.get(0);
+        if (pair.position() > 1) {
+            pending = pair.get(1);
+        }
+        return 1;
+    }
+
+    private int decode(CharBuffer output) throws CharacterCodingException {
+        final int start = output.position();
+        CoderResult result = decoder.decode(input, output, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(output);
+            flushed = result.isUnderflow();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        return output.position() - start;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the buffer belongs to the caller.
+    }
+}
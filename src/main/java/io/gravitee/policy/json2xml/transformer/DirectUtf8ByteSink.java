@@ -0,0 +1,266 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Utf8ByteSink} encoding the characters appended to it straight into direct buffers of an allocator, usually
+ * pooled, so that the XML can be handed over to the network without being copied from the heap first.
+ *
+ * The bytes written since the last {@link #take()} are taken as a buffer of their own, the next bytes being written into
+ * a new buffer. The gateway wraps the buffers it is given without ever releasing them, so the sink keeps the ownership
+ * of every buffer it allocated: they are all released by {@link #release()}, once the body they hold has ended.
+ *
+ * @author GraviteeSource Team
+ */
+public final class DirectUtf8ByteSink extends Utf8ByteSink {
+
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final ByteBufAllocator allocator;
+    private final int initialCapacity;
+    private final List<ByteBuf> taken = new ArrayList<>();
+    private ByteBuf buffer;
+    private long takenBytes;
+    private TranscodingLimits limits = TranscodingLimits.NONE;
+    private boolean released;
+
+    /**
+     * High surrogate waiting for its low surrogate.
+     */
+    private char highSurrogate;
+
+    /**
+     * @param allocator the allocator of the direct buffers.
+     * @param initialCapacity the initial number of bytes of each buffer.
+     */
+    public DirectUtf8ByteSink(ByteBufAllocator allocator, int initialCapacity) {
+        super(NO_BYTES);
+        this.allocator = allocator;
+        this.initialCapacity = Math.max(initialCapacity, 16);
+    }
+
+    @Override
+    public DirectUtf8ByteSink append(CharSequence csq) {
+        return append(csq == null ? "null" : csq, 0, csq == null ? 4 : csq.length());
+    }
+
+    @Override
+    public DirectUtf8ByteSink append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            return append("null", start, end);
+        }
+        int i = start;
+        if (highSurrogate == 0) {
+            // ASCII fast path, the capacity is already there.
+            final ByteBuf b = ensureWritable(end - start);
+            for (; i < end; i++) {
+                char c = csq.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                b.writeByte(c);
+            }
+        }
+        for (; i < end; i++) {
+            append(csq.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public DirectUtf8ByteSink append(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                final int cp = Character.toCodePoint(high, c);
+                ensureWritable(4)
+                    .writeByte(0xF0 | (cp >> 18))
+                    .writeByte(0x80 | ((cp >> 12) & 0x3F))
+                    .writeByte(0x80 | ((cp >> 6) & 0x3F))
+                    .writeByte(0x80 | (cp & 0x3F));
+                return this;
+            }
+            ensureWritable(1).writeByte('?');
+        }
+        if (c < 0x80) {
+            ensureWritable(1).writeByte(c);
+        } else if (c < 0x800) {
+            ensureWritable(2).writeByte(0xC0 | (c >> 6)).writeByte(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            ensureWritable(1).writeByte('?');
+        } else {
+            ensureWritable(3).writeByte(0xE0 | (c >> 12)).writeByte(0x80 | ((c >> 6) & 0x3F)).writeByte(0x80 | (c & 0x3F));
+        }
+        return this;
+    }
+
+    @Override
+    public DirectUtf8ByteSink write(byte[] src, int offset, int length) {
+        flushHighSurrogate();
+        ensureWritable(length).writeBytes(src, offset, length);
+        return this;
+    }
+
+    /**
+     * Forget the bytes written since the last {@link #take()} and the limits, keeping the buffers already taken.
+     *
+     * @return this.
+     */
+    @Override
+    public DirectUtf8ByteSink reset() {
+        if (buffer != null) {
+            buffer.clear();
+        }
+        highSurrogate = 0;
+        return limit(TranscodingLimits.NONE);
+    }
+
+    /**
+     * Limit the number of bytes written to the sink, those already taken included, to the maximum output size of the
+     * given limits.
+     *
+     * @param limits the limits of the transformation.
+     * @return this.
+     * @throws TranscodingLimitException If more bytes than allowed have already been written.
+     */
+    @Override
+    public DirectUtf8ByteSink limit(TranscodingLimits limits) {
+        this.limits = limits;
+        limits.checkOutputSize(size());
+        return this;
+    }
+
+    @Override
+    public int capacity() {
+        return buffer == null ? 0 : buffer.capacity();
+    }
+
+    /**
+     * A direct sink has no array.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public byte[] array() {
+        throw new UnsupportedOperationException("A direct sink is not backed by an array");
+    }
+
+    /**
+     * @return the number of bytes written since the last {@link #take()}.
+     */
+    @Override
+    public int writeIndex() {
+        flushHighSurrogate();
+        return buffer == null ? 0 : buffer.readableBytes();
+    }
+
+    /**
+     * @return a copy of the bytes written since the last {@link #take()}.
+     */
+    @Override
+    public byte[] toByteArray() {
+        flushHighSurrogate();
+        return buffer == null ? NO_BYTES : ByteBufUtil.getBytes(buffer);
+    }
+
+    /**
+     * Take the bytes written since the last call. The buffer is still owned by the sink, and must not be used once the
+     * sink has been {@link #release() released}.
+     *
+     * @return the bytes written since the last call, or an empty unpooled buffer when none were written.
+     */
+    public ByteBuf take() {
+        flushHighSurrogate();
+        if (buffer == null || !buffer.isReadable()) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+        final ByteBuf bytes = buffer;
+        buffer = null;
+        taken.add(bytes);
+        takenBytes += bytes.readableBytes();
+        return bytes;
+    }
+
+    /**
+     * Release all the buffers allocated by the sink, those taken included. Releasing it again does nothing, and the
+     * sink can no longer be written once released.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+        for (ByteBuf bytes : taken) {
+            bytes.release();
+        }
+        taken.clear();
+    }
+
+    @Override
+    public String toString() {
+        flushHighSurrogate();
+        return buffer == null ? "" : buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of bytes written to the sink, those already taken included.
+     */
+    private long size() {
+        return takenBytes + (buffer == null ? 0 : buffer.readableBytes());
+    }
+
+    private void flushHighSurrogate() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            ensureWritable(1).writeByte('?');
+        }
+    }
+
+    /**
+     * @return the buffer to write into, allocated when needed, and able to hold the given number of bytes.
+     * @throws TranscodingLimitException If the sink would hold more bytes than allowed.
+     * @throws IllegalStateException If the sink has been released.
+     */
+    private ByteBuf ensureWritable(int length) {
+        if (released) {
+            throw new IllegalStateException("The sink has been released");
+        }
+        if (limits.getMaxOutputSize() > 0) {
+            limits.checkOutputSize(size() + length);
+        }
+        if (buffer == null) {
+            buffer = allocator.directBuffer(Math.max(initialCapacity, length));
+        } else if (buffer.writableBytes() < length) {
+            buffer.ensureWritable(length);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A JSONTokener reading UTF-8 encoded JSON directly from bytes. Structural characters are read from a cursor over
+ * the bytes and UTF-8 is only decoded inside string tokens and unquoted values, so the source never has to be
+ * converted into a String or read through a Reader.
+ *
+ * US-ASCII and ISO-8859-1 are read the same way: as in UTF-8, their ASCII bytes always are ASCII characters, and their
+ * other bytes are never part of a structural character, so that only the runs of non ASCII bytes have to be decoded.
+ *
+ * A NUL byte is handled as the end of the source, like a NUL character is by the {@link JSONTokener}.
+ *
+ * @author GraviteeSource Team
+ */
+public class JSONByteTokener extends JSONTokener {
+
+    private static final String DELIMITERS = ",:]}/\\\"[{;=#";
+
+    private ByteBuffer buf;
+    private Charset charset = StandardCharsets.UTF_8;
+    private int start;
+    private int limit;
+    private int pos;
+
+    /**
+     * Characters decoded from a run of non ASCII bytes which have not been returned yet.
+     */
+    private String pending;
+    private int pendingIndex;
+
+    /**
+     * Characters read once all the bytes have been read, from the position following the limit.
+     */
+    private String suffix;
+
+    /**
+     * The state before the last read, to support {@link #back()}.
+     */
+    private int previousPos;
+    private String previousPending;
+    private int previousPendingIndex;
+    private boolean usePrevious;
+    private boolean eof;
+
+    /**
+     * Construct a JSONByteTokener from a byte array.
+     *
+     * @param bytes    UTF-8 encoded JSON.
+     * @param maxDepth The maximum number of nested objects or arrays.
+     */
+    public JSONByteTokener(byte[] bytes, int maxDepth) {
+        this(ByteBuffer.wrap(bytes), maxDepth);
+    }
+
+    /**
+     * Construct a JSONByteTokener reading the remaining bytes of a buffer. The position of the buffer is left
+     * untouched.
+     *
+     * @param buffer   UTF-8 encoded JSON.
+     * @param maxDepth The maximum number of nested objects or arrays.
+     */
+    public JSONByteTokener(ByteBuffer buffer, int maxDepth) {
+        this(buffer, StandardCharsets.UTF_8, maxDepth);
+    }
+
+    /**
+     * Construct a JSONByteTokener reading the remaining bytes of a buffer. The position of the buffer is left
+     * untouched.
+     *
+     * @param buffer   JSON encoded with the given charset.
+     * @param charset  UTF-8, US-ASCII or ISO-8859-1.
+     * @param maxDepth The maximum number of nested objects or arrays.
+     * @throws IllegalArgumentException If the charset cannot be read as bytes.
+     */
+    public JSONByteTokener(ByteBuffer buffer, Charset charset, int maxDepth) {
+        super(maxDepth);
+        this.source(buffer, charset);
+    }
+
+    /**
+     * @param charset the charset of a JSON source.
+     * @return true if the source can be read by a JSONByteTokener.
+     */
+    public static boolean isByteReadable(Charset charset) {
+        return (
+            StandardCharsets.UTF_8.equals(charset) ||
+            StandardCharsets.US_ASCII.equals(charset) ||
+            StandardCharsets.ISO_8859_1.equals(charset)
+        );
+    }
+
+    /**
+     * Reset the tokener so that it reads the remaining bytes of another buffer, like a new tokener would. The
+     * position of the buffer is left untouched.
+     *
+     * @param buffer   UTF-8 encoded JSON.
+     * @param maxDepth The maximum number of nested objects or arrays.
+     * @return this.
+     */
+    public JSONByteTokener reset(ByteBuffer buffer, int maxDepth) {
+        return this.reset(buffer, StandardCharsets.UTF_8, maxDepth);
+    }
+
+    /**
+     * Reset the tokener so that it reads the remaining bytes of another buffer, like a new tokener would. The
+     * position of the buffer is left untouched.
+     *
+     * @param buffer   JSON encoded with the given charset.
+     * @param charset  UTF-8, US-ASCII or ISO-8859-1.
+     * @param maxDepth The maximum number of nested objects or arrays.
+     * @return this.
+     * @throws IllegalArgumentException If the charset cannot be read as bytes.
+     */
+    public JSONByteTokener reset(ByteBuffer buffer, Charset charset, int maxDepth) {
+        super.reset(maxDepth);
+        this.source(buffer, charset);
+        return this;
+    }
+
+    private void source(ByteBuffer buffer, Charset charset) {
+        if (!isByteReadable(charset)) {
+            throw new IllegalArgumentException("JSON encoded in " + charset + " cannot be read as bytes");
+        }
+        this.buf = buffer;
+        this.charset = charset;
+        this.start = buffer.position();
+        this.limit = buffer.limit();
+        this.pos = this.start;
+        this.pending = null;
+        this.pendingIndex = 0;
+        this.suffix = null;
+        this.previousPos = -1;
+        this.previousPending = null;
+        this.previousPendingIndex = 0;
+        this.usePrevious = false;
+        this.eof = false;
+    }
+
+    /**
+     * Read the given characters before the bytes of the source, and the given suffix after them, as if the bytes were
+     * enclosed into them, so that a slice of a larger payload can be read as a payload of its own without being copied.
+     * It must be called before anything is read.
+     *
+     * @param prefix the characters read before the bytes.
+     * @param suffix the characters read after the bytes.
+     * @return this.
+     */
+    JSONByteTokener enclose(String prefix, String suffix) {
+        this.pending = prefix.isEmpty() ? null : prefix;
+        this.pendingIndex = 0;
+        this.suffix = suffix.isEmpty() ? null : suffix;
+        return this;
+    }
+
+    @Override
+    public void back() throws JSONException {
+        if (this.usePrevious || this.previousPos < 0) {
+            throw new JSONException("Stepping back two steps is not supported");
+        }
+        this.pos = this.previousPos;
+        this.pending = this.previousPending;
+        this.pendingIndex = this.previousPendingIndex;
+        this.usePrevious = true;
+        this.eof = false;
+    }
+
+    @Override
+    public boolean end() {
+        return this.eof && !this.usePrevious;
+    }
+
+    @Override
+    public char next() throws JSONException {
+        this.previousPos = this.pos;
+        this.previousPending = this.pending;
+        this.previousPendingIndex = this.pendingIndex;
+        this.usePrevious = false;
+
+        if (this.pending == null && this.pos == this.limit && this.suffix != null) {
+            // Stepping back to the limit reads the suffix again.
+            this.pos++;
+            this.pending = this.suffix;
+            this.pendingIndex = 0;
+        }
+        if (this.pending != null) {
+            char c = this.pending.charAt(this.pendingIndex++);
+            if (this.pendingIndex == this.pending.length()) {
+                this.pending = null;
+            }
+            return c;
+        }
+        if (this.pos >= this.limit) {
+            this.eof = true;
+            return 0;
+        }
+        byte b = this.buf.get(this.pos);
+        if (b >= 0) {
+            this.pos++;
+            if (b == 0) {
+                this.eof = true;
+            }
+            return (char) b;
+        }
+        return this.decode();
+    }
+
+    @Override
+    public char nextClean() throws JSONException {
+        for (;;) {
+            if (this.pending != null || this.pos >= this.limit) {
+                char c = this.next();
+                if (c == 0 || c > ' ') {
+                    return c;
+                }
+                continue;
+            }
+            byte b = this.buf.get(this.pos);
+            if (b < 0 || b == 0) {
+                return this.next();
+            }
+            if (b > ' ') {
+                this.previousPos = this.pos;
+                this.previousPending = null;
+                this.usePrevious = false;
+                this.pos++;
+                return (char) b;
+            }
+            this.pos++;
+        }
+    }
+
+    @Override
+    public String nextString(char quote) throws JSONException {
+        if (this.pending != null) {
+            return super.nextString(quote);
+        }
+        StringBuilder sb = null;
+        int run = this.pos;
+        // A character takes at most 3 bytes of UTF-8, 4 bytes giving 2 characters, and a single byte of ASCII or
+        // Latin-1: a run of more bytes than that is too long, and fails before it is scanned entirely and decoded.
+        final int bytesPerChar = StandardCharsets.UTF_8.equals(this.charset) ? 3 : 1;
+        final int maxLength = this.maxStringLength();
+        final long maxRunBytes = maxLength > 0 ? (long) maxLength * bytesPerChar : Long.MAX_VALUE;
+        for (;;) {
+            if (this.pos >= this.limit) {
+                this.eof = true;
+                throw this.syntaxError("Unterminated string");
+            }
+            byte b = this.buf.get(this.pos);
+            if (b == quote) {
+                String string = this.decode(run, this.pos);
+                this.pos++;
+                this.usePrevious = false;
+                this.previousPos = this.pos - 1;
+                this.previousPending = null;
+                if (sb == null) {
+                    this.checkStringLength(string.length());
+                    return string;
+                }
+                sb.append(string);
+                this.checkStringLength(sb.length());
+                return sb.toString();
+            }
+            switch (b) {
+                case 0:
+                case '\n':
+                case '\r':
+                    this.pos++;
+                    throw this.syntaxError("Unterminated string");
+                case '\\':
+                    if (sb == null) {
+                        sb = this.builder();
+                    }
+                    sb.append(this.decode(run, this.pos));
+                    this.checkStringLength(sb.length());
+                    this.pos++;
+                    this.escape(sb);
+                    run = this.pos;
+                    break;
+                default:
+                    this.pos++;
+                    if (this.pos - run > maxRunBytes) {
+                        this.checkStringLength((sb == null ? 0 : sb.length()) + (this.pos - run + bytesPerChar - 1) / bytesPerChar);
+                    }
+            }
+        }
+    }
+
+    private void escape(StringBuilder sb) throws JSONException {
+        char c = this.next();
+        switch (c) {
+            case 'b':
+                sb.append('\b');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 'u':
+                sb.append((char) Integer.parseInt(this.next(4), 16));
+                break;
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                sb.append(c);
+                break;
+            default:
+                throw this.syntaxError("Illegal escape.");
+        }
+    }
+
+    @Override
+    public String nextSimpleText(char c) throws JSONException {
+        if (c >= 0x80 || this.pending != null || this.usePrevious) {
+            return super.nextSimpleText(c);
+        }
+        if (c < ' ' || DELIMITERS.indexOf(c) >= 0) {
+            this.back();
+            throw this.syntaxError("Missing value");
+        }
+
+        // Non ASCII bytes never are delimiters, only the bytes of the value have to be scanned.
+        int from = this.pos - 1;
+        while (this.pos < this.limit) {
+            byte b = this.buf.get(this.pos);
+            if (b >= 0 && (b < ' ' || DELIMITERS.indexOf(b) >= 0)) {
+                break;
+            }
+            this.pos++;
+        }
+        this.previousPos = this.pos;
+        this.previousPending = null;
+        this.usePrevious = true;
+        this.eof = false;
+
+        String string = this.decode(from, this.pos).trim();
+        this.checkStringLength(string.length());
+        return string;
+    }
+
+    @Override
+    public char skipTo(char to) throws JSONException {
+        if (to >= 0x80 || this.pending != null) {
+            return super.skipTo(to);
+        }
+        for (int i = this.pos; i < this.limit; i++) {
+            byte b = this.buf.get(i);
+            if (b == 0) {
+                return 0;
+            }
+            if (b == to) {
+                this.pos = i;
+                this.previousPos = i;
+                this.usePrevious = true;
+                return to;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Decode the run of non ASCII bytes starting at the current position and return its first character, the other
+     * ones being returned by the next calls to {@link #next()}. Decoding the whole run gives the same characters,
+     * and the same replacement of malformed input, as decoding the whole source would.
+     */
+    private char decode() {
+        int from = this.pos;
+        do {
+            this.pos++;
+        } while (this.pos < this.limit && this.buf.get(this.pos) < 0);
+
+        String chars = this.decode(from, this.pos);
+        if (chars.length() > 1) {
+            this.pending = chars;
+            this.pendingIndex = 1;
+        }
+        return chars.charAt(0);
+    }
+
+    private String decode(int from, int to) {
+        int length = to - from;
+        if (length == 0) {
+            return "";
+        }
+        if (this.buf.hasArray()) {
+            return new String(this.buf.array(), this.buf.arrayOffset() + from, length, this.charset);
+        }
+        byte[] bytes = new byte[length];
+        this.buf.get(from, bytes);
+        return new String(bytes, this.charset);
+    }
+
+    /**
+     * Make a printable string of this JSONByteTokener. The line and character are only computed here, so that
+     * reading does not have to keep track of them.
+     *
+     * @return " at {index} [character {character} line {line}]"
+     */
+    @Override
+    public String toString() {
+        long line = 1;
+        long character = 1;
+        for (int i = this.start; i < Math.min(this.pos, this.limit); i++) {
+            byte b = this.buf.get(i);
+            if (b == '\n' || (b == '\r' && (i + 1 >= this.pos || this.buf.get(i + 1) != '\n'))) {
+                line++;
+                character = 0;
+            } else {
+                character++;
+            }
+        }
+        return " at " + (this.pos - this.start) + " [character " + character + " line " + line + "]";
+    }
+}
@@ -147,7 +147,8 @@ public class JSONObject {
     }
 
     /**
-     * The map where the JSONObject's properties are kept.
+     * The map where the JSONObject's properties are kept, compact as long as
+     * there are only a few of them.
      */
     private final Map<String, Object> map;
 
@@ -163,7 +164,7 @@ public class JSONObject {
      * Construct an empty JSONObject.
      */
     public JSONObject() {
-        this.map = new LinkedHashMap<String, Object>();
+        this.map = new CompactMap<String, Object>();
     }
 
     /**
@@ -250,7 +251,7 @@ public class JSONObject {
      *            the JSONObject.
      */
     public JSONObject(Map<String, Object> map) {
-        this.map = new LinkedHashMap<String, Object>();
+        this.map = new CompactMap<String, Object>();
         if (map != null) {
             Iterator<Entry<String, Object>> i = map.entrySet().iterator();
             while (i.hasNext()) {
@@ -1290,10 +1291,10 @@ public class JSONObject {
      */
     public JSONObject putOnce(String key, Object value) throws JSONException {
         if (key != null && value != null) {
-            if (this.opt(key) != null) {
+            testValidity(value);
+            if (this.map.putIfAbsent(key, value) != null) {
                 throw new JSONException("Duplicate key \"" + key + "\"");
             }
-            this.put(key, value);
         }
         return this;
     }
@@ -1500,6 +1501,62 @@ public class JSONObject {
         return string;
     }
 
+    /**
+     * Tell if a text is a number as defined by RFC 8259: an optional minus
+     * sign, an integer part without leading zeros, an optional fraction and
+     * an optional exponent. Unlike {@link #stringToValue(String)}, nothing is
+     * converted.
+     *
+     * @param text
+     *            The text to test.
+     * @return true if the text is a number.
+     */
+    public static boolean isNumber(CharSequence text) {
+        final int length = text.length();
+        int i = 0;
+        if (i < length && text.charAt(i) == '-') {
+            i++;
+        }
+        if (i < length && text.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            while (i < length && isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && text.charAt(i) == '.') {
+            int start = ++i;
+            while (i < length && isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+                i++;
+            }
+            int start = i;
+            while (i < length && isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
     /**
      * Throw an exception if the object is a NaN or infinite number.
      *
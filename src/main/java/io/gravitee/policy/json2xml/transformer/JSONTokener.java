@@ -59,6 +59,9 @@ SOFTWARE.
 public class JSONTokener {
 
     public static final int DEFAULT_MAX_DEPTH = 100;
+
+    /** The message of the exception thrown when there are more nested objects or arrays than allowed. */
+    public static final String MAX_DEPTH_EXCEEDED = "Too many nested objects or arrays";
     private long character;
     private boolean eof;
     private long index;
@@ -69,7 +72,22 @@ public class JSONTokener {
 
     private int objectDepth = 0;
     private int arrayDepth = 0;
-    private final int maxDepth;
+    private int maxDepth;
+
+    /**
+     * The limits of the strings read, none by default.
+     */
+    private TranscodingLimits limits = TranscodingLimits.NONE;
+
+    /**
+     * Capacity above which the builder accumulating the text of tokens is not kept when the tokener is reset.
+     */
+    private static final int MAX_RETAINED_BUILDER_CAPACITY = 64 * 1024;
+
+    /**
+     * Accumulates the text of the token being read, reused from one token to the next.
+     */
+    private StringBuilder builder;
 
     /**
      * Construct a JSONTokener from a Reader.
@@ -87,6 +105,81 @@ public class JSONTokener {
         this.maxDepth = maxDepth;
     }
 
+    /**
+     * Construct a JSONTokener without reader, for subclasses working on their own source.
+     *
+     * @param maxDepth The maximum number of nested objects or arrays.
+     */
+    protected JSONTokener(int maxDepth) {
+        this.eof = false;
+        this.usePrevious = false;
+        this.previous = 0;
+        this.index = 0;
+        this.character = 1;
+        this.line = 1;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Reset the state of the tokener so that it can read a new source, for subclasses reusing their instances.
+     *
+     * @param maxDepth The maximum number of nested objects or arrays.
+     */
+    protected void reset(int maxDepth) {
+        this.eof = false;
+        this.usePrevious = false;
+        this.previous = 0;
+        this.index = 0;
+        this.character = 1;
+        this.line = 1;
+        this.objectDepth = 0;
+        this.arrayDepth = 0;
+        this.maxDepth = maxDepth;
+        this.limits = TranscodingLimits.NONE;
+        if (this.builder != null && this.builder.capacity() > MAX_RETAINED_BUILDER_CAPACITY) {
+            this.builder = null;
+        }
+    }
+
+    /**
+     * Limit the length of the strings, keys and unquoted values read by the tokener.
+     *
+     * @param limits the limits of the transformation.
+     * @return this.
+     */
+    public JSONTokener limit(TranscodingLimits limits) {
+        this.limits = limits;
+        return this;
+    }
+
+    /**
+     * @param length the number of characters of the string being read.
+     * @throws TranscodingLimitException If the string is longer than allowed.
+     */
+    protected final void checkStringLength(int length) {
+        this.limits.checkStringLength(length);
+    }
+
+    /**
+     * @return the maximum number of characters of a string, 0 for no limit.
+     */
+    protected final int maxStringLength() {
+        return this.limits.getMaxStringLength();
+    }
+
+    /**
+     * @return the builder accumulating the text of a token, emptied. The text must be taken out of the builder
+     * before reading the next token.
+     */
+    protected final StringBuilder builder() {
+        if (this.builder == null) {
+            this.builder = new StringBuilder();
+        } else {
+            this.builder.setLength(0);
+        }
+        return this.builder;
+    }
+
     /**
      * Construct a JSONTokener from an InputStream.
      * @param inputStream The source.
@@ -261,8 +354,10 @@ public class JSONTokener {
      */
     public String nextString(char quote) throws JSONException {
         char c;
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = this.builder();
         for (;;) {
+            // Checked as the string grows, so that a string too long fails before it is read entirely.
+            this.checkStringLength(sb.length());
             c = this.next();
             switch (c) {
                 case 0:
@@ -316,7 +411,7 @@ public class JSONTokener {
      * @return   A string.
      */
     public String nextTo(char delimiter) throws JSONException {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = this.builder();
         for (;;) {
             char c = this.next();
             if (c == delimiter || c == 0 || c == '\n' || c == '\r') {
@@ -337,7 +432,7 @@ public class JSONTokener {
      */
     public String nextTo(String delimiters) throws JSONException {
         char c;
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = this.builder();
         for (;;) {
             c = this.next();
             if (delimiters.indexOf(c) >= 0 || c == 0 || c == '\n' || c == '\r') {
@@ -350,6 +445,14 @@ public class JSONTokener {
         }
     }
 
+    public final void incrementObjectDepth() {
+        checkMaxDepth(this.objectDepth++);
+    }
+
+    public final void incrementArrayDepth() {
+        checkMaxDepth(this.arrayDepth++);
+    }
+
     public final void decrementObjectDepth() {
         this.objectDepth--;
     }
@@ -358,6 +461,18 @@ public class JSONTokener {
         this.arrayDepth--;
     }
 
+    /**
+     * Count the nested arrays from the given depth instead of 0. Like {@link JSONArray}, an empty array is never
+     * counted out, so that a part of a payload read on its own must start with the empty arrays read before it.
+     *
+     * @param arrayDepth the number of arrays already counted.
+     * @return this.
+     */
+    JSONTokener arrayDepth(int arrayDepth) {
+        this.arrayDepth = arrayDepth;
+        return this;
+    }
+
     /**
      * Get the next value. The value can be a Boolean, Double, Integer,
      * JSONArray, JSONObject, Long, or String, or the JSONObject.NULL object.
@@ -367,7 +482,6 @@ public class JSONTokener {
      */
     public Object nextValue() throws JSONException {
         char c = this.nextClean();
-        String string;
 
         switch (c) {
             case '"':
@@ -375,13 +489,39 @@ public class JSONTokener {
                 return this.nextString(c);
             case '{':
                 this.back();
-                checkMaxDepth(this.objectDepth++);
+                this.incrementObjectDepth();
                 return new JSONObject(this);
             case '[':
                 this.back();
-                checkMaxDepth(this.arrayDepth++);
+                this.incrementArrayDepth();
                 return new JSONArray(this);
         }
+        return this.nextSimpleValue(c);
+    }
+
+    /**
+     * Get the next unquoted value, starting with the already consumed
+     * character. The value can be a Boolean, Double, Integer, Long, String,
+     * or the JSONObject.NULL object.
+     * @param c The first character of the value.
+     * @throws JSONException If the value is missing.
+     *
+     * @return An object.
+     */
+    public Object nextSimpleValue(char c) throws JSONException {
+        return JSONObject.stringToValue(this.nextSimpleText(c));
+    }
+
+    /**
+     * Get the text of the next unquoted value, starting with the already
+     * consumed character, without converting it.
+     * @param c The first character of the value.
+     * @throws JSONException If the value is missing.
+     *
+     * @return The trimmed text of the value.
+     */
+    public String nextSimpleText(char c) throws JSONException {
+        String string;
 
         /*
          * Handle unquoted text. This could be the values true, false, or
@@ -392,7 +532,7 @@ public class JSONTokener {
          * formatting character.
          */
 
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = this.builder();
         while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
             sb.append(c);
             c = this.next();
@@ -403,12 +543,13 @@ public class JSONTokener {
         if ("".equals(string)) {
             throw this.syntaxError("Missing value");
         }
-        return JSONObject.stringToValue(string);
+        this.checkStringLength(string.length());
+        return string;
     }
 
     private void checkMaxDepth(int depth) {
         if (depth > this.maxDepth && this.maxDepth > -1) {
-            throw new IllegalArgumentException("Too many nested objects or arrays");
+            throw new IllegalArgumentException(MAX_DEPTH_EXCEEDED);
         }
     }
 
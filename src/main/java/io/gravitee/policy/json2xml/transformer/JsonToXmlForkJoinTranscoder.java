@@ -0,0 +1,600 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transcodes a large JSON payload on the threads of a {@link ForkJoinPool}. A structural pre-scan of the bytes finds
+ * the boundaries of the members of the root object, of the records of a top-level array, and of the values of the
+ * large array members of the root object. Runs of consecutive members or values are cut into segments, each segment
+ * is transcoded on its own, and their XML is stitched in the order of the payload.
+ *
+ * The XML of a member of the root object, or of a value of an array, does not depend on its neighbours, so that the
+ * stitched XML is the same, byte for byte, as the XML written by a single {@link JsonToXmlTranscoder}. The pre-scan
+ * only accepts the standard JSON syntax: a payload using the lenient syntax, an escaped or duplicated root key, or too
+ * few members to be worth splitting, is left to the serial transcoder. So is a payload with a segment which is not
+ * valid JSON, so that the serial transcoder fails exactly as it would have failed without splitting. A segment, or a
+ * whole XML, exceeding the limits or the maximum depth fails right away, without being transcoded again.
+ *
+ * Each segment is read in place, from the bytes of the payload, as if it was enclosed into the brackets it was read
+ * from. The segments count the size of their XML together, as it is written, so that they all stop as soon as it
+ * exceeds the maximum output size instead of once they are done.
+ *
+ * The calling thread waits for the segments, so it must never be an event loop: payloads are only split on the worker
+ * threads of the offloading.
+ *
+ * @author GraviteeSource Team
+ */
+public final class JsonToXmlForkJoinTranscoder {
+
+    /**
+     * The default minimum number of bytes of a segment, smaller segments costing more to schedule than to transcode.
+     */
+    public static final int DEFAULT_MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private static final String CONTENT = "content";
+
+    /**
+     * The number of segments given to each thread of the pool, so that a slow segment does not leave the others idle.
+     */
+    private static final int SEGMENTS_PER_THREAD = 4;
+
+    /**
+     * The number of bytes of XML a segment writes between two updates of the size shared by all the segments.
+     */
+    private static final int OUTPUT_CHECK_INTERVAL = 16 * 1024;
+
+    private static final String OBJECT_START = "{";
+    private static final String OBJECT_END = "}";
+    private static final String ARRAY_START = "[";
+    private static final String ARRAY_END = "]";
+    private static final String ARRAY_MEMBER_END = "]}";
+
+    private static volatile ForkJoinPool defaultPool;
+
+    private final ForkJoinPool pool;
+    private final String rootElement;
+    private final String recordElement;
+    private final int maxDepth;
+    private final boolean preserveNumberFormat;
+    private final TagCache tags;
+    private final TranscodingLimits limits;
+    private final int minSegmentSize;
+
+    /**
+     * The number of bytes of the open and close tags of the root element, dropped from the XML of each segment.
+     */
+    private final int openLength;
+    private final int closeLength;
+
+    /**
+     * @param pool the pool transcoding the segments.
+     * @param rootElement the name of the root element.
+     * @param recordElement the name of the elements of the records of a top-level array, null to only accept an object.
+     * @param maxDepth the maximum number of nested objects or arrays.
+     * @param preserveNumberFormat true to write numbers as they are written in the JSON.
+     * @param tags the cache of the encoded tags.
+     * @param limits the limits of the transformation.
+     */
+    public JsonToXmlForkJoinTranscoder(
+        ForkJoinPool pool,
+        String rootElement,
+        String recordElement,
+        int maxDepth,
+        boolean preserveNumberFormat,
+        TagCache tags,
+        TranscodingLimits limits
+    ) {
+        this(pool, rootElement, recordElement, maxDepth, preserveNumberFormat, tags, limits, DEFAULT_MIN_SEGMENT_SIZE);
+    }
+
+    JsonToXmlForkJoinTranscoder(
+        ForkJoinPool pool,
+        String rootElement,
+        String recordElement,
+        int maxDepth,
+        boolean preserveNumberFormat,
+        TagCache tags,
+        TranscodingLimits limits,
+        int minSegmentSize
+    ) {
+        this.pool = pool;
+        this.rootElement = rootElement;
+        this.recordElement = recordElement;
+        this.maxDepth = maxDepth;
+        this.preserveNumberFormat = preserveNumberFormat;
+        this.tags = tags;
+        this.limits = limits;
+        this.minSegmentSize = minSegmentSize;
+        this.openLength = ('<' + rootElement + '>').getBytes(StandardCharsets.UTF_8).length;
+        this.closeLength = openLength + 1;
+    }
+
+    /**
+     * @param parallelism the number of threads of the pool, when it is first created.
+     * @return the pool shared by all the policies.
+     */
+    public static ForkJoinPool getDefaultPool(int parallelism) {
+        ForkJoinPool pool = defaultPool;
+        if (pool == null) {
+            synchronized (JsonToXmlForkJoinTranscoder.class) {
+                pool = defaultPool;
+                if (pool == null) {
+                    pool = new ForkJoinPool(Math.max(1, parallelism));
+                    defaultPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Shut down the pool shared by all the policies, if any. It is created again by the next call to
+     * {@link #getDefaultPool(int)}.
+     */
+    public static void shutdownDefaultPool() {
+        final ForkJoinPool pool;
+        synchronized (JsonToXmlForkJoinTranscoder.class) {
+            pool = defaultPool;
+            defaultPool = null;
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Transcode a JSON payload on the threads of the pool, the calling thread waiting for the stitched XML.
+     *
+     * @param json the JSON payload, whose remaining bytes are read without moving its position.
+     * @param charset the charset of the payload, which must be readable as bytes.
+     * @param output the sink of the XML.
+     * @return the statistics of the XML, or null when the payload is left to the serial transcoder, nothing having
+     * been written to the output.
+     * @throws TranscodingLimitException If a segment, or the whole XML, exceeds one of the limits.
+     * @throws IllegalArgumentException If a segment is nested too deeply.
+     */
+    public TranscodingStatistics transcode(ByteBuffer json, Charset charset, Utf8ByteSink output) {
+        if (!json.hasArray() || !JSONByteTokener.isByteReadable(charset) || CONTENT.equals(rootElement)) {
+            return null;
+        }
+        final int offset = json.arrayOffset() + json.position();
+        final Segment[] segments = split(json.array(), offset, offset + json.remaining(), charset);
+        if (segments == null) {
+            return null;
+        }
+        // The XML of each segment starts with the open tag of its own root element, which is dropped when it is stitched.
+        final AtomicLong outputSize = limits.getMaxOutputSize() > 0
+            ? new AtomicLong(openLength + closeLength - (long) segments.length * openLength)
+            : null;
+        try {
+            pool.invoke(new SegmentTask(segments, 0, segments.length, outputSize));
+        } catch (RejectedExecutionException e) {
+            // The pool has been shut down.
+            return null;
+        }
+        // Each segment is enclosed into its own root element, which is dropped when it is stitched.
+        long size = openLength + closeLength;
+        for (Segment segment : segments) {
+            if (segment.failure != null) {
+                // The first failure is the one the serial transcoder would have met.
+                if (segment.output.exceeded) {
+                    // The XML of the segments before, and of this one until it stopped, is too large on its own.
+                    if (size - closeLength + segment.output.checked - openLength > limits.getMaxOutputSize()) {
+                        throw segment.failure;
+                    }
+                    // The serial transcoder could fail otherwise before the XML gets too large.
+                    return null;
+                }
+                if (isLimitFailure(segment.failure)) {
+                    throw segment.failure;
+                }
+                return null;
+            }
+            size += segment.xml.writeIndex() - openLength - closeLength;
+        }
+
+        int elementCount = 1;
+        int depth = 1;
+        for (Segment segment : segments) {
+            elementCount += segment.elementCount - 1;
+            depth = Math.max(depth, segment.depth);
+        }
+        limits.checkElementCount(elementCount);
+        limits.checkOutputSize(size);
+        tags.open(rootElement, output);
+        for (Segment segment : segments) {
+            output.write(segment.xml.array(), openLength, segment.xml.writeIndex() - openLength - closeLength);
+        }
+        tags.close(rootElement, output);
+        return TranscodingStatistics.of(elementCount, depth);
+    }
+
+    private static boolean isLimitFailure(RuntimeException failure) {
+        return (
+            failure instanceof TranscodingLimitException ||
+            (failure instanceof IllegalArgumentException && JSONTokener.MAX_DEPTH_EXCEEDED.equals(failure.getMessage()))
+        );
+    }
+
+    /**
+     * Cut a payload into segments.
+     *
+     * @return the segments, or null when the payload cannot be split, or is not worth splitting.
+     */
+    private Segment[] split(byte[] bytes, int from, int to, Charset charset) {
+        final Scanner scanner = new Scanner(bytes, to, charset);
+        final int segmentSize = Math.max(minSegmentSize, (to - from) / (pool.getParallelism() * SEGMENTS_PER_THREAD));
+        final int start = scanner.skipBlanks(from);
+        final List<Segment> segments = new ArrayList<>();
+        final boolean split;
+        if (start < to && bytes[start] == '{') {
+            split = splitMembers(scanner, start + 1, segmentSize, segments);
+        } else if (start < to && bytes[start] == '[' && recordElement != null) {
+            split = splitValues(scanner, start + 1, segmentSize, ARRAY_START, ARRAY_END, segments);
+        } else {
+            split = false;
+        }
+        return split && segments.size() > 1 ? segments.toArray(new Segment[0]) : null;
+    }
+
+    /**
+     * Cut the members of the root object into segments, from the first member to the closing brace. The values of a
+     * large array member are cut into segments of their own.
+     */
+    private boolean splitMembers(Scanner scanner, int from, int segmentSize, List<Segment> segments) {
+        final byte[] bytes = scanner.bytes;
+        final Set<String> keys = new HashSet<>();
+        int start = from;
+        int startArrays = scanner.emptyArrays;
+        int i = from;
+        for (;;) {
+            final int member = scanner.skipBlanks(i);
+            final String key = scanner.key(member);
+            if (key == null || !keys.add(key)) {
+                return false;
+            }
+            final int colon = scanner.skipBlanks(scanner.skipString(member));
+            if (colon >= scanner.to || bytes[colon] != ':') {
+                return false;
+            }
+            final int value = scanner.skipBlanks(colon + 1);
+            final int valueArrays = scanner.emptyArrays;
+            final int valueEnd = scanner.skipValue(value);
+            if (valueEnd < 0) {
+                return false;
+            }
+            final int next = scanner.skipBlanks(valueEnd);
+            if (next >= scanner.to || (bytes[next] != ',' && bytes[next] != '}')) {
+                return false;
+            }
+            if (bytes[value] == '[' && valueEnd - value >= segmentSize && !scanner.isNext(value, ']') && !CONTENT.equals(key)) {
+                if (start < i) {
+                    segments.add(new Segment(OBJECT_START, bytes, start, i - 1, OBJECT_END, scanner.charset, startArrays));
+                }
+                // The values of the array are enclosed into an object holding the array alone.
+                final String prefix = "{\"" + key + "\":[";
+                scanner.emptyArrays = valueArrays;
+                if (!splitValues(scanner, value + 1, segmentSize, prefix, ARRAY_MEMBER_END, segments)) {
+                    return false;
+                }
+                start = next + 1;
+                startArrays = scanner.emptyArrays;
+            } else if (bytes[next] == '}' || next - start >= segmentSize) {
+                segments.add(new Segment(OBJECT_START, bytes, start, next, OBJECT_END, scanner.charset, startArrays));
+                start = next + 1;
+                startArrays = scanner.emptyArrays;
+            }
+            if (bytes[next] == '}') {
+                return limits.getMaxKeysPerObject() <= 0 || keys.size() <= limits.getMaxKeysPerObject();
+            }
+            i = next + 1;
+        }
+    }
+
+    /**
+     * Cut the values of an array into segments, from the first value to the closing bracket.
+     */
+    private boolean splitValues(Scanner scanner, int from, int segmentSize, String prefix, String suffix, List<Segment> segments) {
+        final byte[] bytes = scanner.bytes;
+        int start = from;
+        int startArrays = scanner.emptyArrays;
+        int i = from;
+        for (;;) {
+            final int valueEnd = scanner.skipValue(scanner.skipBlanks(i));
+            if (valueEnd < 0) {
+                return false;
+            }
+            final int next = scanner.skipBlanks(valueEnd);
+            if (next >= scanner.to || (bytes[next] != ',' && bytes[next] != ']')) {
+                return false;
+            }
+            if (bytes[next] == ']' || next - start >= segmentSize) {
+                segments.add(new Segment(prefix, bytes, start, next, suffix, scanner.charset, startArrays));
+                start = next + 1;
+                startArrays = scanner.emptyArrays;
+            }
+            if (bytes[next] == ']') {
+                return true;
+            }
+            i = next + 1;
+        }
+    }
+
+    /**
+     * Finds the boundaries of the values of a payload, refusing anything but the standard JSON syntax.
+     */
+    private static final class Scanner {
+
+        private final byte[] bytes;
+        private final int to;
+        private final Charset charset;
+
+        /**
+         * The number of empty arrays skipped, which the tokener counts as nested arrays until the end of the payload.
+         */
+        private int emptyArrays;
+
+        private Scanner(byte[] bytes, int to, Charset charset) {
+            this.bytes = bytes;
+            this.to = to;
+            this.charset = charset;
+        }
+
+        /**
+         * @return the index of the first byte which is not blank, from the given index.
+         */
+        int skipBlanks(int i) {
+            while (i < to && bytes[i] > 0 && bytes[i] <= ' ') {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * @return the index following the value starting at the given index, or -1 when it is not a standard value.
+         */
+        int skipValue(int i) {
+            if (i >= to) {
+                return -1;
+            }
+            final byte b = bytes[i];
+            if (b == '"') {
+                return skipString(i);
+            }
+            if (b == '{' || b == '[') {
+                int depth = 0;
+                while (i < to) {
+                    final byte c = bytes[i];
+                    if (c == '"') {
+                        i = skipString(i);
+                        if (i < 0) {
+                            return -1;
+                        }
+                        continue;
+                    }
+                    if (c == '{' || c == '[') {
+                        depth++;
+                        if (c == '[' && isNext(i, ']')) {
+                            emptyArrays++;
+                        }
+                    } else if (c == '}' || c == ']') {
+                        if (--depth == 0) {
+                            return i + 1;
+                        }
+                    } else if (c == ',') {
+                        // The tokener would not count out the object or the array ended by a trailing comma.
+                        if (isNext(i, '}') || isNext(i, ']')) {
+                            return -1;
+                        }
+                    } else if (c != ':' && !(c > 0 && c <= ' ') && !isScalar(c)) {
+                        return -1;
+                    }
+                    i++;
+                }
+                return -1;
+            }
+            final int start = i;
+            while (i < to && isScalar(bytes[i])) {
+                i++;
+            }
+            return i == start ? -1 : i;
+        }
+
+        /**
+         * @return true if the first byte which is not blank after the given index is the given character.
+         */
+        private boolean isNext(int i, char c) {
+            final int next = skipBlanks(i + 1);
+            return next < to && bytes[next] == c;
+        }
+
+        /**
+         * @return the index following the string starting at the given index, or -1 when it is not a string.
+         */
+        int skipString(int i) {
+            if (i >= to || bytes[i] != '"') {
+                return -1;
+            }
+            while (++i < to) {
+                switch (bytes[i]) {
+                    case '"':
+                        return i + 1;
+                    case '\\':
+                        i++;
+                        break;
+                    case 0:
+                    case '\n':
+                    case '\r':
+                        return -1;
+                    default:
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the key starting at the given index, or null when it is not a string written as it is read.
+         */
+        String key(int i) {
+            final int end = skipString(i);
+            if (end < 0) {
+                return null;
+            }
+            for (int j = i + 1; j < end - 1; j++) {
+                if (bytes[j] == '\\') {
+                    return null;
+                }
+            }
+            final String key = new String(bytes, i + 1, end - i - 2, charset);
+            // Bytes which are not valid in the charset could be read as the same key.
+            final byte[] encoded = key.getBytes(charset);
+            return Arrays.equals(encoded, 0, encoded.length, bytes, i + 1, end - 1) ? key : null;
+        }
+
+        private static boolean isScalar(byte b) {
+            return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '-' || b == '+' || b == '.';
+        }
+    }
+
+    /**
+     * A run of consecutive members or values, transcoded as a payload of its own. Its tokener starts with the empty
+     * arrays read before it, which the serial tokener would still count as nested arrays.
+     */
+    private final class Segment {
+
+        private final String prefix;
+        private final byte[] bytes;
+        private final int from;
+        private final int to;
+        private final String suffix;
+        private final Charset charset;
+        private final int emptyArrays;
+        private SegmentSink output;
+        private Utf8ByteSink xml;
+        private int elementCount;
+        private int depth;
+        private RuntimeException failure;
+
+        private Segment(String prefix, byte[] bytes, int from, int to, String suffix, Charset charset, int emptyArrays) {
+            this.prefix = prefix;
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+            this.suffix = suffix;
+            this.charset = charset;
+            this.emptyArrays = emptyArrays;
+        }
+
+        private void transcode(AtomicLong outputSize) {
+            // The members or values are enclosed into the brackets they were read from.
+            final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(
+                new JSONByteTokener(ByteBuffer.wrap(bytes, from, to - from), charset, maxDepth)
+                    .enclose(prefix, suffix)
+                    .limit(limits)
+                    .arrayDepth(emptyArrays),
+                preserveNumberFormat,
+                tags,
+                limits
+            );
+            output = new SegmentSink(prefix.length() + to - from + suffix.length(), outputSize);
+            try {
+                xml = transcoder.transcode(rootElement, recordElement, false, output);
+            } catch (RuntimeException e) {
+                failure = e;
+                return;
+            }
+            elementCount = transcoder.elementCount();
+            depth = transcoder.depth();
+        }
+    }
+
+    /**
+     * The XML of a segment, adding its size to the size of the XML of all the segments every
+     * {@link #OUTPUT_CHECK_INTERVAL} bytes, and failing once it exceeds the maximum output size.
+     */
+    private final class SegmentSink extends Utf8ByteSink {
+
+        private final AtomicLong outputSize;
+
+        /**
+         * The number of bytes added to the shared size.
+         */
+        private int checked;
+        private boolean exceeded;
+
+        private SegmentSink(int initialCapacity, AtomicLong outputSize) {
+            super(initialCapacity);
+            this.outputSize = outputSize;
+            limit(TranscodingLimits.NONE);
+        }
+
+        @Override
+        int checkedSize() {
+            return outputSize == null ? Integer.MAX_VALUE : checked + OUTPUT_CHECK_INTERVAL;
+        }
+
+        @Override
+        void checkOutputSize(int length) {
+            if (outputSize == null || length <= checked) {
+                return;
+            }
+            final long size = outputSize.addAndGet(length - checked);
+            checked = length;
+            if (size > limits.getMaxOutputSize()) {
+                exceeded = true;
+                limits.checkOutputSize(size);
+            }
+        }
+    }
+
+    private static final class SegmentTask extends RecursiveAction {
+
+        private final Segment[] segments;
+        private final int from;
+        private final int to;
+        private final AtomicLong outputSize;
+
+        private SegmentTask(Segment[] segments, int from, int to, AtomicLong outputSize) {
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+            this.outputSize = outputSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                segments[from].transcode(outputSize);
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new SegmentTask(segments, from, middle, outputSize), new SegmentTask(segments, middle, to, outputSize));
+        }
+    }
+}
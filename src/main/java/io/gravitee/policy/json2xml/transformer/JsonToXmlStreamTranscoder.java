@@ -0,0 +1,793 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Resumable JSON to XML transcoder fed with chunks of UTF-8 encoded JSON. Each chunk is converted as far as
+ * possible and the XML is written as soon as it is known, so that the document can be streamed without ever holding
+ * the whole JSON or the whole XML. The parser state lives in an explicit stack instead of the call stack, which lets
+ * it stop at the end of a chunk and resume with the next one.
+ *
+ * For standard JSON, the produced XML is the same as the one produced by the {@link JsonToXmlTranscoder}. The
+ * lenient forms accepted by the {@link JSONTokener} (single quotes, unquoted text, missing or trailing values) are
+ * rejected, and nesting is measured as the actual number of enclosing objects and arrays.
+ *
+ * The JSON can also be a top-level array, or a sequence of values separated by new lines (NDJSON), whose values are
+ * the records of the document. Once a record has been written, nothing is kept of it, so that an endless sequence of
+ * records is transformed with the memory needed by the largest one.
+ *
+ * @author GraviteeSource Team
+ */
+public class JsonToXmlStreamTranscoder implements TranscodingStatistics {
+
+    private static final String CONTENT = "content";
+    private static final String ARRAY = "array";
+    private static final String TRUE = "true";
+    private static final String FALSE = "false";
+    private static final String NULL = "null";
+
+    /** Before the root object, array or first record. */
+    private static final int ROOT = 0;
+    /** After '{', expecting a key or '}'. */
+    private static final int FIRST_MEMBER = 1;
+    /** After ',' in an object, expecting a key. */
+    private static final int MEMBER = 2;
+    /** Expecting the ':' following a key. */
+    private static final int COLON = 3;
+    /** Expecting a value. */
+    private static final int VALUE = 4;
+    /** After '[', expecting a value or ']'. */
+    private static final int FIRST_ELEMENT = 5;
+    /** In a key or value string. */
+    private static final int STRING = 6;
+    /** In a number, true, false or null. */
+    private static final int LITERAL = 7;
+    /** After a value, expecting ',' or the end of the enclosing object or array. */
+    private static final int AFTER_VALUE = 8;
+    /** Copying a nested value of a 'content' member, which is rendered as JSON text. */
+    private static final int CAPTURE = 9;
+    /** After the root object, the remaining input is ignored. */
+    private static final int DONE = 10;
+
+    private static final byte OBJECT = 0;
+    private static final byte ARRAY_FRAME = 1;
+
+    private final String rootElement;
+    private final int maxDepth;
+    private final boolean preserveNumberFormat;
+    private final TagCache tags;
+    private final TranscodingLimits limits;
+    private final String recordElement;
+    private final boolean delimited;
+
+    private int state = ROOT;
+    private long offset;
+    private long position;
+    private Appendable writer;
+
+    // The stack of open objects and arrays.
+    private int top = -1;
+    private byte[] frameTypes = new byte[16];
+    private String[] frameTags = new String[16];
+    private boolean[] frameMembers = new boolean[16];
+    private String[] frameWraps = new String[16];
+    private Object[] frameKeys = new Object[16];
+    private int objectDepth;
+    private int arrayDepth;
+
+    // The value being read.
+    private String key;
+    private boolean keyString;
+    private String valueTag;
+    private boolean escape;
+    private int unicode = -1;
+    private int unicodeValue;
+    private byte[] bytes = new byte[64];
+    private int bytesLength;
+    private final StringBuilder chars = new StringBuilder();
+
+    // Statistics about the written XML.
+    private int elementCount;
+    private int level;
+    private int depth;
+
+    /** The bytes of the number, true, false or null being read, all ASCII once validated. */
+    private final CharSequence literal = new CharSequence() {
+        @Override
+        public int length() {
+            return bytesLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, bytesLength, StandardCharsets.ISO_8859_1);
+        }
+    };
+
+    // The 'content' value being captured.
+    private byte captureType;
+    private int captureDepth;
+    private boolean captureString;
+    private boolean captureEscape;
+
+    public JsonToXmlStreamTranscoder(String rootElement, int maxDepth) {
+        this(rootElement, maxDepth, false);
+    }
+
+    /**
+     * @param rootElement The name of the root element.
+     * @param maxDepth The maximum number of nested objects or arrays, -1 for no limit.
+     * @param preserveNumberFormat true to write numbers as they are written in the JSON, instead of converting them.
+     */
+    public JsonToXmlStreamTranscoder(String rootElement, int maxDepth, boolean preserveNumberFormat) {
+        this(rootElement, maxDepth, preserveNumberFormat, TagCache.NONE);
+    }
+
+    /**
+     * @param rootElement The name of the root element.
+     * @param maxDepth The maximum number of nested objects or arrays, -1 for no limit.
+     * @param preserveNumberFormat true to write numbers as they are written in the JSON, instead of converting them.
+     * @param tags The cache of the encoded tags, written as bytes when the writer is a {@link Utf8ByteSink}.
+     */
+    public JsonToXmlStreamTranscoder(String rootElement, int maxDepth, boolean preserveNumberFormat, TagCache tags) {
+        this(rootElement, maxDepth, preserveNumberFormat, tags, TranscodingLimits.NONE);
+    }
+
+    /**
+     * @param rootElement The name of the root element.
+     * @param maxDepth The maximum number of nested objects or arrays, -1 for no limit.
+     * @param preserveNumberFormat true to write numbers as they are written in the JSON, instead of converting them.
+     * @param tags The cache of the encoded tags, written as bytes when the writer is a {@link Utf8ByteSink}.
+     * @param limits The limits of the size of the JSON, of the number of elements written, of the length of the
+     *               strings and of the number of keys of each object.
+     */
+    public JsonToXmlStreamTranscoder(
+        String rootElement,
+        int maxDepth,
+        boolean preserveNumberFormat,
+        TagCache tags,
+        TranscodingLimits limits
+    ) {
+        this(rootElement, maxDepth, preserveNumberFormat, tags, limits, null, false);
+    }
+
+    /**
+     * @param rootElement The name of the root element.
+     * @param maxDepth The maximum number of nested objects or arrays, -1 for no limit.
+     * @param preserveNumberFormat true to write numbers as they are written in the JSON, instead of converting them.
+     * @param tags The cache of the encoded tags, written as bytes when the writer is a {@link Utf8ByteSink}.
+     * @param limits The limits of the size of the JSON, of the number of elements written, of the length of the
+     *               strings and of the number of keys of each object.
+     * @param recordElement The name of the elements of the records of a top-level array or of a sequence, null to
+     *                      only accept an object.
+     * @param delimited true to read a sequence of values separated by new lines instead of a single object or array.
+     */
+    public JsonToXmlStreamTranscoder(
+        String rootElement,
+        int maxDepth,
+        boolean preserveNumberFormat,
+        TagCache tags,
+        TranscodingLimits limits,
+        String recordElement,
+        boolean delimited
+    ) {
+        if (rootElement == null || (delimited && recordElement == null)) {
+            throw new NullPointerException("Null key.");
+        }
+        this.rootElement = rootElement;
+        this.maxDepth = maxDepth;
+        this.preserveNumberFormat = preserveNumberFormat;
+        this.tags = tags;
+        this.limits = limits;
+        this.recordElement = recordElement;
+        this.delimited = delimited;
+    }
+
+    /**
+     * Convert a chunk of JSON and write the resulting XML.
+     *
+     * @param chunk UTF-8 encoded JSON.
+     * @param writer Writes the XML.
+     * @return The writer.
+     * @throws JSONException If there is a syntax error in the source, a duplicated key or too many nested values.
+     */
+    public <A extends Appendable> A write(byte[] chunk, A writer) throws JSONException {
+        return write(ByteBuffer.wrap(chunk), writer);
+    }
+
+    /**
+     * Convert the remaining bytes of a chunk of JSON and write the resulting XML. The position of the buffer is left
+     * untouched.
+     *
+     * @param chunk UTF-8 encoded JSON.
+     * @param writer Writes the XML.
+     * @return The writer.
+     * @throws JSONException If there is a syntax error in the source, a duplicated key or too many nested values.
+     * @throws TranscodingLimitException If the payload exceeds the limits of the transcoder.
+     */
+    public <A extends Appendable> A write(ByteBuffer chunk, A writer) throws JSONException {
+        this.writer = writer;
+        try {
+            limits.checkInputSize(offset + chunk.remaining());
+            for (int i = chunk.position(), limit = chunk.limit(); i < limit && state != DONE; i++) {
+                position = offset + i - chunk.position();
+                if (state == STRING) {
+                    i = string(chunk, i, limit);
+                } else if (state == CAPTURE) {
+                    i = capture(chunk, i, limit);
+                } else {
+                    next(chunk.get(i));
+                }
+            }
+            offset += chunk.remaining();
+            return writer;
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        } finally {
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Signal the end of the JSON.
+     *
+     * @param writer Writes the XML.
+     * @return The writer.
+     * @throws JSONException If the JSON is not complete.
+     */
+    public <A extends Appendable> A end(A writer) throws JSONException {
+        position = offset;
+        if (delimited && state != DONE) {
+            this.writer = writer;
+            try {
+                endRecords();
+            } catch (IOException exception) {
+                throw new JSONException(exception);
+            } finally {
+                this.writer = null;
+            }
+        }
+        if (state != DONE && (state != ROOT || offset > 0)) {
+            throw syntaxError(state == ROOT ? "A JSONObject text must begin with '{'" : "Unexpected end of JSON");
+        }
+        return writer;
+    }
+
+    /**
+     * @return true if the root object or array, or the sequence of records, has been read entirely.
+     */
+    public boolean isComplete() {
+        return state == DONE;
+    }
+
+    @Override
+    public int elementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public int depth() {
+        return depth;
+    }
+
+    private void next(byte b) throws IOException {
+        if (state == LITERAL) {
+            if (!isLiteralEnd(b)) {
+                appendByte(b);
+                limits.checkStringLength(bytesLength);
+                return;
+            }
+            literal();
+        }
+        if (b > 0 && b <= ' ') {
+            return;
+        }
+        switch (state) {
+            case ROOT:
+                if (delimited) {
+                    openTag(rootElement);
+                    push(ARRAY_FRAME, recordElement, true, null);
+                    value(b);
+                    return;
+                }
+                if (b == '[' && recordElement != null) {
+                    checkMaxDepth(arrayDepth++);
+                    openTag(rootElement);
+                    push(ARRAY_FRAME, recordElement, true, rootElement);
+                    state = FIRST_ELEMENT;
+                    return;
+                }
+                if (b != '{') {
+                    throw syntaxError("A JSONObject text must begin with '{'");
+                }
+                if (CONTENT.equals(rootElement)) {
+                    // A root named 'content' is rendered as escaped JSON text.
+                    startCapture(b);
+                } else {
+                    push(OBJECT, rootElement, false, null);
+                    state = FIRST_MEMBER;
+                }
+                return;
+            case FIRST_MEMBER:
+                if (b == '}') {
+                    closeObject();
+                    return;
+                }
+            // Fall through
+            case MEMBER:
+                if (b != '"') {
+                    throw syntaxError("Expected a key");
+                }
+                startString(true, null);
+                return;
+            case COLON:
+                if (b != ':') {
+                    throw syntaxError("Expected a ':' after a key");
+                }
+                state = VALUE;
+                return;
+            case FIRST_ELEMENT:
+                if (b == ']') {
+                    closeArray();
+                    return;
+                }
+            // Fall through
+            case VALUE:
+                value(b);
+                return;
+            case AFTER_VALUE:
+                if (delimited && top == 0) {
+                    // The records are only separated by blanks.
+                    value(b);
+                } else if (frameTypes[top] == OBJECT) {
+                    if (b == ',') {
+                        state = MEMBER;
+                    } else if (b == '}') {
+                        closeObject();
+                    } else {
+                        throw syntaxError("Expected a ',' or '}'");
+                    }
+                } else if (b == ',') {
+                    state = VALUE;
+                } else if (b == ']') {
+                    closeArray();
+                } else {
+                    throw syntaxError("Expected a ',' or ']'");
+                }
+                return;
+            default:
+                throw syntaxError("Unexpected character");
+        }
+    }
+
+    private void value(byte b) throws IOException {
+        final boolean member = frameTypes[top] == OBJECT;
+        final String tagName = member ? key : frameTags[top];
+        final boolean content = member && CONTENT.equals(key);
+
+        switch (b) {
+            case '"':
+                startString(false, content ? null : tagName);
+                return;
+            case '{':
+                checkMaxDepth(objectDepth++);
+                if (content) {
+                    startCapture(b);
+                } else {
+                    push(OBJECT, tagName, false, null);
+                    state = FIRST_MEMBER;
+                }
+                return;
+            case '[':
+                checkMaxDepth(arrayDepth++);
+                if (content) {
+                    startCapture(b);
+                } else if (member) {
+                    push(ARRAY_FRAME, tagName, true, null);
+                    state = FIRST_ELEMENT;
+                } else if (frameMembers[top]) {
+                    // Nested arrays of a member are enclosed into the member element and their items are named 'array'.
+                    openTag(tagName);
+                    push(ARRAY_FRAME, ARRAY, false, tagName);
+                    state = FIRST_ELEMENT;
+                } else {
+                    push(ARRAY_FRAME, tagName, false, null);
+                    state = FIRST_ELEMENT;
+                }
+                return;
+            default:
+                if (b == '-' || (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z')) {
+                    valueTag = content ? null : tagName;
+                    bytesLength = 0;
+                    appendByte(b);
+                    state = LITERAL;
+                    return;
+                }
+                throw syntaxError("Unexpected character");
+        }
+    }
+
+    private void startString(boolean key, String tagName) {
+        keyString = key;
+        valueTag = tagName;
+        escape = false;
+        unicode = -1;
+        bytesLength = 0;
+        chars.setLength(0);
+        state = STRING;
+    }
+
+    /**
+     * Read the bytes of a string from the given index, copying runs of plain bytes at once.
+     *
+     * @return the index of the last byte read.
+     */
+    private int string(ByteBuffer chunk, int from, int limit) throws IOException {
+        int i = from;
+        while (i < limit) {
+            byte b = chunk.get(i);
+            if (unicode >= 0) {
+                int digit = JSONTokener.dehexchar((char) b);
+                if (digit < 0) {
+                    throw syntaxError("Illegal escape.");
+                }
+                unicodeValue = (unicodeValue << 4) | digit;
+                if (++unicode == 4) {
+                    chars.append((char) unicodeValue);
+                    unicode = -1;
+                }
+            } else if (escape) {
+                escape(b);
+            } else if (b == '"') {
+                endString();
+                return i;
+            } else if (b == '\\') {
+                flushBytes();
+                escape = true;
+            } else if (b == '\n' || b == '\r' || b == 0) {
+                throw syntaxError("Unterminated string");
+            } else {
+                int run = i + 1;
+                while (run < limit) {
+                    byte c = chunk.get(run);
+                    if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                        break;
+                    }
+                    run++;
+                }
+                appendBytes(chunk, i, run);
+                i = run;
+                continue;
+            }
+            i++;
+        }
+        return limit - 1;
+    }
+
+    private void escape(byte b) {
+        escape = false;
+        switch (b) {
+            case 'b':
+                chars.append('\b');
+                break;
+            case 't':
+                chars.append('\t');
+                break;
+            case 'n':
+                chars.append('\n');
+                break;
+            case 'f':
+                chars.append('\f');
+                break;
+            case 'r':
+                chars.append('\r');
+                break;
+            case 'u':
+                unicode = 0;
+                unicodeValue = 0;
+                break;
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                chars.append((char) b);
+                break;
+            default:
+                throw syntaxError("Illegal escape.");
+        }
+    }
+
+    private void endString() throws IOException {
+        flushBytes();
+        limits.checkStringLength(chars.length());
+        final String string = chars.toString();
+        if (keyString) {
+            @SuppressWarnings("unchecked")
+            Set<String> keys = (Set<String>) frameKeys[top];
+            if (keys == null) {
+                keys = new HashSet<>();
+                frameKeys[top] = keys;
+            }
+            if (!keys.add(string)) {
+                throw new JSONException("Duplicate key \"" + string + "\"");
+            }
+            limits.checkKeyCount(keys.size());
+            key = string;
+            state = COLON;
+        } else {
+            scalar(string);
+            state = AFTER_VALUE;
+        }
+    }
+
+    private void literal() throws IOException {
+        final String constant = literalConstant();
+        if (constant == null && !JSONObject.isNumber(literal)) {
+            throw syntaxError("Invalid value '" + literal + "'");
+        }
+        if (constant != null) {
+            scalar(constant);
+        } else if (preserveNumberFormat) {
+            number();
+        } else {
+            scalar(JSONObject.stringToValue(literal.toString()).toString());
+        }
+        state = AFTER_VALUE;
+    }
+
+    private String literalConstant() {
+        if (TRUE.contentEquals(literal)) {
+            return TRUE;
+        } else if (FALSE.contentEquals(literal)) {
+            return FALSE;
+        } else if (NULL.contentEquals(literal)) {
+            return NULL;
+        }
+        return null;
+    }
+
+    /**
+     * Write a number as it is written in the JSON, straight from its bytes.
+     */
+    private void number() throws IOException {
+        if (valueTag != null) {
+            openTag(valueTag);
+        }
+        if (writer instanceof Utf8ByteSink) {
+            ((Utf8ByteSink) writer).write(bytes, 0, bytesLength);
+        } else {
+            for (int i = 0; i < bytesLength; i++) {
+                writer.append((char) bytes[i]);
+            }
+        }
+        if (valueTag != null) {
+            closeTag(valueTag);
+        }
+    }
+
+    private void scalar(String string) throws IOException {
+        if (valueTag == null) {
+            XML.escape(string, writer);
+        } else if (string.isEmpty()) {
+            emptyTag(valueTag);
+        } else {
+            openTag(valueTag);
+            XML.escape(string, writer);
+            closeTag(valueTag);
+        }
+    }
+
+    /**
+     * Close the sequence of records at the end of the JSON, writing the root element of an empty one. Nothing is written
+     * for an empty body, which is left as it is.
+     */
+    private void endRecords() throws IOException {
+        if (state == LITERAL && top == 0) {
+            // The last record is a number, true, false or null not followed by a new line.
+            literal();
+        }
+        if (state == ROOT && offset > 0) {
+            openTag(rootElement);
+            closeTag(rootElement);
+            state = DONE;
+        } else if (state == AFTER_VALUE && top == 0) {
+            closeTag(rootElement);
+            pop();
+        }
+    }
+
+    private void startCapture(byte b) {
+        captureType = b == '{' ? OBJECT : ARRAY_FRAME;
+        captureDepth = 1;
+        captureString = false;
+        captureEscape = false;
+        bytesLength = 0;
+        appendByte(b);
+        state = CAPTURE;
+    }
+
+    /**
+     * Copy the bytes of a 'content' value until its end, then render it as escaped JSON text.
+     *
+     * @return the index of the last byte read.
+     */
+    private int capture(ByteBuffer chunk, int from, int limit) throws IOException {
+        for (int i = from; i < limit; i++) {
+            byte b = chunk.get(i);
+            appendByte(b);
+            if (captureString) {
+                if (captureEscape) {
+                    captureEscape = false;
+                } else if (b == '\\') {
+                    captureEscape = true;
+                } else if (b == '"') {
+                    captureString = false;
+                }
+            } else if (b == '"') {
+                captureString = true;
+            } else if (b == '{' || b == '[') {
+                captureDepth++;
+            } else if ((b == '}' || b == ']') && --captureDepth == 0) {
+                endCapture();
+                return i;
+            }
+        }
+        return limit - 1;
+    }
+
+    private void endCapture() throws IOException {
+        final JSONByteTokener x = new JSONByteTokener(ByteBuffer.wrap(bytes, 0, bytesLength), maxDepth);
+        x.limit(limits);
+        for (int i = 0; i < objectDepth; i++) {
+            x.incrementObjectDepth();
+        }
+        for (int i = 0; i < arrayDepth; i++) {
+            x.incrementArrayDepth();
+        }
+        new JsonToXmlTranscoder(x, false, TagCache.NONE, limits).transcodeContent(writer);
+        if (captureType == OBJECT) {
+            objectDepth--;
+        } else {
+            arrayDepth--;
+        }
+        state = top < 0 ? DONE : AFTER_VALUE;
+    }
+
+    private void push(byte type, String tagName, boolean member, String wrap) throws IOException {
+        if (++top == frameTypes.length) {
+            int length = frameTypes.length << 1;
+            frameTypes = Arrays.copyOf(frameTypes, length);
+            frameTags = Arrays.copyOf(frameTags, length);
+            frameMembers = Arrays.copyOf(frameMembers, length);
+            frameWraps = Arrays.copyOf(frameWraps, length);
+            frameKeys = Arrays.copyOf(frameKeys, length);
+        }
+        frameTypes[top] = type;
+        frameTags[top] = tagName;
+        frameMembers[top] = member;
+        frameWraps[top] = wrap;
+        frameKeys[top] = null;
+        if (type == OBJECT) {
+            openTag(tagName);
+        }
+    }
+
+    private void closeObject() throws IOException {
+        closeTag(frameTags[top]);
+        if (top > 0) {
+            objectDepth--;
+        }
+        pop();
+    }
+
+    private void closeArray() throws IOException {
+        if (frameWraps[top] != null) {
+            closeTag(frameWraps[top]);
+        }
+        arrayDepth--;
+        pop();
+    }
+
+    private void pop() {
+        frameTags[top] = null;
+        frameWraps[top] = null;
+        frameKeys[top] = null;
+        top--;
+        state = top < 0 ? DONE : AFTER_VALUE;
+    }
+
+    private void checkMaxDepth(int depth) {
+        if (depth > this.maxDepth && this.maxDepth > -1) {
+            throw new IllegalArgumentException(JSONTokener.MAX_DEPTH_EXCEEDED);
+        }
+    }
+
+    private void openTag(String tagName) throws IOException {
+        limits.checkElementCount(++elementCount);
+        tags.open(tagName, writer);
+        if (++level > depth) {
+            depth = level;
+        }
+    }
+
+    private void closeTag(String tagName) throws IOException {
+        tags.close(tagName, writer);
+        level--;
+    }
+
+    private void emptyTag(String tagName) throws IOException {
+        limits.checkElementCount(++elementCount);
+        tags.empty(tagName, writer);
+        if (level + 1 > depth) {
+            depth = level + 1;
+        }
+    }
+
+    private void appendByte(byte b) {
+        if (bytesLength == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytesLength << 1);
+        }
+        bytes[bytesLength++] = b;
+    }
+
+    private void appendBytes(ByteBuffer chunk, int from, int to) {
+        int length = to - from;
+        if (bytesLength + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, bytesLength + length));
+        }
+        chunk.get(from, bytes, bytesLength, length);
+        bytesLength += length;
+
+        // A character takes at most 3 bytes, the string is at least that long once decoded.
+        limits.checkStringLength(chars.length() + bytesLength / 3);
+    }
+
+    /**
+     * Decode the pending bytes of a string. They always end before an ASCII character, so the decoding is the same
+     * as the one of the whole string.
+     */
+    private void flushBytes() {
+        if (bytesLength > 0) {
+            chars.append(new String(bytes, 0, bytesLength, StandardCharsets.UTF_8));
+            bytesLength = 0;
+        }
+    }
+
+    private static boolean isLiteralEnd(byte b) {
+        return (b >= 0 && b <= ' ') || b == ',' || b == ']' || b == '}' || b == ':' || b == '"' || b == '[' || b == '{';
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at " + position);
+    }
+}
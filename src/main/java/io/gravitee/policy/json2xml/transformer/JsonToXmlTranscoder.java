@@ -0,0 +1,787 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Single-pass JSON to XML transcoder. Tokens are pulled from a {@link JSONTokener} and turned into XML as soon as
+ * they are read, without building any intermediate {@link JSONObject} or {@link JSONArray} tree.
+ *
+ * The produced XML is the same as <code>XML.toString(new JSONObject().append(rootElement, new JSONObject(x)))</code>,
+ * including the lenient parsing rules, the duplicate key detection and the depth limit of the {@link JSONTokener}.
+ * Numbers can also be written as they are written in the JSON instead, without being converted.
+ *
+ * A payload can also be read as a sequence of records: a top-level array, or JSON values separated by new lines
+ * (NDJSON). Each record is written as a child of the root element, as the values of a member named after the records
+ * would be, so that only the record being read is ever held by the transcoder.
+ *
+ * The objects and arrays being read are kept on an explicit stack of frames instead of the call stack, so that the
+ * nesting of a payload is only bounded by the max depth of the tokener, and never by the size of the thread stack.
+ *
+ * @author GraviteeSource Team
+ */
+public class JsonToXmlTranscoder implements TranscodingStatistics {
+
+    private static final String CONTENT = "content";
+    private static final String ARRAY = "array";
+
+    private static final int INITIAL_STACK_SIZE = 16;
+
+    // The kinds of frame.
+
+    /** An object written as an element. */
+    private static final byte OBJECT = 0;
+    /** An array whose values are written as elements named after the array. */
+    private static final byte ELEMENTS = 1;
+    /** The value of a 'content' member being rendered as JSON text, escaped into the enclosing element once read. */
+    private static final byte CONTENT_TEXT = 2;
+    /** A 'content' array whose values are rendered as text separated by new lines, escaped once read. */
+    private static final byte CONTENT_ARRAY = 3;
+    /** An object or an array used as a key, rendered as JSON text. */
+    private static final byte KEY_TEXT = 4;
+    /** An object rendered as JSON text. */
+    private static final byte TEXT_OBJECT = 5;
+    /** An array rendered as JSON text. */
+    private static final byte TEXT_ARRAY = 6;
+    /** A sequence of records separated by new lines, ending with the payload. */
+    private static final byte RECORDS = 7;
+
+    // The phases of a frame.
+
+    /** The opening character has been read, a first key or value is expected. */
+    private static final byte START = 0;
+    /** A key has been read, ':' and a value are expected. */
+    private static final byte KEY = 1;
+    /** A value has been read, a separator or the closing character is expected. */
+    private static final byte VALUE = 2;
+    /** A nested array has been read, the element enclosing it must be closed before going on. */
+    private static final byte NESTED_ARRAY = 3;
+
+    private final JSONTokener x;
+    private final boolean preserveNumberFormat;
+    private final TagCache tags;
+    private final TranscodingLimits limits;
+    private Appendable writer;
+
+    // The stack of frames, one for each object or array being read.
+    private int top = -1;
+    private byte[] kinds = new byte[INITIAL_STACK_SIZE];
+    private byte[] phases = new byte[INITIAL_STACK_SIZE];
+    private String[] names = new String[INITIAL_STACK_SIZE];
+    @SuppressWarnings("unchecked")
+    private Set<String>[] keys = new Set[INITIAL_STACK_SIZE];
+    private int[] counts = new int[INITIAL_STACK_SIZE];
+    private int[] marks = new int[INITIAL_STACK_SIZE];
+    private boolean[] members = new boolean[INITIAL_STACK_SIZE];
+
+    /** The last key read. */
+    private String key;
+
+    /** The JSON text of the 'content' values and of the keys being read, created on first use. */
+    private StringBuilder text;
+
+    // Statistics about the written XML.
+    private int elementCount;
+    private int level;
+    private int depth;
+
+    public JsonToXmlTranscoder(JSONTokener x) {
+        this(x, false);
+    }
+
+    /**
+     * @param x The tokener to read the JSON from.
+     * @param preserveNumberFormat true to write numbers as they are written in the JSON, so that <code>1.10</code>
+     *                             stays <code>1.10</code> instead of becoming <code>1.1</code>.
+     */
+    public JsonToXmlTranscoder(JSONTokener x, boolean preserveNumberFormat) {
+        this(x, preserveNumberFormat, TagCache.NONE);
+    }
+
+    /**
+     * @param x The tokener to read the JSON from.
+     * @param preserveNumberFormat true to write numbers as they are written in the JSON.
+     * @param tags The cache of the encoded tags, written as bytes when the writer is a {@link Utf8ByteSink}.
+     */
+    public JsonToXmlTranscoder(JSONTokener x, boolean preserveNumberFormat, TagCache tags) {
+        this(x, preserveNumberFormat, tags, TranscodingLimits.NONE);
+    }
+
+    /**
+     * @param x The tokener to read the JSON from, limiting the length of the strings itself.
+     * @param preserveNumberFormat true to write numbers as they are written in the JSON.
+     * @param tags The cache of the encoded tags, written as bytes when the writer is a {@link Utf8ByteSink}.
+     * @param limits The limits of the number of elements written and of the number of keys of each object.
+     */
+    public JsonToXmlTranscoder(JSONTokener x, boolean preserveNumberFormat, TagCache tags, TranscodingLimits limits) {
+        this.x = x;
+        this.preserveNumberFormat = preserveNumberFormat;
+        this.tags = tags;
+        this.limits = limits;
+    }
+
+    /**
+     * Read the JSON object from the tokener and convert it into an XML document enclosed into the given root element.
+     *
+     * @param rootElement The name of the root element.
+     * @return The XML document.
+     * @throws JSONException If there is a syntax error in the source, a duplicated key or too many nested values.
+     * @throws TranscodingLimitException If the payload exceeds the limits of the transcoder.
+     */
+    public String transcode(String rootElement) throws JSONException {
+        return transcode(rootElement, new StringBuilder()).toString();
+    }
+
+    /**
+     * Read the JSON object from the tokener and write it as an XML document enclosed into the given root element.
+     * The whole document is written to the given appendable as the JSON is read.
+     *
+     * @param rootElement The name of the root element.
+     * @param writer Writes the XML document.
+     * @return The writer.
+     * @throws JSONException If there is a syntax error in the source, a duplicated key or too many nested values.
+     * @throws TranscodingLimitException If the payload exceeds the limits of the transcoder.
+     */
+    public <A extends Appendable> A transcode(String rootElement, A writer) throws JSONException {
+        return transcode(rootElement, null, false, writer);
+    }
+
+    /**
+     * Read a JSON object, a JSON array or a sequence of JSON values from the tokener and write it as an XML document
+     * enclosed into the given root element. The values of an array, or of a sequence, are the records of the
+     * document: each one is written as an element named after the records, exactly as
+     * <code>{"record": [...]}</code> would be.
+     *
+     * @param rootElement The name of the root element.
+     * @param recordElement The name of the elements of the records, null to only accept an object.
+     * @param delimited true to read a sequence of values separated by new lines instead of a single object or array.
+     * @param writer Writes the XML document.
+     * @return The writer.
+     * @throws JSONException If there is a syntax error in the source, a duplicated key or too many nested values.
+     * @throws TranscodingLimitException If the payload exceeds the limits of the transcoder.
+     */
+    public <A extends Appendable> A transcode(String rootElement, String recordElement, boolean delimited, A writer)
+        throws JSONException {
+        if (rootElement == null || (delimited && recordElement == null)) {
+            throw new NullPointerException("Null key.");
+        }
+        this.writer = writer;
+        try {
+            if (delimited) {
+                openTag(rootElement);
+                push(RECORDS, recordElement);
+                run();
+                closeTag(rootElement);
+                return writer;
+            }
+            final char c = x.nextClean();
+            if (c == '[' && recordElement != null) {
+                x.incrementArrayDepth();
+                openTag(rootElement);
+                push(ELEMENTS, recordElement);
+                members[top] = true;
+                run();
+                closeTag(rootElement);
+                return writer;
+            }
+            if (c != '{') {
+                throw x.syntaxError("A JSONObject text must begin with '{'");
+            }
+            if (CONTENT.equals(rootElement)) {
+                // A root named 'content' is rendered as escaped JSON text.
+                contentText();
+            } else {
+                openTag(rootElement);
+                push(OBJECT, rootElement);
+            }
+            run();
+            return writer;
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        } finally {
+            this.writer = null;
+            clear();
+        }
+    }
+
+    /**
+     * Read an object or an array from the tokener and write it as the value of a 'content' member would be written:
+     * as escaped JSON text, the values of an array being separated by new lines. The depth of the tokener must have
+     * already been incremented for the value itself.
+     *
+     * @param writer Writes the escaped text.
+     * @throws JSONException If there is a syntax error in the source, a duplicated key or too many nested values.
+     */
+    void transcodeContent(Appendable writer) throws JSONException {
+        this.writer = writer;
+        try {
+            switch (x.nextClean()) {
+                case '{':
+                    contentText();
+                    break;
+                case '[':
+                    contentArray();
+                    break;
+                default:
+                    throw x.syntaxError("A JSONObject text must begin with '{'");
+            }
+            run();
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        } finally {
+            this.writer = null;
+            clear();
+        }
+    }
+
+    @Override
+    public int elementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Move the frame on top of the stack forward until the stack is empty.
+     */
+    private void run() throws JSONException, IOException {
+        while (top >= 0) {
+            switch (kinds[top]) {
+                case OBJECT:
+                    object();
+                    break;
+                case ELEMENTS:
+                    elements();
+                    break;
+                case RECORDS:
+                    records();
+                    break;
+                case TEXT_OBJECT:
+                    textObject();
+                    break;
+                case TEXT_ARRAY:
+                case CONTENT_ARRAY:
+                    textArray();
+                    break;
+                case CONTENT_TEXT:
+                    // The JSON text of the value has been rendered.
+                    escapeText();
+                    pop();
+                    break;
+                default:
+                    // The JSON text of the key has been rendered.
+                    key = text.substring(marks[top]);
+                    text.setLength(marks[top]);
+                    pop();
+            }
+        }
+    }
+
+    /**
+     * Convert the next member of an object, or close it.
+     */
+    private void object() throws JSONException, IOException {
+        if (phases[top] == KEY) {
+            // The key is followed by ':'.
+
+            if (x.nextClean() != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+            if (!keys().add(key)) {
+                throw new JSONException("Duplicate key \"" + key + "\"");
+            }
+            limits.checkKeyCount(keys[top].size());
+            phases[top] = VALUE;
+            member(key);
+            return;
+        }
+        if (phases[top] == VALUE) {
+            // Pairs are separated by ','.
+
+            switch (x.nextClean()) {
+                case ';':
+                case ',':
+                    if (x.nextClean() == '}') {
+                        closeTag(names[top]);
+                        pop();
+                        return;
+                    }
+                    x.back();
+                    break;
+                case '}':
+                    x.decrementObjectDepth();
+                    closeTag(names[top]);
+                    pop();
+                    return;
+                default:
+                    throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+        final char c = x.nextClean();
+        switch (c) {
+            case 0:
+                throw x.syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                x.decrementObjectDepth();
+                closeTag(names[top]);
+                pop();
+                return;
+            default:
+                phases[top] = KEY;
+                key(c);
+        }
+    }
+
+    /**
+     * Convert the value of an object member.
+     */
+    private void member(String key) throws JSONException, IOException {
+        char c = x.nextClean();
+        if (CONTENT.equals(key)) {
+            content(c);
+        } else if (c == '[') {
+            x.incrementArrayDepth();
+            push(ELEMENTS, key);
+            members[top] = true;
+        } else {
+            value(c, key);
+        }
+    }
+
+    /**
+     * Convert a value into an element, arrays being flattened into a sequence of elements with the same name.
+     */
+    private void value(char c, String tagName) throws JSONException, IOException {
+        switch (c) {
+            case '"':
+            case '\'':
+                scalar(tagName, x.nextString(c));
+                return;
+            case '{':
+                x.incrementObjectDepth();
+                openTag(tagName);
+                push(OBJECT, tagName);
+                return;
+            case '[':
+                x.incrementArrayDepth();
+                push(ELEMENTS, tagName);
+                return;
+            default:
+                scalar(tagName, simpleValue(c));
+        }
+    }
+
+    /**
+     * Convert the next value of an array, or close it. When the array is the value of an object member, nested
+     * arrays are enclosed into the member element and their items are named 'array'.
+     */
+    private void elements() throws JSONException, IOException {
+        char c;
+        if (phases[top] == START) {
+            c = x.nextClean();
+            if (c == ']') {
+                pop();
+                return;
+            }
+        } else {
+            if (phases[top] == NESTED_ARRAY) {
+                closeTag(names[top]);
+            }
+            switch (x.nextClean()) {
+                case ',':
+                    if (x.nextClean() == ']') {
+                        pop();
+                        return;
+                    }
+                    x.back();
+                    break;
+                case ']':
+                    x.decrementArrayDepth();
+                    pop();
+                    return;
+                default:
+                    throw x.syntaxError("Expected a ',' or ']'");
+            }
+            c = x.nextClean();
+        }
+
+        final String tagName = names[top];
+        phases[top] = VALUE;
+        if (c == ',') {
+            x.back();
+            scalar(tagName, JSONObject.NULL.toString());
+        } else if (c == '[' && members[top]) {
+            x.incrementArrayDepth();
+            phases[top] = NESTED_ARRAY;
+            openTag(tagName);
+            push(ELEMENTS, ARRAY);
+        } else {
+            value(c, tagName);
+        }
+    }
+
+    /**
+     * Convert the next record of a sequence, or close it at the end of the payload. Like the values of a member
+     * array, a record which is an array is enclosed into a record element and its items are named 'array'.
+     */
+    private void records() throws JSONException, IOException {
+        if (phases[top] == NESTED_ARRAY) {
+            closeTag(names[top]);
+        }
+        final char c = x.nextClean();
+        if (c == 0) {
+            pop();
+            return;
+        }
+        final String tagName = names[top];
+        phases[top] = VALUE;
+        if (c == '[') {
+            x.incrementArrayDepth();
+            phases[top] = NESTED_ARRAY;
+            openTag(tagName);
+            push(ELEMENTS, ARRAY);
+        } else {
+            value(c, tagName);
+        }
+    }
+
+    /**
+     * Convert the value of a 'content' member into escaped text. Nested values are rendered as JSON text, values of
+     * an array being separated by new lines.
+     */
+    private void content(char c) throws JSONException, IOException {
+        switch (c) {
+            case '"':
+            case '\'':
+                XML.escape(x.nextString(c), writer);
+                return;
+            case '{':
+                x.incrementObjectDepth();
+                contentText();
+                return;
+            case '[':
+                x.incrementArrayDepth();
+                contentArray();
+                return;
+            default:
+                XML.escape(simpleValue(c), writer);
+        }
+    }
+
+    /**
+     * Start rendering a 'content' object, whose opening brace has already been consumed, as JSON text.
+     */
+    private void contentText() {
+        push(CONTENT_TEXT, null);
+        marks[top] = text().length();
+        push(TEXT_OBJECT, null);
+        text.append('{');
+    }
+
+    /**
+     * Start rendering a 'content' array, whose opening bracket has already been consumed, as lines of text.
+     */
+    private void contentArray() {
+        push(CONTENT_ARRAY, null);
+        marks[top] = text().length();
+    }
+
+    /**
+     * Read the key of a member, starting with the given character. A key which is an object or an array is
+     * rendered as JSON text.
+     */
+    private void key(char c) throws JSONException {
+        switch (c) {
+            case '"':
+            case '\'':
+                key = x.nextString(c);
+                return;
+            case '{':
+            case '[':
+                push(KEY_TEXT, null);
+                marks[top] = text().length();
+                textValue(c, false);
+                return;
+            default:
+                key = JSONObject.stringToValue(x.nextSimpleText(c)).toString();
+        }
+    }
+
+    /**
+     * Render the next member of an object as JSON text, or close it. Like {@link JSONObject}, a duplicate key is
+     * detected once its value has been read.
+     */
+    private void textObject() throws JSONException {
+        if (phases[top] == KEY) {
+            if (x.nextClean() != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+            phases[top] = VALUE;
+            names[top] = key;
+            if (counts[top]++ > 0) {
+                text.append(',');
+            }
+            text.append(JSONObject.quote(key));
+            text.append(':');
+            textValue(x.nextClean(), false);
+            return;
+        }
+        if (phases[top] == VALUE) {
+            if (!keys().add(names[top])) {
+                throw new JSONException("Duplicate key \"" + names[top] + "\"");
+            }
+            limits.checkKeyCount(keys[top].size());
+
+            // Pairs are separated by ','.
+
+            switch (x.nextClean()) {
+                case ';':
+                case ',':
+                    if (x.nextClean() == '}') {
+                        text.append('}');
+                        pop();
+                        return;
+                    }
+                    x.back();
+                    break;
+                case '}':
+                    x.decrementObjectDepth();
+                    text.append('}');
+                    pop();
+                    return;
+                default:
+                    throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+        final char c = x.nextClean();
+        switch (c) {
+            case 0:
+                throw x.syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                x.decrementObjectDepth();
+                text.append('}');
+                pop();
+                return;
+            default:
+                phases[top] = KEY;
+                key(c);
+        }
+    }
+
+    /**
+     * Render the next value of an array as JSON text, or close it. The values of a 'content' array are separated by
+     * new lines instead, strings and numbers being rendered as they would be by their <code>toString</code> method.
+     */
+    private void textArray() throws JSONException, IOException {
+        if (phases[top] == START) {
+            if (x.nextClean() == ']') {
+                endTextArray();
+                return;
+            }
+            x.back();
+        } else {
+            switch (x.nextClean()) {
+                case ',':
+                    if (x.nextClean() == ']') {
+                        endTextArray();
+                        return;
+                    }
+                    x.back();
+                    break;
+                case ']':
+                    x.decrementArrayDepth();
+                    endTextArray();
+                    return;
+                default:
+                    throw x.syntaxError("Expected a ',' or ']'");
+            }
+        }
+
+        final boolean content = kinds[top] == CONTENT_ARRAY;
+        phases[top] = VALUE;
+        if (counts[top]++ > 0) {
+            text.append(content ? '\n' : ',');
+        }
+        final char c = x.nextClean();
+        if (c == ',') {
+            x.back();
+            text.append(JSONObject.NULL.toString());
+        } else {
+            textValue(c, content);
+        }
+    }
+
+    private void endTextArray() throws IOException {
+        if (kinds[top] == CONTENT_ARRAY) {
+            escapeText();
+        } else {
+            text.append(']');
+        }
+        pop();
+    }
+
+    /**
+     * Render a value as JSON text, like {@link JSONObject#toString()} does. Objects and arrays are rendered by the
+     * frames pushed for them.
+     *
+     * @param raw true to render strings and numbers as their <code>toString</code> method does.
+     */
+    private void textValue(char c, boolean raw) throws JSONException {
+        switch (c) {
+            case '"':
+            case '\'':
+                final String string = x.nextString(c);
+                if (raw) {
+                    text.append(string);
+                } else {
+                    text.append(JSONObject.quote(string));
+                }
+                return;
+            case '{':
+                x.incrementObjectDepth();
+                push(TEXT_OBJECT, null);
+                text.append('{');
+                return;
+            case '[':
+                x.incrementArrayDepth();
+                push(TEXT_ARRAY, null);
+                text.append('[');
+                return;
+            default:
+                final Object value = JSONObject.stringToValue(x.nextSimpleText(c));
+                if (raw || value instanceof Boolean || value == JSONObject.NULL) {
+                    text.append(value);
+                } else if (value instanceof Number) {
+                    text.append(JSONObject.numberToString((Number) value));
+                } else {
+                    text.append(JSONObject.quote((String) value));
+                }
+        }
+    }
+
+    /**
+     * Escape the JSON text rendered for the frame on top of the stack into the writer.
+     */
+    private void escapeText() throws IOException {
+        XML.escape(text.substring(marks[top]), writer);
+        text.setLength(marks[top]);
+    }
+
+    /**
+     * Read an unquoted value and return its text. Numbers valid for RFC 8259 are returned unchanged when their
+     * format is preserved, without being parsed. Other values are converted by {@link JSONObject#stringToValue(String)}.
+     */
+    private String simpleValue(char c) throws JSONException {
+        final String text = x.nextSimpleText(c);
+        if (preserveNumberFormat && JSONObject.isNumber(text)) {
+            return text;
+        }
+        return JSONObject.stringToValue(text).toString();
+    }
+
+    private void scalar(String tagName, String string) throws IOException {
+        if (string.isEmpty()) {
+            emptyTag(tagName);
+        } else {
+            openTag(tagName);
+            XML.escape(string, writer);
+            closeTag(tagName);
+        }
+    }
+
+    private void openTag(String tagName) throws IOException {
+        limits.checkElementCount(++elementCount);
+        tags.open(tagName, writer);
+        if (++level > depth) {
+            depth = level;
+        }
+    }
+
+    private void closeTag(String tagName) throws IOException {
+        tags.close(tagName, writer);
+        level--;
+    }
+
+    private void emptyTag(String tagName) throws IOException {
+        limits.checkElementCount(++elementCount);
+        tags.empty(tagName, writer);
+        if (level + 1 > depth) {
+            depth = level + 1;
+        }
+    }
+
+    private StringBuilder text() {
+        if (text == null) {
+            text = new StringBuilder();
+        }
+        return text;
+    }
+
+    /**
+     * @return the keys already read by the object on top of the stack.
+     */
+    private Set<String> keys() {
+        Set<String> set = keys[top];
+        if (set == null) {
+            set = keys[top] = new HashSet<>();
+        }
+        return set;
+    }
+
+    private void push(byte kind, String name) {
+        if (++top == kinds.length) {
+            final int size = kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, size);
+            phases = Arrays.copyOf(phases, size);
+            names = Arrays.copyOf(names, size);
+            keys = Arrays.copyOf(keys, size);
+            counts = Arrays.copyOf(counts, size);
+            marks = Arrays.copyOf(marks, size);
+            members = Arrays.copyOf(members, size);
+        }
+        kinds[top] = kind;
+        phases[top] = START;
+        names[top] = name;
+        counts[top] = 0;
+        marks[top] = 0;
+        members[top] = false;
+    }
+
+    private void pop() {
+        names[top] = null;
+        keys[top] = null;
+        top--;
+    }
+
+    /**
+     * Drop the frames left by a failed transformation.
+     */
+    private void clear() {
+        while (top >= 0) {
+            pop();
+        }
+        if (text != null) {
+            text.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded cache of the UTF-8 encoded open, close and empty tags of element names. The same few names are written
+ * over and over, so that writing their tags into a {@link Utf8ByteSink} becomes a copy of bytes instead of the
+ * encoding of their characters.
+ *
+ * The names configured on a policy, its root and record elements, are encoded upfront. The names taken from the
+ * payloads are chosen by the clients, so they are only admitted once they have been written a few times, and never
+ * beyond the maximum size of the cache: a payload made of names which never repeat only counts their hits, whose
+ * counters are dropped whenever there are too many of them, and the tags of names which are not admitted are encoded
+ * each time they are written.
+ *
+ * Lookups do not lock, so a cache can be shared by all the transformations of a policy.
+ *
+ * @author GraviteeSource Team
+ */
+public final class TagCache {
+
+    /**
+     * The default maximum number of names admitted from the payloads.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    /**
+     * The number of times a name is written before being admitted.
+     */
+    static final int ADMISSION_HITS = 4;
+
+    /**
+     * Longer names are not cached, they are unlikely to be repeated.
+     */
+    static final int MAX_NAME_LENGTH = 128;
+
+    /**
+     * A cache which caches nothing, the tags being encoded each time they are written.
+     */
+    static final TagCache NONE = new TagCache(0);
+
+    private final ConcurrentMap<String, Tags> tags = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final int maxSize;
+    private final int maxCandidates;
+
+    /**
+     * @param maxSize the maximum number of names admitted from the payloads.
+     * @param names the names to encode upfront, null names being ignored.
+     */
+    public TagCache(int maxSize, String... names) {
+        this.maxSize = maxSize;
+        this.maxCandidates = 4 * maxSize;
+        for (String name : names) {
+            if (name != null) {
+                tags.put(name, new Tags(name));
+            }
+        }
+    }
+
+    /**
+     * Write the open tag of an element.
+     */
+    void open(String name, Appendable writer) throws IOException {
+        if (writer instanceof Utf8ByteSink) {
+            open(name, (Utf8ByteSink) writer);
+        } else {
+            writer.append('<').append(name).append('>');
+        }
+    }
+
+    /**
+     * Write the close tag of an element.
+     */
+    void close(String name, Appendable writer) throws IOException {
+        if (writer instanceof Utf8ByteSink) {
+            close(name, (Utf8ByteSink) writer);
+        } else {
+            writer.append("</").append(name).append('>');
+        }
+    }
+
+    /**
+     * Write the tag of an empty element.
+     */
+    void empty(String name, Appendable writer) throws IOException {
+        final Tags cached = writer instanceof Utf8ByteSink ? get(name) : null;
+        if (cached != null) {
+            ((Utf8ByteSink) writer).write(cached.empty, 0, cached.empty.length);
+        } else {
+            writer.append('<').append(name).append("/>");
+        }
+    }
+
+    /**
+     * Write the open tag of an element into a byte sink, as its encoded bytes when the name is cached.
+     */
+    public void open(String name, Utf8ByteSink sink) {
+        final Tags cached = get(name);
+        if (cached != null) {
+            sink.write(cached.open, 0, cached.open.length);
+        } else {
+            sink.append('<').append(name).append('>');
+        }
+    }
+
+    /**
+     * Write the close tag of an element into a byte sink, as its encoded bytes when the name is cached.
+     */
+    public void close(String name, Utf8ByteSink sink) {
+        final Tags cached = get(name);
+        if (cached != null) {
+            sink.write(cached.close, 0, cached.close.length);
+        } else {
+            sink.append("</").append(name).append('>');
+        }
+    }
+
+    /**
+     * @return the number of cached names, the names encoded upfront included.
+     */
+    public int size() {
+        return tags.size();
+    }
+
+    /**
+     * @return the number of names whose hits are counted, before their admission.
+     */
+    int candidates() {
+        return hits.size();
+    }
+
+    private Tags get(String name) {
+        final Tags cached = tags.get(name);
+        if (cached != null || admitted.get() >= maxSize || name.length() > MAX_NAME_LENGTH) {
+            return cached;
+        }
+        AtomicInteger counter = hits.get(name);
+        if (counter == null) {
+            if (hits.size() >= maxCandidates) {
+                // Names which never repeat would keep the counters growing, the ones which do are counted again.
+                hits.clear();
+            }
+            counter = hits.computeIfAbsent(name, n -> new AtomicInteger());
+        }
+        if (counter.incrementAndGet() < ADMISSION_HITS) {
+            return null;
+        }
+        hits.remove(name);
+        return admit(name);
+    }
+
+    /**
+     * Admit a name, unless the cache is full. The slot is reserved before the tags are put, so that concurrent
+     * admissions never go beyond the maximum size.
+     */
+    private Tags admit(String name) {
+        int size;
+        do {
+            size = admitted.get();
+            if (size >= maxSize) {
+                return null;
+            }
+        } while (!admitted.compareAndSet(size, size + 1));
+        final Tags encoded = new Tags(name);
+        final Tags previous = tags.putIfAbsent(name, encoded);
+        if (previous != null) {
+            admitted.decrementAndGet();
+            return previous;
+        }
+        return encoded;
+    }
+
+    private static final class Tags {
+
+        private final byte[] open;
+        private final byte[] close;
+        private final byte[] empty;
+
+        private Tags(String name) {
+            this.open = ('<' + name + '>').getBytes(StandardCharsets.UTF_8);
+            this.close = ("</" + name + '>').getBytes(StandardCharsets.UTF_8);
+            this.empty = ('<' + name + "/>").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
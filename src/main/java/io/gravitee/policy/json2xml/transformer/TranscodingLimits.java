@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+/**
+ * The limits a payload must respect to be transformed, checked as the JSON is read and as the XML is written so that
+ * an oversized payload is rejected before it has been entirely processed. A limit of 0, or less, means no limit.
+ *
+ * @author GraviteeSource Team
+ */
+public final class TranscodingLimits {
+
+    /**
+     * No limit at all.
+     */
+    public static final TranscodingLimits NONE = new TranscodingLimits(0, 0, 0, 0, 0);
+
+    private final long maxInputSize;
+    private final int maxElements;
+    private final int maxStringLength;
+    private final int maxKeysPerObject;
+    private final long maxOutputSize;
+
+    /**
+     * @param maxInputSize the maximum size, in bytes, of the JSON.
+     * @param maxElements the maximum number of elements of the XML.
+     * @param maxStringLength the maximum number of characters of a string, a key or an unquoted value of the JSON.
+     * @param maxKeysPerObject the maximum number of keys of an object of the JSON.
+     * @param maxOutputSize the maximum size, in bytes, of the XML.
+     */
+    public TranscodingLimits(long maxInputSize, int maxElements, int maxStringLength, int maxKeysPerObject, long maxOutputSize) {
+        this.maxInputSize = Math.max(maxInputSize, 0);
+        this.maxElements = Math.max(maxElements, 0);
+        this.maxStringLength = Math.max(maxStringLength, 0);
+        this.maxKeysPerObject = Math.max(maxKeysPerObject, 0);
+        this.maxOutputSize = Math.max(maxOutputSize, 0);
+    }
+
+    public long getMaxInputSize() {
+        return maxInputSize;
+    }
+
+    public int getMaxElements() {
+        return maxElements;
+    }
+
+    public int getMaxStringLength() {
+        return maxStringLength;
+    }
+
+    public int getMaxKeysPerObject() {
+        return maxKeysPerObject;
+    }
+
+    public long getMaxOutputSize() {
+        return maxOutputSize;
+    }
+
+    /**
+     * @param size the number of bytes of JSON read so far.
+     * @throws TranscodingLimitException If the JSON is too large.
+     */
+    public void checkInputSize(long size) {
+        if (maxInputSize > 0 && size > maxInputSize) {
+            throw new TranscodingLimitException("JSON payload larger than " + maxInputSize + " bytes");
+        }
+    }
+
+    /**
+     * @param count the number of elements written so far.
+     * @throws TranscodingLimitException If there are too many elements.
+     */
+    public void checkElementCount(int count) {
+        if (maxElements > 0 && count > maxElements) {
+            throw new TranscodingLimitException("More than " + maxElements + " XML elements");
+        }
+    }
+
+    /**
+     * @param length the number of characters of a string read so far.
+     * @throws TranscodingLimitException If the string is too long.
+     */
+    public void checkStringLength(int length) {
+        if (maxStringLength > 0 && length > maxStringLength) {
+            throw new TranscodingLimitException("JSON string longer than " + maxStringLength + " characters");
+        }
+    }
+
+    /**
+     * @param count the number of keys of an object read so far.
+     * @throws TranscodingLimitException If the object has too many keys.
+     */
+    public void checkKeyCount(int count) {
+        if (maxKeysPerObject > 0 && count > maxKeysPerObject) {
+            throw new TranscodingLimitException("JSON object with more than " + maxKeysPerObject + " keys");
+        }
+    }
+
+    /**
+     * @param size the number of bytes of XML written so far.
+     * @throws TranscodingLimitException If the XML is too large.
+     */
+    public void checkOutputSize(long size) {
+        if (maxOutputSize > 0 && size > maxOutputSize) {
+            throw new TranscodingLimitException("XML payload larger than " + maxOutputSize + " bytes");
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The scratch state of a transformation, reusing the state left by the previous transformations of the thread: the
+ * array the XML is encoded into, the tokener reading the payloads which can be read as bytes, and the decoders of the
+ * charsets which cannot. Gateway event loops run one transformation at a time, so each of them ends up with a single
+ * array and a single tokener instead of allocating new ones per payload.
+ *
+ * The thread only strongly keeps JDK types, never an instance of a class of the policy, so that the class loader of
+ * the plugin is not pinned by the threads of the gateway once the plugin is undeployed: the tokener is only softly
+ * reachable from the thread, and is cleared by the garbage collector once it is no longer used. Arrays grown above
+ * {@link #MAX_RETAINED_CAPACITY} by a large payload are dropped when the scratch is released, so that a single large
+ * payload does not pin its memory to the thread forever.
+ *
+ * A scratch must be released once the transformation is done, and nothing it returned can be used afterwards, except
+ * the array of an output it does not {@link #retains(Utf8ByteSink) retain}:
+ * <pre>
+ * try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author GraviteeSource Team
+ */
+public final class TranscodingScratch implements AutoCloseable {
+
+    /**
+     * Capacity, in bytes, above which an array is not kept once the scratch is released.
+     */
+    public static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final int MIN_CAPACITY = 1024;
+
+    /**
+     * Number of decoders kept by a thread, the decoders of the other charsets being created for each payload.
+     */
+    private static final int MAX_DECODERS = 8;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private static final int OUTPUT = 0;
+    private static final int DECODERS = 1;
+    private static final int TOKENER = 2;
+
+    /**
+     * The output array, the decoders and the reference to the tokener kept by each thread, taken by the scratch in use
+     * so that a nested scratch starts from empty slots.
+     */
+    private static final ThreadLocal<Object[]> RETAINED = new ThreadLocal<>();
+
+    private final Object[] retained;
+    private final SoftReference<JSONByteTokener> tokenerReference;
+    private final JSONByteTokener tokener;
+    private Map<Charset, CharsetDecoder> decoders;
+    private byte[] outputArray;
+    private Utf8ByteSink output;
+
+    @SuppressWarnings("unchecked")
+    private TranscodingScratch(Object[] retained) {
+        this.retained = retained;
+        this.outputArray = (byte[]) retained[OUTPUT];
+        this.decoders = (Map<Charset, CharsetDecoder>) retained[DECODERS];
+        final SoftReference<JSONByteTokener> reference = (SoftReference<JSONByteTokener>) retained[TOKENER];
+        final JSONByteTokener kept = reference == null ? null : reference.get();
+        this.tokener = kept == null ? new JSONByteTokener(EMPTY, JSONTokener.DEFAULT_MAX_DEPTH) : kept;
+        this.tokenerReference = kept == null ? new SoftReference<>(tokener) : reference;
+        retained[OUTPUT] = null;
+        retained[DECODERS] = null;
+        retained[TOKENER] = null;
+    }
+
+    /**
+     * @return a scratch reusing the state left by the previous transformations of the current thread, or a new state
+     * when it is already in use.
+     */
+    public static TranscodingScratch acquire() {
+        Object[] retained = RETAINED.get();
+        if (retained == null) {
+            retained = new Object[3];
+            RETAINED.set(retained);
+        }
+        return new TranscodingScratch(retained);
+    }
+
+    /**
+     * @param buffer the UTF-8 encoded JSON to read.
+     * @param maxDepth the maximum number of nested objects or arrays.
+     * @return the tokener of the scratch, reset to read the remaining bytes of the buffer.
+     */
+    public JSONTokener tokener(ByteBuffer buffer, int maxDepth) {
+        return tokener.reset(buffer, maxDepth);
+    }
+
+    /**
+     * @param buffer the JSON to read.
+     * @param charset the charset of the JSON.
+     * @param maxDepth the maximum number of nested objects or arrays.
+     * @return the tokener of the scratch, reset to read the remaining bytes of the buffer, when the charset can be read
+     * as bytes. Otherwise, a tokener decoding the bytes as they are read.
+     */
+    public JSONTokener tokener(ByteBuffer buffer, Charset charset, int maxDepth) {
+        if (JSONByteTokener.isByteReadable(charset)) {
+            return tokener.reset(buffer, charset, maxDepth);
+        }
+        return new JSONTokener(new DecodingReader(buffer, decoder(charset)), maxDepth);
+    }
+
+    private CharsetDecoder decoder(Charset charset) {
+        if (decoders == null) {
+            decoders = new HashMap<>();
+        }
+        CharsetDecoder decoder = decoders.get(charset);
+        if (decoder == null) {
+            decoder =
+                charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            if (decoders.size() < MAX_DECODERS) {
+                decoders.put(charset, decoder);
+            }
+        }
+        return decoder;
+    }
+
+    /**
+     * @param expectedLength the number of bytes the XML is expected to take.
+     * @return an empty sink.
+     */
+    public Utf8ByteSink output(int expectedLength) {
+        if (output == null) {
+            output =
+                outputArray != null ? new Utf8ByteSink(outputArray) : new Utf8ByteSink(Math.max(expectedLength, MIN_CAPACITY));
+        }
+        return output.reset();
+    }
+
+    /**
+     * @param sink a sink the XML has been written to.
+     * @return true when the array of the sink is kept for the next transformations of the thread once the scratch is
+     * released, and must therefore be copied. Otherwise, the array can be handed over as it is.
+     */
+    public boolean retains(Utf8ByteSink sink) {
+        return sink == output && sink.capacity() <= MAX_RETAINED_CAPACITY;
+    }
+
+    /**
+     * Release the scratch, so that its state can be reused by the next transformation of the thread.
+     */
+    @Override
+    public void close() {
+        if (output != null) {
+            outputArray = output.capacity() <= MAX_RETAINED_CAPACITY ? output.array() : null;
+        }
+        if (outputArray != null) {
+            retained[OUTPUT] = outputArray;
+        }
+        if (decoders != null) {
+            retained[DECODERS] = decoders;
+        }
+        // Do not keep the last payload reachable from the tokener.
+        tokener.reset(EMPTY, JSONTokener.DEFAULT_MAX_DEPTH);
+        retained[TOKENER] = tokenerReference;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+/**
+ * Figures about the XML written by a transcoder.
+ *
+ * @author GraviteeSource Team
+ */
+public interface TranscodingStatistics {
+    /**
+     * @return the number of elements written so far.
+     */
+    int elementCount();
+
+    /**
+     * @return the deepest level of nested elements written so far, the root element being at level 1.
+     */
+    int depth();
+
+    /**
+     * @return fixed statistics, such as the sum of the statistics of several transcoders.
+     */
+    static TranscodingStatistics of(int elementCount, int depth) {
+        return new TranscodingStatistics() {
+            @Override
+            public int elementCount() {
+                return elementCount;
+            }
+
+            @Override
+            public int depth() {
+                return depth;
+            }
+        };
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte array encoding the characters appended to it as UTF-8. It lets the XML be produced directly as
+ * bytes, without building a String which would then have to be encoded.
+ *
+ * Unpaired surrogates are encoded as <code>'?'</code>, like {@link String#getBytes(java.nio.charset.Charset)} does.
+ *
+ * The size of the XML can be limited, the sink then refusing to grow beyond the maximum output size of its
+ * {@link TranscodingLimits}.
+ *
+ * @author GraviteeSource Team
+ */
+public class Utf8ByteSink implements Appendable {
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private byte[] bytes;
+    private int writeIndex;
+
+    /**
+     * The index up to which bytes can be written without growing the array or checking the limits.
+     */
+    private int end;
+
+    private TranscodingLimits limits = TranscodingLimits.NONE;
+
+    /**
+     * High surrogate waiting for its low surrogate.
+     */
+    private char highSurrogate;
+
+    public Utf8ByteSink() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity the initial number of bytes the sink can hold before growing.
+     */
+    public Utf8ByteSink(int initialCapacity) {
+        this.bytes = new byte[Math.max(initialCapacity, 16)];
+        this.end = bytes.length;
+    }
+
+    /**
+     * @param bytes the array to write into, reused from a previous sink.
+     */
+    Utf8ByteSink(byte[] bytes) {
+        this.bytes = bytes;
+        this.end = bytes.length;
+    }
+
+    @Override
+    public Utf8ByteSink append(CharSequence csq) {
+        return append(csq == null ? "null" : csq, 0, csq == null ? 4 : csq.length());
+    }
+
+    @Override
+    public Utf8ByteSink append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            return append("null", start, end);
+        }
+        ensureCapacity(end - start);
+        int i = start;
+        if (highSurrogate == 0) {
+            // ASCII fast path, the capacity is already there.
+            byte[] b = bytes;
+            int w = writeIndex;
+            for (; i < end; i++) {
+                char c = csq.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                b[w++] = (byte) c;
+            }
+            writeIndex = w;
+        }
+        for (; i < end; i++) {
+            append(csq.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public Utf8ByteSink append(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                writeCodePoint(Character.toCodePoint(high, c));
+                return this;
+            }
+            write('?');
+        }
+        if (c < 0x80) {
+            write(c);
+        } else if (c < 0x800) {
+            ensureCapacity(2);
+            bytes[writeIndex++] = (byte) (0xC0 | (c >> 6));
+            bytes[writeIndex++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            write('?');
+        } else {
+            ensureCapacity(3);
+            bytes[writeIndex++] = (byte) (0xE0 | (c >> 12));
+            bytes[writeIndex++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[writeIndex++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return this;
+    }
+
+    /**
+     * Write raw bytes, which must be valid UTF-8, to the sink.
+     *
+     * @param src the bytes.
+     * @param offset the offset of the first byte to write.
+     * @param length the number of bytes to write.
+     * @return this.
+     */
+    public Utf8ByteSink write(byte[] src, int offset, int length) {
+        flushHighSurrogate();
+        ensureCapacity(length);
+        System.arraycopy(src, offset, bytes, writeIndex, length);
+        writeIndex += length;
+        return this;
+    }
+
+    /**
+     * Forget the written bytes and the limits, keeping the backing array so that the sink can be reused.
+     *
+     * @return this.
+     */
+    public Utf8ByteSink reset() {
+        writeIndex = 0;
+        highSurrogate = 0;
+        return limit(TranscodingLimits.NONE);
+    }
+
+    /**
+     * Limit the number of bytes written to the sink to the maximum output size of the given limits.
+     *
+     * @param limits the limits of the transformation.
+     * @return this.
+     * @throws TranscodingLimitException If more bytes than allowed have already been written.
+     */
+    public Utf8ByteSink limit(TranscodingLimits limits) {
+        this.limits = limits;
+        this.end = bytes.length;
+        if (limits.getMaxOutputSize() > 0 && limits.getMaxOutputSize() < end) {
+            this.end = (int) limits.getMaxOutputSize();
+        }
+        this.end = Math.min(end, checkedSize());
+        limits.checkOutputSize(writeIndex);
+        return this;
+    }
+
+    /**
+     * @return the number of bytes up to which the sink can be written before {@link #checkOutputSize(int)} is called
+     * again.
+     */
+    int checkedSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Check the number of bytes the sink is about to hold, before writing beyond its capacity or its
+     * {@link #checkedSize()}.
+     *
+     * @param length the number of bytes the sink is about to hold.
+     * @throws TranscodingLimitException If the sink would hold more bytes than allowed.
+     */
+    void checkOutputSize(int length) {
+        limits.checkOutputSize(length);
+    }
+
+    /**
+     * @return the number of bytes the sink can hold before growing.
+     */
+    public int capacity() {
+        return bytes.length;
+    }
+
+    /**
+     * @return the array backing the sink. Only the bytes before the {@link #writeIndex()} have been written.
+     */
+    public byte[] array() {
+        flushHighSurrogate();
+        return bytes;
+    }
+
+    /**
+     * @return the number of bytes written to the sink.
+     */
+    public int writeIndex() {
+        flushHighSurrogate();
+        return writeIndex;
+    }
+
+    /**
+     * @return a copy of the bytes written to the sink.
+     */
+    public byte[] toByteArray() {
+        flushHighSurrogate();
+        return Arrays.copyOf(bytes, writeIndex);
+    }
+
+    private void write(char c) {
+        ensureCapacity(1);
+        bytes[writeIndex++] = (byte) c;
+    }
+
+    private void writeCodePoint(int cp) {
+        ensureCapacity(4);
+        bytes[writeIndex++] = (byte) (0xF0 | (cp >> 18));
+        bytes[writeIndex++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        bytes[writeIndex++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        bytes[writeIndex++] = (byte) (0x80 | (cp & 0x3F));
+    }
+
+    private void flushHighSurrogate() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            write('?');
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (writeIndex + length > end) {
+            grow(writeIndex + length);
+        }
+    }
+
+    private void grow(int length) {
+        checkOutputSize(length);
+        if (length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length));
+        }
+        limit(limits);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, writeIndex(), StandardCharsets.UTF_8);
+    }
+}
@@ -39,6 +39,7 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
+import java.io.IOException;
 import java.util.Iterator;
 
 /**
@@ -78,6 +79,17 @@ public class XML {
     /** The Character '/'. */
     public static final Character SLASH = '/';
 
+    /** The XML escapes, indexed by the character they replace. */
+    private static final String[] ESCAPES = new String['>' + 1];
+
+    static {
+        ESCAPES['&'] = "&amp;";
+        ESCAPES['<'] = "&lt;";
+        ESCAPES['>'] = "&gt;";
+        ESCAPES['"'] = "&quot;";
+        ESCAPES['\''] = "&apos;";
+    }
+
     /**
      * Replace special characters with XML escapes:
      *
@@ -93,30 +105,63 @@ public class XML {
      * @return The escaped string.
      */
     public static String escape(String string) {
-        StringBuilder sb = new StringBuilder(string.length());
-        for (int i = 0, length = string.length(); i < length; i++) {
+        final int first = indexOfEscape(string, 0);
+        if (first < 0) {
+            return string;
+        }
+        StringBuilder sb = new StringBuilder(string.length() + 16);
+        try {
+            escape(string, first, sb);
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write a string to an appendable, replacing special characters with XML
+     * escapes as {@link #escape(String)} does. The runs of characters which
+     * need no escape are appended at once.
+     *
+     * @param string
+     *            The string to be escaped.
+     * @param writer
+     *            Writes the escaped string.
+     * @throws IOException
+     */
+    public static void escape(String string, Appendable writer) throws IOException {
+        final int first = indexOfEscape(string, 0);
+        if (first < 0) {
+            writer.append(string);
+        } else {
+            escape(string, first, writer);
+        }
+    }
+
+    private static void escape(String string, int first, Appendable writer) throws IOException {
+        final int length = string.length();
+        int start = 0;
+        for (int i = first; i >= 0; i = indexOfEscape(string, start)) {
+            writer.append(string, start, i).append(ESCAPES[string.charAt(i)]);
+            start = i + 1;
+        }
+        if (start < length) {
+            writer.append(string, start, length);
+        }
+    }
+
+    /**
+     * @return the index of the first character needing an escape from the
+     *         given index, or -1 if there is none.
+     */
+    private static int indexOfEscape(String string, int from) {
+        for (int i = from, length = string.length(); i < length; i++) {
             char c = string.charAt(i);
-            switch (c) {
-                case '&':
-                    sb.append("&amp;");
-                    break;
-                case '<':
-                    sb.append("&lt;");
-                    break;
-                case '>':
-                    sb.append("&gt;");
-                    break;
-                case '"':
-                    sb.append("&quot;");
-                    break;
-                case '\'':
-                    sb.append("&apos;");
-                    break;
-                default:
-                    sb.append(c);
+            if (c < ESCAPES.length && ESCAPES[c] != null) {
+                return i;
             }
         }
-        return sb.toString();
+        return -1;
     }
 
     /**
@@ -357,7 +402,33 @@ public class XML {
      * @throws JSONException
      */
     public static String toString(Object object, String tagName) throws JSONException {
-        StringBuilder sb = new StringBuilder();
+        return write(object, tagName, new StringBuilder()).toString();
+    }
+
+    /**
+     * Write a JSONObject as a well-formed, element-normal XML text to an
+     * appendable. The whole document is written to the same appendable, no
+     * intermediate string is built for nested values.
+     *
+     * @param object
+     *            A JSONObject.
+     * @param tagName
+     *            The optional name of the enclosing tag.
+     * @param writer
+     *            Writes the serialized XML.
+     * @return The writer.
+     * @throws JSONException
+     */
+    public static <A extends Appendable> A write(Object object, String tagName, A writer) throws JSONException {
+        try {
+            writeValue(writer, object, tagName);
+            return writer;
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+    }
+
+    private static void writeValue(Appendable writer, Object object, String tagName) throws JSONException, IOException {
         JSONArray ja;
         JSONObject jo;
         String key;
@@ -368,9 +439,9 @@ public class XML {
         if (object instanceof JSONObject) {
             // Emit <tagName>
             if (tagName != null) {
-                sb.append('<');
-                sb.append(tagName);
-                sb.append('>');
+                writer.append('<');
+                writer.append(tagName);
+                writer.append('>');
             }
 
             // Loop thru the keys.
@@ -384,7 +455,6 @@ public class XML {
                 } else if (value.getClass().isArray()) {
                     value = new JSONArray(value);
                 }
-                string = value instanceof String ? (String) value : null;
 
                 // Emit content in body
                 if ("content".equals(key)) {
@@ -393,13 +463,13 @@ public class XML {
                         int i = 0;
                         for (Object val : ja) {
                             if (i > 0) {
-                                sb.append('\n');
+                                writer.append('\n');
                             }
-                            sb.append(escape(val.toString()));
+                            escape(val.toString(), writer);
                             i++;
                         }
                     } else {
-                        sb.append(escape(value.toString()));
+                        escape(value.toString(), writer);
                     }
                     // Emit an array of similar keys
 
@@ -407,34 +477,34 @@ public class XML {
                     ja = (JSONArray) value;
                     for (Object val : ja) {
                         if (val instanceof JSONArray) {
-                            sb.append('<');
-                            sb.append(key);
-                            sb.append('>');
-                            sb.append(toString(val));
-                            sb.append("</");
-                            sb.append(key);
-                            sb.append('>');
+                            writer.append('<');
+                            writer.append(key);
+                            writer.append('>');
+                            writeValue(writer, val, null);
+                            writer.append("</");
+                            writer.append(key);
+                            writer.append('>');
                         } else {
-                            sb.append(toString(val, key));
+                            writeValue(writer, val, key);
                         }
                     }
                 } else if ("".equals(value)) {
-                    sb.append('<');
-                    sb.append(key);
-                    sb.append("/>");
+                    writer.append('<');
+                    writer.append(key);
+                    writer.append("/>");
                     // Emit a new tag <k>
 
                 } else {
-                    sb.append(toString(value, key));
+                    writeValue(writer, value, key);
                 }
             }
             if (tagName != null) {
                 // Emit the </tagname> close tag
-                sb.append("</");
-                sb.append(tagName);
-                sb.append('>');
+                writer.append("</");
+                writer.append(tagName);
+                writer.append('>');
             }
-            return sb.toString();
+            return;
         }
 
         if (object != null) {
@@ -448,15 +518,29 @@ public class XML {
                     // XML does not have good support for arrays. If an array
                     // appears in a place where XML is lacking, synthesize an
                     // <array> element.
-                    sb.append(toString(val, tagName == null ? "array" : tagName));
+                    writeValue(writer, val, tagName == null ? "array" : tagName);
                 }
-                return sb.toString();
+                return;
             }
         }
 
-        string = (object == null) ? "null" : escape(object.toString());
-        return (tagName == null)
-            ? "\"" + string + "\""
-            : (string.length() == 0) ? "<" + tagName + "/>" : "<" + tagName + ">" + string + "</" + tagName + ">";
+        string = (object == null) ? "null" : object.toString();
+        if (tagName == null) {
+            writer.append('"');
+            escape(string, writer);
+            writer.append('"');
+        } else if (string.length() == 0) {
+            writer.append('<');
+            writer.append(tagName);
+            writer.append("/>");
+        } else {
+            writer.append('<');
+            writer.append(tagName);
+            writer.append('>');
+            escape(string, writer);
+            writer.append("</");
+            writer.append(tagName);
+            writer.append('>');
+        }
     }
 }
@@ -18,10 +18,19 @@ package io.gravitee.policy.json2xml.utils;
 import io.gravitee.gateway.api.http.HttpHeaderNames;
 import io.gravitee.gateway.api.http.HttpHeaders;
 import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
-import java.util.regex.Pattern;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Resolves the charset of a payload from its <code>Content-Type</code>. The same few charsets are received over and
+ * over, so they are cached by the lower case value of the <code>charset=</code> parameter. Only the charsets supported
+ * by the JVM are cached, so that the cache never holds more entries than the names and aliases they have, whatever the
+ * values sent by the clients.
+ *
  * @author David BRASSELY (david.brassely at graviteesource.com)
  * @author GraviteeSource Team
  */
@@ -29,26 +38,79 @@ public class CharsetHelper {
 
     private static final Charset UTF_8_CHARSET = StandardCharsets.UTF_8;
     private static final String CHARSET_TAG = "charset=";
-    private static final Pattern CHARSET_PATTERN = Pattern.compile(Pattern.quote(CHARSET_TAG), Pattern.CASE_INSENSITIVE);
+    private static final ConcurrentMap<String, Charset> CHARSETS = new ConcurrentHashMap<>();
 
     public static Charset extractCharset(HttpHeaders httpHeaders) {
         return extractFromContentType(httpHeaders.get(HttpHeaderNames.CONTENT_TYPE));
     }
 
     /**
-     * Extract the charset from media-type as per https://tools.ietf.org/html/rfc7231#section-3.1.1.1
+     * Extract the charset from media-type as per https://tools.ietf.org/html/rfc7231#section-3.1.1.1. JSON is UTF-8
+     * by default, and when its charset is not supported by the JVM.
      *
-     * @param mediaType
-     * @return
+     * @param mediaType the media type, may be null.
+     * @return the charset of the media type.
+     * @throws IllegalCharsetNameException If the name of the charset is not a legal name.
      */
     public static Charset extractFromContentType(String mediaType) {
-        if (mediaType == null || !CHARSET_PATTERN.matcher(mediaType).find()) {
+        if (mediaType == null) {
+            return UTF_8_CHARSET;
+        }
+        final String name = charsetName(mediaType);
+        if (name == null) {
             return UTF_8_CHARSET;
         }
+        final Charset charset = CHARSETS.get(name);
+        if (charset != null) {
+            return charset;
+        }
+        try {
+            return CHARSETS.computeIfAbsent(name, Charset::forName);
+        } catch (UnsupportedCharsetException ex) {
+            return UTF_8_CHARSET;
+        }
+    }
 
-        String charsetName = mediaType.substring(mediaType.lastIndexOf('=') + 1);
-        charsetName = charsetName.replace("\"", "");
+    /**
+     * @return the lower case value of the <code>charset=</code> parameter, without its quotes, or null.
+     */
+    private static String charsetName(String mediaType) {
+        final int tag = indexOfCharsetTag(mediaType);
+        if (tag < 0) {
+            return null;
+        }
+        int start = tag + CHARSET_TAG.length();
+        int end = mediaType.indexOf(';', start);
+        if (end < 0) {
+            end = mediaType.length();
+        }
+        while (start < end && (Character.isWhitespace(mediaType.charAt(start)) || mediaType.charAt(start) == '"')) {
+            start++;
+        }
+        while (end > start && (Character.isWhitespace(mediaType.charAt(end - 1)) || mediaType.charAt(end - 1) == '"')) {
+            end--;
+        }
+        return mediaType.substring(start, end).toLowerCase(Locale.ROOT);
+    }
 
-        return Charset.isSupported(charsetName) ? Charset.forName(charsetName) : Charset.defaultCharset();
+    /**
+     * @return the index of the <code>charset=</code> parameter, whatever its case, or -1.
+     */
+    private static int indexOfCharsetTag(String mediaType) {
+        for (int i = mediaType.indexOf(';'); i >= 0 && i < mediaType.length(); i++) {
+            final char c = mediaType.charAt(i);
+            if (c == ';' || Character.isWhitespace(c)) {
+                continue;
+            }
+            if (mediaType.regionMatches(true, i, CHARSET_TAG, 0, CHARSET_TAG.length())) {
+                return i;
+            }
+            final int next = mediaType.indexOf(';', i);
+            if (next < 0) {
+                return -1;
+            }
+            i = next;
+        }
+        return -1;
     }
 }
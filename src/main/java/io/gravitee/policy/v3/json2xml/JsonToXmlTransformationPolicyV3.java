@@ -15,7 +15,6 @@
  */
 package io.gravitee.policy.v3.json2xml;
 
-import static io.gravitee.policy.json2xml.JsonToXmlTransformationPolicy.*;
 import static java.lang.System.getenv;
 
 import io.gravitee.common.http.MediaType;
@@ -23,6 +22,7 @@ import io.gravitee.gateway.api.ExecutionContext;
 import io.gravitee.gateway.api.Request;
 import io.gravitee.gateway.api.Response;
 import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.gateway.api.http.HttpHeaderNames;
 import io.gravitee.gateway.api.http.stream.TransformableRequestStreamBuilder;
 import io.gravitee.gateway.api.http.stream.TransformableResponseStreamBuilder;
 import io.gravitee.gateway.api.stream.ReadWriteStream;
@@ -31,13 +31,23 @@ import io.gravitee.node.api.configuration.Configuration;
 import io.gravitee.policy.api.PolicyChain;
 import io.gravitee.policy.api.annotations.OnRequestContent;
 import io.gravitee.policy.api.annotations.OnResponseContent;
+import io.gravitee.policy.json2xml.bypass.BypassRules;
+import io.gravitee.policy.json2xml.configuration.ExecutionPlan;
 import io.gravitee.policy.json2xml.configuration.JsonToXmlTransformationPolicyConfiguration;
 import io.gravitee.policy.json2xml.configuration.PolicyScope;
-import io.gravitee.policy.json2xml.transformer.JSONObject;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics;
 import io.gravitee.policy.json2xml.transformer.JSONTokener;
-import io.gravitee.policy.json2xml.transformer.XML;
+import io.gravitee.policy.json2xml.transformer.JsonToXmlTranscoder;
+import io.gravitee.policy.json2xml.transformer.TranscodingLimits;
+import io.gravitee.policy.json2xml.transformer.TranscodingScratch;
+import io.gravitee.policy.json2xml.transformer.TranscodingStatistics;
+import io.gravitee.policy.json2xml.transformer.Utf8ByteSink;
 import io.gravitee.policy.json2xml.utils.CharsetHelper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 
@@ -55,21 +65,41 @@ public class JsonToXmlTransformationPolicyV3 {
      */
     protected final JsonToXmlTransformationPolicyConfiguration configuration;
 
-    protected Integer maxDepth;
+    protected final TransformationMetrics metrics;
+
+    /**
+     * The plan of the transformations, built on the first one.
+     */
+    protected volatile ExecutionPlan plan;
 
     public JsonToXmlTransformationPolicyV3(final JsonToXmlTransformationPolicyConfiguration configuration) {
+        this(configuration, TransformationMetrics.getDefault());
+    }
+
+    public JsonToXmlTransformationPolicyV3(
+        final JsonToXmlTransformationPolicyConfiguration configuration,
+        final TransformationMetrics metrics
+    ) {
         this.configuration = configuration;
+        this.metrics = metrics;
     }
 
     @OnResponseContent
     public ReadWriteStream onResponseContent(Response response, PolicyChain chain, ExecutionContext ctx) {
-        if (configuration.getScope() == null || configuration.getScope() == PolicyScope.RESPONSE) {
+        final ExecutionPlan plan = plan(ctx);
+        final BypassRules bypass = plan.getBypass();
+        if (
+            (configuration.getScope() == null || configuration.getScope() == PolicyScope.RESPONSE) &&
+            !bypass.bypassContentType(response.headers().get(HttpHeaderNames.CONTENT_TYPE)) &&
+            !bypass.bypassStatus(response.status()) &&
+            !bypass.bypassAccept(() -> ctx.request().headers().get(HttpHeaderNames.ACCEPT))
+        ) {
             Charset charset = CharsetHelper.extractCharset(response.headers());
             return TransformableResponseStreamBuilder
                 .on(response)
                 .chain(chain)
                 .contentType(CONTENT_TYPE)
-                .transform(map(charset, ctx))
+                .transform(map(plan, charset, TransformationMetrics.Phase.RESPONSE, ctx))
                 .build();
         }
         return null;
@@ -77,37 +107,221 @@ public class JsonToXmlTransformationPolicyV3 {
 
     @OnRequestContent
     public ReadWriteStream onRequestContent(Request request, PolicyChain chain, ExecutionContext ctx) {
-        if (configuration.getScope() == PolicyScope.REQUEST) {
+        final ExecutionPlan plan = plan(ctx);
+        if (
+            configuration.getScope() == PolicyScope.REQUEST &&
+            !plan.getBypass().bypassContentType(request.headers().get(HttpHeaderNames.CONTENT_TYPE))
+        ) {
             Charset charset = CharsetHelper.extractCharset(request.headers());
             return TransformableRequestStreamBuilder
                 .on(request)
                 .chain(chain)
                 .contentType(CONTENT_TYPE)
-                .transform(map(charset, ctx))
+                .transform(map(plan, charset, TransformationMetrics.Phase.REQUEST, ctx))
                 .build();
         }
         return null;
     }
 
-    private Function<Buffer, Buffer> map(Charset charset, ExecutionContext ctx) {
+    private Function<Buffer, Buffer> map(
+        ExecutionPlan plan,
+        Charset charset,
+        TransformationMetrics.Phase phase,
+        ExecutionContext ctx
+    ) {
         return input -> {
+            final TransformationMetrics.Recorder recorder = metrics.start((String) ctx.getAttribute(ExecutionContext.ATTR_API), phase);
             try {
-                String encodedPayload = new String(input.toString(charset).getBytes(UTF8_CHARSET_NAME));
-                JSONObject jsonPayload = new JSONObject(encodedPayload, getMaxDepth(ctx));
-                JSONObject jsonPayloadWithRoot = new JSONObject();
-                jsonPayloadWithRoot.append(this.configuration.getRootElement(), jsonPayload);
-                return Buffer.buffer(XML.toString(jsonPayloadWithRoot));
+                return transform(plan, input, charset, recorder);
             } catch (Exception ex) {
+                recorder.failure(ex);
                 throw new TransformationException("Unable to transform JSON into XML: " + ex.getMessage(), ex);
             }
         };
     }
 
-    protected int getMaxDepth(ExecutionContext ctx) {
-        if (this.maxDepth == null) {
-            this.maxDepth =
-                ctx.getComponent(Configuration.class).getProperty(POLICY_JSON_XML_MAXDEPTH, Integer.class, JSONTokener.DEFAULT_MAX_DEPTH);
+    /**
+     * Transform a JSON payload into XML. A UTF-8, US-ASCII or ISO-8859-1 payload is read as bytes, only its strings
+     * being decoded, a payload using another charset is decoded as it is read. The payload is read in place, and the XML
+     * is written into the scratch output of the thread, whose array is handed over to the returned buffer unless the
+     * thread keeps it for its next transformations. The limits of the plan are checked as the payload is read, a
+     * {@link io.gravitee.policy.json2xml.transformer.TranscodingLimitException} being thrown as soon as one of them is
+     * exceeded. A payload offloaded to a worker thread and reaching the fork-join threshold of the plan is split into
+     * segments transcoded in parallel, and is transcoded as a whole when it cannot be split.
+     *
+     * @param plan the plan of the transformation.
+     * @param input the JSON payload.
+     * @param charset the charset of the payload.
+     * @return the XML payload.
+     */
+    protected Buffer transform(final ExecutionPlan plan, final Buffer input, final Charset charset) {
+        return transform(plan, input, charset, TransformationMetrics.Recorder.NOOP);
+    }
+
+    /**
+     * Transform a JSON payload into XML, recording the statistics of the transformation when it succeeds.
+     *
+     * @param plan the plan of the transformation.
+     * @param input the JSON payload.
+     * @param charset the charset of the payload.
+     * @param recorder the recorder of the transformation.
+     * @return the XML payload.
+     */
+    protected Buffer transform(
+        final ExecutionPlan plan,
+        final Buffer input,
+        final Charset charset,
+        final TransformationMetrics.Recorder recorder
+    ) {
+        final TranscodingLimits limits = plan.getLimits();
+        limits.checkInputSize(input.length());
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            final ByteBuffer bytes = read(input);
+            if (forks(plan, input.length())) {
+                final Utf8ByteSink output = scratch.output(input.length()).limit(limits);
+                final TranscodingStatistics statistics = plan.getForkJoin().transcode(onHeap(bytes), charset, output);
+                if (statistics != null) {
+                    final Buffer xml = toBuffer(output, scratch);
+                    recorder.success(statistics, input.length(), xml.length());
+                    return xml;
+                }
+            }
+            final JSONTokener tokener = scratch.tokener(bytes, charset, plan.getMaxDepth());
+
+            final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(
+                tokener.limit(limits),
+                plan.isPreserveNumberFormat(),
+                plan.getTags(),
+                limits
+            );
+
+            final Buffer xml = toBuffer(
+                transcoder.transcode(
+                    plan.getRootElement(),
+                    plan.getRecordElement(),
+                    plan.isDelimited(),
+                    scratch.output(input.length()).limit(limits)
+                ),
+                scratch
+            );
+            recorder.success(transcoder, input.length(), xml.length());
+            return xml;
+        }
+    }
+
+    /**
+     * Transform a batch of JSON messages into a single XML payload, each message being written as a record of the
+     * root element. The scratch of the thread is shared by the whole batch: each message is read in place in turn,
+     * and the XML of all of them is written into its output. The limits of the plan apply to
+     * each message, except the maximum output size which applies to the whole XML.
+     *
+     * @param plan the plan of the transformation, whose messages are batched.
+     * @param inputs the JSON messages.
+     * @param charset the charset of the messages.
+     * @param recorder the recorder of the transformation.
+     * @return the XML payload.
+     */
+    protected Buffer transform(
+        final ExecutionPlan plan,
+        final List<Buffer> inputs,
+        final Charset charset,
+        final TransformationMetrics.Recorder recorder
+    ) {
+        final TranscodingLimits limits = plan.getLimits();
+        final String recordElement = plan.getBatching().getRecordElement();
+        long length = 0;
+        for (Buffer input : inputs) {
+            limits.checkInputSize(input.length());
+            length += input.length();
+        }
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            final Utf8ByteSink output = scratch.output((int) Math.min(length, Integer.MAX_VALUE)).limit(limits);
+            int elementCount = 1;
+            int depth = 1;
+            plan.getTags().open(plan.getRootElement(), output);
+            for (Buffer input : inputs) {
+                final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(
+                    scratch.tokener(read(input), charset, plan.getMaxDepth()).limit(limits),
+                    plan.isPreserveNumberFormat(),
+                    plan.getTags(),
+                    limits
+                );
+                transcoder.transcode(recordElement, plan.getRecordElement(), plan.isDelimited(), output);
+                elementCount += transcoder.elementCount();
+                depth = Math.max(depth, transcoder.depth() + 1);
+            }
+            plan.getTags().close(plan.getRootElement(), output);
+
+            final Buffer xml = toBuffer(output, scratch);
+            recorder.success(TranscodingStatistics.of(elementCount, depth), length, xml.length());
+            return xml;
+        }
+    }
+
+    /**
+     * @return the readable bytes of a buffer, read in place without being copied.
+     */
+    protected static ByteBuffer read(Buffer buffer) {
+        final ByteBuf bytes = buffer.getNativeBuffer();
+        return bytes.nioBuffer(bytes.readerIndex(), bytes.readableBytes());
+    }
+
+    /**
+     * @return the given bytes when they are backed by an array, otherwise a copy of them on the heap, the segments of a
+     * payload being split from its array.
+     */
+    private static ByteBuffer onHeap(ByteBuffer bytes) {
+        if (bytes.hasArray()) {
+            return bytes;
+        }
+        return ByteBuffer.allocate(bytes.remaining()).put(bytes.duplicate()).flip();
+    }
+
+    /**
+     * Hand the bytes of a sink over to a new buffer, copying them only when the scratch keeps the array of the sink for
+     * the next transformations of the thread.
+     */
+    protected static Buffer toBuffer(Utf8ByteSink xml, TranscodingScratch scratch) {
+        if (scratch.retains(xml)) {
+            return Buffer.buffer(Unpooled.wrappedBuffer(xml.toByteArray()));
+        }
+        return toBuffer(xml);
+    }
+
+    /**
+     * Hand the bytes of a sink owned by the caller over to a new buffer, without copying them.
+     */
+    protected static Buffer toBuffer(Utf8ByteSink xml) {
+        return Buffer.buffer(Unpooled.wrappedBuffer(xml.array(), 0, xml.writeIndex()));
+    }
+
+    /**
+     * The V3 engine transforms the payloads on the event loop, which must never wait for the fork-join pool.
+     *
+     * @return true if the payload is split into segments transcoded by the fork-join pool.
+     */
+    protected boolean forks(final ExecutionPlan plan, final long length) {
+        return false;
+    }
+
+    /**
+     * @return the plan of the transformations, built from the configuration of the gateway on the first call.
+     */
+    protected ExecutionPlan plan(final ExecutionContext ctx) {
+        final ExecutionPlan current = plan;
+        return current != null ? current : plan(ctx.getComponent(Configuration.class));
+    }
+
+    /**
+     * @return the plan of the transformations, built from the given configuration of the gateway on the first call.
+     */
+    protected ExecutionPlan plan(final Configuration nodeConfiguration) {
+        ExecutionPlan current = plan;
+        if (current == null) {
+            // Concurrent creations are harmless, they build equivalent plans.
+            current = ExecutionPlan.of(configuration, nodeConfiguration);
+            plan = current;
         }
-        return this.maxDepth;
+        return current;
     }
 }
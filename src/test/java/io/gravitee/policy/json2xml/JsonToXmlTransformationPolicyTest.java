@@ -21,8 +21,11 @@ import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DE
 import static io.gravitee.policy.v3.json2xml.JsonToXmlTransformationPolicyV3.CONTENT_TYPE;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import io.gravitee.gateway.api.buffer.Buffer;
@@ -36,20 +39,43 @@ import io.gravitee.gateway.reactive.api.message.DefaultMessage;
 import io.gravitee.gateway.reactive.api.message.Message;
 import io.gravitee.gateway.reactive.core.context.interruption.InterruptionFailureException;
 import io.gravitee.node.api.configuration.Configuration;
+import io.gravitee.policy.json2xml.configuration.ExecutionPlan;
+import io.gravitee.policy.json2xml.configuration.InputMode;
 import io.gravitee.policy.json2xml.configuration.JsonToXmlTransformationPolicyConfiguration;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics;
+import io.gravitee.policy.json2xml.offload.TransformationOffloader;
+import io.netty.buffer.ByteBuf;
 import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.FlowableTransformer;
 import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.MaybeTransformer;
 import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.processors.PublishProcessor;
+import io.reactivex.rxjava3.subscribers.TestSubscriber;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
@@ -82,9 +108,15 @@ class JsonToXmlTransformationPolicyTest {
     @Captor
     private ArgumentCaptor<MaybeTransformer<Buffer, Buffer>> onBodyCaptor;
 
+    @Captor
+    private ArgumentCaptor<FlowableTransformer<Buffer, Buffer>> onChunksCaptor;
+
     @Captor
     private ArgumentCaptor<Function<Message, Maybe<Message>>> onMessageCaptor;
 
+    @Captor
+    private ArgumentCaptor<FlowableTransformer<Message, Message>> onMessagesCaptor;
+
     @BeforeEach
     void setUp() {
         cut = new JsonToXmlTransformationPolicy(configuration);
@@ -125,6 +157,84 @@ class JsonToXmlTransformationPolicyTest {
         verifyHeaders(headers);
     }
 
+    @Test
+    @DisplayName("Should transform payload encoded with another charset than UTF-8 OnRequest")
+    void shouldTransformNonUtf8PayloadOnRequest() {
+        final HttpHeaders headers = HttpHeaders.create();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, "application/json;charset=ISO-8859-1");
+
+        when(request.onBody(onBodyCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(request.headers()).thenReturn(headers);
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        final Buffer input = Buffer.buffer("{\"name\":\"Crème brûlée\"}".getBytes(StandardCharsets.ISO_8859_1));
+        final TestObserver<Buffer> bodyObs = ((Maybe<Buffer>) onBodyCaptor.getValue().apply(Maybe.just(input))).test();
+
+        bodyObs.assertValue(buffer -> "<root><name>Crème brûlée</name></root>".equals(buffer.toString(StandardCharsets.UTF_8)));
+        verifyHeaders(headers);
+    }
+
+    @Test
+    @DisplayName("Should transform payload reaching the offload threshold on a worker OnResponse")
+    void shouldTransformLargePayloadOnWorkerOnResponse() throws Exception {
+        final String input = loadResource("/io/gravitee/policy/json2xml/input.json");
+        final String expected = loadResource("/io/gravitee/policy/json2xml/expected.xml");
+        final HttpHeaders headers = HttpHeaders.create();
+
+        lenient()
+            .when(mockConfiguration.getProperty(eq(TransformationOffloader.POLICY_JSON_XML_OFFLOAD_WORKERS), eq(Integer.class), any()))
+            .thenReturn(1);
+        lenient()
+            .when(mockConfiguration.getProperty(eq(TransformationOffloader.POLICY_JSON_XML_OFFLOAD_QUEUE), eq(Integer.class), any()))
+            .thenReturn(16);
+        when(configuration.getOffloadThreshold()).thenReturn(1);
+        when(response.onBody(onBodyCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(response.headers()).thenReturn(headers);
+
+        cut.onResponse(ctx).test().assertNoValues();
+
+        final TestObserver<Buffer> bodyObs = ((Maybe<Buffer>) onBodyCaptor.getValue().apply(Maybe.just(Buffer.buffer(input)))).test();
+
+        bodyObs.await(5, TimeUnit.SECONDS);
+        bodyObs.assertValue(buffer -> expected.equals(buffer.toString()));
+        verifyHeaders(headers);
+    }
+
+    @Test
+    @DisplayName("Should leave unchanged a body which is not JSON OnRequest")
+    void shouldBypassNonJsonBodyOnRequest() {
+        final HttpHeaders headers = HttpHeaders.create();
+        when(configuration.isBypassNonJson()).thenReturn(true);
+        when(request.onBody(onBodyCaptor.capture())).thenReturn(Completable.complete());
+        when(request.headers()).thenReturn(headers);
+        cut = new JsonToXmlTransformationPolicy(configuration);
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        final Buffer input = Buffer.buffer("<html><body>Not found</body></html>");
+        final TestObserver<Buffer> bodyObs = ((Maybe<Buffer>) onBodyCaptor.getValue().apply(Maybe.just(input))).test();
+
+        bodyObs.assertValue(input);
+        assertThat(headers.names()).doesNotContain(HttpHeaderNames.CONTENT_TYPE);
+    }
+
+    @Test
+    @DisplayName("Should not read a response which is not JSON OnResponse")
+    void shouldBypassNonJsonContentTypeOnResponse() {
+        final HttpHeaders headers = HttpHeaders.create();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, "text/html");
+        when(configuration.isBypassNonJson()).thenReturn(true);
+        when(response.headers()).thenReturn(headers);
+        cut = new JsonToXmlTransformationPolicy(configuration);
+
+        cut.onResponse(ctx).test().assertComplete();
+
+        verify(response, never()).onBody(any());
+    }
+
     @Test
     @DisplayName("Should do nothing when no body OnRequest")
     void shouldDoNothingWhenNoBodyOnRequest() {
@@ -210,6 +320,81 @@ class JsonToXmlTransformationPolicyTest {
             });
     }
 
+    @Test
+    @DisplayName("Should interrupt with limit failure when payload exceeds the limits OnRequest")
+    void shouldInterruptWhenLimitExceededOnRequest() throws IOException {
+        final String input = loadResource("/io/gravitee/policy/json2xml/input.json");
+        when(configuration.getMaxElements()).thenReturn(2);
+        when(configuration.getRootElement()).thenReturn("root");
+        when(request.onBody(onBodyCaptor.capture())).thenReturn(Completable.complete());
+        cut = new JsonToXmlTransformationPolicy(configuration);
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        ((Maybe<Buffer>) onBodyCaptor.getValue().apply(Maybe.just(Buffer.buffer(input)))).test()
+            .assertError(throwable -> {
+                assertThat(throwable).isInstanceOf(InterruptionFailureException.class);
+                ExecutionFailure executionFailure = ((InterruptionFailureException) throwable).getExecutionFailure();
+                assertThat(executionFailure.key()).isEqualTo("JSON_PAYLOAD_LIMIT_EXCEEDED");
+                assertThat(executionFailure.statusCode()).isEqualTo(BAD_REQUEST_400);
+
+                return true;
+            });
+    }
+
+    @Test
+    @DisplayName("Should stop reading the body as soon as it exceeds the maximum input size OnRequest")
+    void shouldStopReadingBodyWhenInputSizeExceededOnRequest() {
+        when(configuration.getMaxInputSize()).thenReturn(16);
+        when(request.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(request.headers()).thenReturn(HttpHeaders.create());
+        cut = new JsonToXmlTransformationPolicy(configuration);
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        final AtomicInteger read = new AtomicInteger();
+        final Flowable<Buffer> input = chunks("{\"name\":\"" + "a".repeat(64) + "\"}", 8).doOnNext(chunk -> read.incrementAndGet());
+        Flowable
+            .fromPublisher(onChunksCaptor.getValue().apply(input))
+            .test()
+            .assertError(throwable -> {
+                assertThat(throwable).isInstanceOf(InterruptionFailureException.class);
+                ExecutionFailure executionFailure = ((InterruptionFailureException) throwable).getExecutionFailure();
+                assertThat(executionFailure.key()).isEqualTo("JSON_PAYLOAD_LIMIT_EXCEEDED");
+                assertThat(executionFailure.statusCode()).isEqualTo(BAD_REQUEST_400);
+
+                return true;
+            });
+        assertThat(read).hasValue(3);
+    }
+
+    @Test
+    @DisplayName("Should reject the body from its Content-Length before reading it OnRequest")
+    void shouldRejectBodyFromContentLengthOnRequest() {
+        final HttpHeaders headers = HttpHeaders.create();
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, "1024");
+
+        when(configuration.getMaxInputSize()).thenReturn(16);
+        when(request.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(request.headers()).thenReturn(headers);
+        cut = new JsonToXmlTransformationPolicy(configuration);
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        final AtomicInteger subscriptions = new AtomicInteger();
+        final Flowable<Buffer> input = chunks("{\"a\":1}", 8).doOnSubscribe(subscription -> subscriptions.incrementAndGet());
+        Flowable
+            .fromPublisher(onChunksCaptor.getValue().apply(input))
+            .test()
+            .assertError(throwable -> {
+                ExecutionFailure executionFailure = ((InterruptionFailureException) throwable).getExecutionFailure();
+                assertThat(executionFailure.key()).isEqualTo("JSON_PAYLOAD_LIMIT_EXCEEDED");
+
+                return true;
+            });
+        assertThat(subscriptions).hasValue(0);
+    }
+
     @Test
     @DisplayName("Should transform and add header OnResponse")
     void shouldTransformAndAddHeadersOnResponse() throws Exception {
@@ -267,6 +452,198 @@ class JsonToXmlTransformationPolicyTest {
             });
     }
 
+    @Test
+    @DisplayName("Should transform chunk by chunk and add streaming headers OnRequest")
+    void shouldTransformChunksOnRequest() throws Exception {
+        final String input = loadResource("/io/gravitee/policy/json2xml/input.json");
+        final String expected = loadResource("/io/gravitee/policy/json2xml/expected.xml");
+        final HttpHeaders headers = HttpHeaders.create();
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, Integer.toString(input.length()));
+
+        when(configuration.isStreaming()).thenReturn(true);
+        when(request.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(request.headers()).thenReturn(headers);
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        final TestSubscriber<Buffer> chunksObs = Flowable.fromPublisher(onChunksCaptor.getValue().apply(chunks(input, 64))).test();
+
+        chunksObs.assertComplete();
+        assertThat(chunksObs.values()).hasSizeGreaterThan(1);
+        assertThat(chunksObs.values().stream().map(Buffer::toString).reduce("", String::concat)).isEqualTo(expected);
+        assertThat(headers.getAll(HttpHeaderNames.CONTENT_TYPE).get(0)).isEqualTo(CONTENT_TYPE);
+        assertThat(headers.get(HttpHeaderNames.TRANSFER_ENCODING)).isEqualTo("chunked");
+        assertThat(headers.names()).doesNotContain(HttpHeaderNames.CONTENT_LENGTH);
+    }
+
+    @Test
+    @DisplayName("Should transform chunk by chunk into direct buffers released once the body ends OnResponse")
+    void shouldTransformChunksIntoDirectBuffersOnResponse() throws Exception {
+        final String input = loadResource("/io/gravitee/policy/json2xml/input.json");
+        final String expected = loadResource("/io/gravitee/policy/json2xml/expected.xml");
+
+        when(configuration.isStreaming()).thenReturn(true);
+        when(configuration.isDirectOutput()).thenReturn(true);
+        when(response.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(response.headers()).thenReturn(HttpHeaders.create());
+
+        cut.onResponse(ctx).test().assertNoValues();
+
+        final List<Buffer> xml = new ArrayList<>();
+        final TestSubscriber<String> chunksObs = Flowable
+            .fromPublisher(onChunksCaptor.getValue().apply(chunks(input, 64)))
+            .doOnNext(xml::add)
+            .map(Buffer::toString)
+            .test();
+
+        chunksObs.assertComplete();
+        assertThat(String.join("", chunksObs.values())).isEqualTo(expected);
+        assertThat(xml).hasSizeGreaterThan(1).allSatisfy(buffer -> assertThat(buffer.getNativeBuffer().refCnt()).isZero());
+    }
+
+    @Test
+    @DisplayName("Should release the direct buffers of a streamed body cancelled before its end OnResponse")
+    void shouldReleaseDirectBuffersOnCancelOnResponse() throws Exception {
+        final String input = loadResource("/io/gravitee/policy/json2xml/input.json");
+
+        when(configuration.isStreaming()).thenReturn(true);
+        when(configuration.isDirectOutput()).thenReturn(true);
+        when(response.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(response.headers()).thenReturn(HttpHeaders.create());
+
+        cut.onResponse(ctx).test().assertNoValues();
+
+        final TestSubscriber<Buffer> chunksObs = Flowable.fromPublisher(onChunksCaptor.getValue().apply(chunks(input, 64))).test(1);
+        chunksObs.assertValueCount(1);
+        final ByteBuf first = chunksObs.values().get(0).getNativeBuffer();
+        assertThat(first.refCnt()).isPositive();
+
+        chunksObs.cancel();
+
+        assertThat(first.refCnt()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should leave an empty body and its headers as they are in streaming mode OnRequest")
+    void shouldLeaveEmptyChunksOnRequest() {
+        final HttpHeaders headers = HttpHeaders.create();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, "application/json");
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, "0");
+
+        when(configuration.isStreaming()).thenReturn(true);
+        when(request.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(request.headers()).thenReturn(headers);
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        final TestSubscriber<Buffer> chunksObs = Flowable.fromPublisher(onChunksCaptor.getValue().apply(Flowable.empty())).test();
+
+        chunksObs.assertComplete();
+        chunksObs.assertNoValues();
+        assertThat(headers.get(HttpHeaderNames.CONTENT_TYPE)).isEqualTo("application/json");
+        assertThat(headers.get(HttpHeaderNames.CONTENT_LENGTH)).isEqualTo("0");
+        assertThat(headers.names()).doesNotContain(HttpHeaderNames.TRANSFER_ENCODING);
+    }
+
+    @Test
+    @DisplayName("Should transform NDJSON record by record OnResponse")
+    void shouldTransformNdjsonChunksOnResponse() {
+        final HttpHeaders headers = HttpHeaders.create();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, "application/x-ndjson");
+
+        when(configuration.getInputMode()).thenReturn(InputMode.NDJSON);
+        when(response.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(configuration.getRecordElement()).thenReturn("item");
+        when(response.headers()).thenReturn(headers);
+
+        cut.onResponse(ctx).test().assertNoValues();
+
+        final TestSubscriber<Buffer> chunksObs = Flowable
+            .fromPublisher(onChunksCaptor.getValue().apply(chunks("{\"id\":1,\"name\":\"a\"}\n{\"id\":2,\"name\":\"b\"}\n", 8)))
+            .test();
+
+        chunksObs.assertComplete();
+        assertThat(chunksObs.values().stream().map(Buffer::toString).reduce("", String::concat))
+            .isEqualTo("<root><item><id>1</id><name>a</name></item><item><id>2</id><name>b</name></item></root>");
+        assertThat(headers.get(HttpHeaderNames.TRANSFER_ENCODING)).isEqualTo("chunked");
+    }
+
+    @Test
+    @DisplayName("Should leave an empty NDJSON body and its headers as they are OnResponse")
+    void shouldLeaveEmptyNdjsonChunksOnResponse() {
+        final HttpHeaders headers = HttpHeaders.create();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, "application/x-ndjson");
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, "0");
+
+        when(configuration.getInputMode()).thenReturn(InputMode.NDJSON);
+        when(response.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(configuration.getRecordElement()).thenReturn("item");
+        when(response.headers()).thenReturn(headers);
+
+        cut.onResponse(ctx).test().assertNoValues();
+
+        final TestSubscriber<Buffer> chunksObs = Flowable.fromPublisher(onChunksCaptor.getValue().apply(Flowable.empty())).test();
+
+        chunksObs.assertComplete();
+        chunksObs.assertNoValues();
+        assertThat(headers.get(HttpHeaderNames.CONTENT_TYPE)).isEqualTo("application/x-ndjson");
+        assertThat(headers.get(HttpHeaderNames.CONTENT_LENGTH)).isEqualTo("0");
+        assertThat(headers.names()).doesNotContain(HttpHeaderNames.TRANSFER_ENCODING);
+    }
+
+    @Test
+    @DisplayName("Should transform the whole body when it is not UTF-8 in streaming mode OnResponse")
+    void shouldTransformNonUtf8ChunksAsWholeOnResponse() {
+        final HttpHeaders headers = HttpHeaders.create();
+        headers.set(HttpHeaderNames.CONTENT_TYPE, "application/json;charset=ISO-8859-1");
+
+        when(configuration.isStreaming()).thenReturn(true);
+        when(response.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(response.headers()).thenReturn(headers);
+
+        cut.onResponse(ctx).test().assertNoValues();
+
+        final Flowable<Buffer> input = Flowable.just(
+            Buffer.buffer("{\"name\":\"Crè".getBytes(StandardCharsets.ISO_8859_1)),
+            Buffer.buffer("me brûlée\"}".getBytes(StandardCharsets.ISO_8859_1))
+        );
+        final TestSubscriber<Buffer> chunksObs = Flowable.fromPublisher(onChunksCaptor.getValue().apply(input)).test();
+
+        chunksObs.assertValue(buffer -> "<root><name>Crème brûlée</name></root>".equals(buffer.toString(StandardCharsets.UTF_8)));
+        verifyHeaders(headers);
+    }
+
+    @Test
+    @DisplayName("Should interrupt with failure when invalid json in streaming mode OnResponse")
+    void shouldInterruptWhenInvalidJsonChunksOnResponse() throws IOException {
+        final String invalidInput = loadResource("/io/gravitee/policy/json2xml/invalid-input.json");
+
+        when(configuration.isStreaming()).thenReturn(true);
+        when(response.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(response.headers()).thenReturn(HttpHeaders.create());
+
+        cut.onResponse(ctx).test().assertNoValues();
+
+        Flowable
+            .fromPublisher(onChunksCaptor.getValue().apply(chunks(invalidInput, 16)))
+            .test()
+            .assertError(throwable -> {
+                assertThat(throwable).isInstanceOf(InterruptionFailureException.class);
+                ExecutionFailure executionFailure = ((InterruptionFailureException) throwable).getExecutionFailure();
+                assertThat(executionFailure.key()).isEqualTo("JSON_INVALID_PAYLOAD");
+                assertThat(executionFailure.statusCode()).isEqualTo(INTERNAL_SERVER_ERROR_500);
+
+                return true;
+            });
+    }
+
     @Test
     @DisplayName("Should transform OnMessageRequest")
     void shouldTransformOnMessageRequest() throws Exception {
@@ -339,6 +716,86 @@ class JsonToXmlTransformationPolicyTest {
         });
     }
 
+    @Test
+    @DisplayName("Should transform messages by batches OnMessageResponse")
+    void shouldTransformBatchesOnMessageResponse() {
+        when(configuration.isBatching()).thenReturn(true);
+        when(configuration.getBatchMaxMessages()).thenReturn(2);
+        when(configuration.getRecordElement()).thenReturn("item");
+        when(response.onMessages(onMessagesCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(response.headers()).thenReturn(HttpHeaders.create());
+
+        cut.onMessageResponse(ctx).test().assertNoValues();
+
+        final AtomicInteger acks = new AtomicInteger();
+        final Message first = DefaultMessage.builder().content(Buffer.buffer("{\"id\":1}")).ackRunnable(acks::incrementAndGet).build();
+        final Message second = DefaultMessage.builder().content(Buffer.buffer("{\"id\":2}")).ackRunnable(acks::incrementAndGet).build();
+        first.headers().set("X-First", "1");
+        final TestSubscriber<Message> messagesObs = Flowable
+            .fromPublisher(onMessagesCaptor.getValue().apply(Flowable.just(first, second, new DefaultMessage("{\"id\":3}"))))
+            .test();
+
+        messagesObs.assertComplete();
+        assertThat(messagesObs.values())
+            .extracting(message -> message.content().toString())
+            .containsExactly("<root><item><id>1</id></item><item><id>2</id></item></root>", "<root><item><id>3</id></item></root>");
+        final Message batched = messagesObs.values().get(0);
+        verifyHeaders(batched.headers());
+        assertThat(batched).isNotSameAs(first);
+        assertThat(batched.headers().contains("X-First")).isFalse();
+
+        batched.ack();
+        assertThat(acks).hasValue(2);
+        batched.error(true);
+        assertThat(first.error()).isTrue();
+        assertThat(second.error()).isTrue();
+        assertThat(messagesObs.values().get(1).error()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should transform messages concurrently in their order OnMessageResponse, stopping at the first failure")
+    void shouldTransformMessagesConcurrentlyOnMessageResponse() {
+        lenient()
+            .when(mockConfiguration.getProperty(eq(TransformationOffloader.POLICY_JSON_XML_OFFLOAD_WORKERS), eq(Integer.class), any()))
+            .thenReturn(2);
+        lenient()
+            .when(mockConfiguration.getProperty(eq(TransformationOffloader.POLICY_JSON_XML_OFFLOAD_QUEUE), eq(Integer.class), any()))
+            .thenReturn(16);
+        when(configuration.getMessageParallelism()).thenReturn(4);
+        when(response.onMessages(onMessagesCaptor.capture())).thenReturn(Completable.complete());
+        when(configuration.getRootElement()).thenReturn("root");
+        when(response.headers()).thenReturn(HttpHeaders.create());
+
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        cut =
+            new JsonToXmlTransformationPolicy(configuration) {
+                @Override
+                protected Buffer transform(ExecutionPlan plan, Buffer input, Charset charset, TransformationMetrics.Recorder recorder) {
+                    threads.add(Thread.currentThread().getName());
+                    return super.transform(plan, input, charset, recorder);
+                }
+            };
+
+        cut.onMessageResponse(ctx).test().assertNoValues();
+
+        final TestSubscriber<Message> messagesObs = Flowable
+            .fromPublisher(
+                onMessagesCaptor
+                    .getValue()
+                    .apply(Flowable.range(1, 20).map(id -> new DefaultMessage(id == 15 ? "{\"id\":" : "{\"id\":" + id + "}")))
+            )
+            .test();
+
+        messagesObs.awaitDone(5, TimeUnit.SECONDS);
+        messagesObs.assertError(InterruptionFailureException.class);
+        assertThat(messagesObs.values())
+            .extracting(message -> message.content().toString())
+            .containsExactlyElementsOf(IntStream.range(1, 15).mapToObj(id -> "<root><id>" + id + "</id></root>").toList());
+        // Without an offload threshold, the messages are still transformed by the worker threads.
+        assertThat(threads).isNotEmpty().allMatch(thread -> thread.startsWith("gravitee-json-xml-worker-"));
+    }
+
     @Test
     @DisplayName("Should raise an ExecutionFailure on OnMessageResponse with wrong json content")
     void shouldRaiseExceptionOnMessageResponseWithWrongContent() throws Exception {
@@ -367,6 +824,194 @@ class JsonToXmlTransformationPolicyTest {
             });
     }
 
+    @Test
+    @DisplayName("Should raise an ExecutionFailure on OnMessageRequest with no content")
+    void shouldRaiseExceptionOnMessageRequestWithoutContent() {
+        when(request.onMessage(onMessageCaptor.capture())).thenReturn(Completable.complete());
+        when(request.headers()).thenReturn(HttpHeaders.create());
+
+        cut.onMessageRequest(ctx).test().assertNoValues();
+
+        onMessageCaptor
+            .getValue()
+            .apply(DefaultMessage.builder().headers(HttpHeaders.create()).build())
+            .test()
+            .assertError(throwable -> {
+                assertThat(throwable).isInstanceOf(InterruptionFailureException.class);
+                ExecutionFailure executionFailure = ((InterruptionFailureException) throwable).getExecutionFailure();
+                assertThat(executionFailure.key()).isEqualTo("JSON_INVALID_MESSAGE_PAYLOAD");
+
+                return true;
+            });
+    }
+
+    @Test
+    @DisplayName("Should raise a limit ExecutionFailure on OnMessageResponse with too large json content")
+    void shouldRaiseLimitExceptionOnMessageResponseWithTooLargeContent() {
+        when(configuration.getMaxInputSize()).thenReturn(8);
+        when(response.onMessage(onMessageCaptor.capture())).thenReturn(Completable.complete());
+        when(response.headers()).thenReturn(HttpHeaders.create());
+        cut = new JsonToXmlTransformationPolicy(configuration);
+
+        cut.onMessageResponse(ctx).test().assertNoValues();
+
+        onMessageCaptor
+            .getValue()
+            .apply(new DefaultMessage("{\"a\":\"bcdef\"}"))
+            .test()
+            .assertError(throwable -> {
+                assertThat(throwable).isInstanceOf(InterruptionFailureException.class);
+                ExecutionFailure executionFailure = ((InterruptionFailureException) throwable).getExecutionFailure();
+                assertThat(executionFailure.key()).isEqualTo("JSON_MESSAGE_PAYLOAD_LIMIT_EXCEEDED");
+                assertThat(executionFailure.statusCode()).isEqualTo(INTERNAL_SERVER_ERROR_500);
+
+                return true;
+            });
+    }
+
+    @Test
+    @DisplayName("Should interrupt the request when the bypassed status codes are invalid")
+    void shouldInterruptOnInvalidStatusCodes() {
+        when(configuration.getBypassStatusCodes()).thenReturn("500-400");
+        when(ctx.interruptWith(any(ExecutionFailure.class)))
+            .thenAnswer(invocation -> Completable.error(new InterruptionFailureException(invocation.getArgument(0))));
+
+        cut
+            .onRequest(ctx)
+            .test()
+            .assertError(error ->
+                error instanceof InterruptionFailureException failure &&
+                "JSON_XML_INVALID_CONFIGURATION".equals(failure.getExecutionFailure().key()) &&
+                failure.getExecutionFailure().statusCode() == INTERNAL_SERVER_ERROR_500
+            );
+        verify(request, never()).onBody(any());
+    }
+
+    @Test
+    @DisplayName("Should interrupt the messages when their batches are invalid")
+    void shouldInterruptMessagesOnInvalidBatching() {
+        when(configuration.isBatching()).thenReturn(true);
+        when(configuration.getBatchMaxMessages()).thenReturn(0);
+        when(response.onMessages(onMessagesCaptor.capture())).thenReturn(Completable.complete());
+        when(ctx.interruptMessagesWith(any(ExecutionFailure.class)))
+            .thenAnswer(invocation -> Flowable.error(new InterruptionFailureException(invocation.getArgument(0))));
+
+        cut.onMessageResponse(ctx).test().assertComplete();
+
+        Flowable
+            .fromPublisher(onMessagesCaptor.getValue().apply(Flowable.just(new DefaultMessage("{}"))))
+            .test()
+            .assertError(error ->
+                error instanceof InterruptionFailureException failure &&
+                "JSON_XML_INVALID_CONFIGURATION".equals(failure.getExecutionFailure().key())
+            );
+    }
+
+    @Test
+    @DisplayName("Should transform a body spilled to a file, and delete its files once its XML has been read OnRequest")
+    void shouldTransformSpilledBodyOnRequest(@TempDir Path spillDirectory) throws Exception {
+        final String input = loadResource("/io/gravitee/policy/json2xml/input.json");
+        final String expected = loadResource("/io/gravitee/policy/json2xml/expected.xml");
+        final HttpHeaders headers = HttpHeaders.create();
+
+        when(configuration.getRootElement()).thenReturn("root");
+        spillTo(spillDirectory);
+        when(request.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+        when(request.headers()).thenReturn(headers);
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        final TestSubscriber<Buffer> chunksObs = Flowable.fromPublisher(onChunksCaptor.getValue().apply(chunks(input, 8))).test();
+
+        chunksObs.awaitDone(5, TimeUnit.SECONDS).assertComplete();
+        final String xml = chunksObs.values().stream().map(Buffer::toString).collect(Collectors.joining());
+        assertThat(xml).isEqualTo(expected);
+        verifyHeaders(headers);
+        assertThat(headers.get(HttpHeaderNames.CONTENT_LENGTH))
+            .isEqualTo(Integer.toString(expected.getBytes(StandardCharsets.UTF_8).length));
+        assertThat(spillDirectory).isEmptyDirectory();
+    }
+
+    @Test
+    @DisplayName("Should delete the files of a spilled body which cannot be transformed OnRequest")
+    void shouldDeleteSpilledFilesOnErrorOnRequest(@TempDir Path spillDirectory) throws IOException {
+        final String invalidInput = loadResource("/io/gravitee/policy/json2xml/invalid-input.json");
+
+        spillTo(spillDirectory);
+        when(request.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        Flowable
+            .fromPublisher(onChunksCaptor.getValue().apply(chunks(invalidInput, 8)))
+            .test()
+            .awaitDone(5, TimeUnit.SECONDS)
+            .assertError(throwable -> {
+                ExecutionFailure executionFailure = ((InterruptionFailureException) throwable).getExecutionFailure();
+                assertThat(executionFailure.key()).isEqualTo("JSON_INVALID_PAYLOAD");
+
+                return true;
+            });
+        assertThat(spillDirectory).isEmptyDirectory();
+    }
+
+    @Test
+    @DisplayName("Should delete the files of a spilled body cancelled while it is received OnRequest")
+    void shouldDeleteSpilledFilesOnCancelOnRequest(@TempDir Path spillDirectory) throws IOException {
+        spillTo(spillDirectory);
+        when(request.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        final PublishProcessor<Buffer> input = PublishProcessor.create();
+        final TestSubscriber<Buffer> chunksObs = Flowable.fromPublisher(onChunksCaptor.getValue().apply(input)).test();
+        input.onNext(Buffer.buffer("{\"name\":\"" + "a".repeat(32)));
+        input.onNext(Buffer.buffer("a".repeat(32)));
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertThat(files).hasSize(1);
+        }
+
+        chunksObs.cancel();
+
+        assertThat(input.hasSubscribers()).isFalse();
+        assertThat(spillDirectory).isEmptyDirectory();
+    }
+
+    @Test
+    @DisplayName("Should delete the files of a spilled body cancelled while its XML is read OnRequest")
+    void shouldDeleteSpilledFilesOnCancelWhileReadingXmlOnRequest(@TempDir Path spillDirectory) throws Exception {
+        final String input = loadResource("/io/gravitee/policy/json2xml/input.json");
+
+        when(configuration.getRootElement()).thenReturn("root");
+        spillTo(spillDirectory);
+        when(request.onChunks(onChunksCaptor.capture())).thenReturn(Completable.complete());
+
+        cut.onRequest(ctx).test().assertNoValues();
+
+        final TestSubscriber<Buffer> chunksObs = Flowable.fromPublisher(onChunksCaptor.getValue().apply(chunks(input, 8))).test(0);
+        chunksObs.request(1);
+        chunksObs.awaitCount(1);
+        chunksObs.assertValueCount(1).assertNotComplete();
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertThat(files).hasSize(2);
+        }
+
+        chunksObs.cancel();
+
+        assertThat(spillDirectory).isEmptyDirectory();
+    }
+
+    private void spillTo(Path spillDirectory) {
+        when(configuration.getSpillThreshold()).thenReturn(16);
+        lenient().when(mockConfiguration.getProperty(ExecutionPlan.POLICY_JSON_XML_SPILL_DIRECTORY)).thenReturn(spillDirectory.toString());
+        lenient()
+            .when(mockConfiguration.getProperty(eq(TransformationOffloader.POLICY_JSON_XML_OFFLOAD_WORKERS), eq(Integer.class), any()))
+            .thenReturn(1);
+        lenient()
+            .when(mockConfiguration.getProperty(eq(TransformationOffloader.POLICY_JSON_XML_OFFLOAD_QUEUE), eq(Integer.class), any()))
+            .thenReturn(16);
+    }
+
     private void verifyHeaders(HttpHeaders headers) {
         assertThat(headers.names()).contains(HttpHeaderNames.CONTENT_TYPE);
         assertThat(headers.getAll(HttpHeaderNames.CONTENT_TYPE).get(0)).isEqualTo(CONTENT_TYPE);
@@ -374,6 +1019,13 @@ class JsonToXmlTransformationPolicyTest {
         assertThat(headers.names()).contains(HttpHeaderNames.CONTENT_LENGTH);
     }
 
+    private static Flowable<Buffer> chunks(String input, int chunkSize) {
+        final byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        return Flowable
+            .range(0, (bytes.length + chunkSize - 1) / chunkSize)
+            .map(i -> Buffer.buffer(Arrays.copyOfRange(bytes, i * chunkSize, Math.min((i + 1) * chunkSize, bytes.length))));
+    }
+
     private String loadResource(String resource) throws IOException {
         try (InputStream is = this.getClass().getResourceAsStream(resource)) {
             return new String(Objects.requireNonNull(is).readAllBytes(), StandardCharsets.UTF_8);
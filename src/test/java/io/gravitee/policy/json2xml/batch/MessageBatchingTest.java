@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.batch;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.processors.PublishProcessor;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subscribers.TestSubscriber;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+class MessageBatchingTest {
+
+    @Test
+    @DisplayName("Should close a batch once it holds the maximum number of messages")
+    void shouldCloseBatchByCount() {
+        final MessageBatching cut = new MessageBatching(3, 0, 0, "array");
+
+        cut
+            .batches(Flowable.range(1, 7), message -> 1, message -> false)
+            .test()
+            .assertValues(List.of(1, 2, 3), List.of(4, 5, 6), List.of(7))
+            .assertComplete();
+    }
+
+    @Test
+    @DisplayName("Should close a batch once its delay has elapsed, dropping the empty ones")
+    void shouldCloseBatchByDelay() {
+        final MessageBatching cut = new MessageBatching(10, 0, 100, "array");
+        final TestScheduler scheduler = new TestScheduler();
+        final PublishProcessor<Integer> messages = PublishProcessor.create();
+
+        final TestSubscriber<List<Integer>> batches = cut.batches(messages, message -> 1, message -> false, scheduler).test();
+        messages.onNext(1);
+        messages.onNext(2);
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        messages.onNext(3);
+        messages.onComplete();
+
+        batches.assertValues(List.of(1, 2), List.of(3)).assertComplete();
+    }
+
+    @Test
+    @DisplayName("Should close a batch by bytes without waiting for its delay")
+    void shouldCloseBatchByBytes() {
+        final MessageBatching cut = new MessageBatching(10, 10, 100, "array");
+        final TestScheduler scheduler = new TestScheduler();
+        final PublishProcessor<String> messages = PublishProcessor.create();
+
+        final TestSubscriber<List<String>> batches = cut.batches(messages, String::length, message -> false, scheduler).test();
+        messages.onNext("aaaaaa");
+        batches.assertNoValues();
+        messages.onNext("bbbbbb");
+        batches.assertValues(List.of("aaaaaa"));
+        messages.onNext("cccc");
+        batches.assertValues(List.of("aaaaaa"), List.of("bbbbbb", "cccc"));
+        messages.onNext("dd");
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        batches.assertValues(List.of("aaaaaa"), List.of("bbbbbb", "cccc"), List.of("dd"));
+    }
+
+    @Test
+    @DisplayName("Should split the messages by bytes, a message let through being alone in its batch")
+    void shouldSplitMessagesByBytes() {
+        final MessageBatching cut = new MessageBatching(10, 10, 0, "array");
+        final List<String> messages = List.of("aaaa", "bbbb", "cc", "dddddddddddd", "<x/>", "ee", "ff");
+
+        cut
+            .batches(Flowable.fromIterable(messages), String::length, message -> message.startsWith("<"))
+            .test()
+            .assertValues(List.of("aaaa", "bbbb", "cc"), List.of("dddddddddddd"), List.of("<x/>"), List.of("ee", "ff"))
+            .assertComplete();
+        new MessageBatching(10, 0, 0, "array")
+            .batches(Flowable.fromIterable(messages), String::length, message -> false)
+            .test()
+            .assertValues(messages)
+            .assertComplete();
+    }
+
+    @Test
+    @DisplayName("Should reject a batch without any message")
+    void shouldRejectEmptyBatch() {
+        assertThatThrownBy(() -> new MessageBatching(0, 0, 0, "array")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.bypass;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class BypassRulesTest {
+
+    private static final BypassRules ALL = new BypassRules(true, "204, 400-499 ,503", true, true);
+
+    @Test
+    @DisplayName("Should bypass nothing when no rule is enabled")
+    void shouldBypassNothing() {
+        assertThat(BypassRules.NONE.bypassContentType("text/html")).isFalse();
+        assertThat(BypassRules.NONE.bypassStatus(204)).isFalse();
+        assertThat(BypassRules.NONE.bypassAccept(() -> "application/json")).isFalse();
+        assertThat(BypassRules.NONE.bypassBody(bytes(""), StandardCharsets.UTF_8)).isFalse();
+        assertThat(BypassRules.NONE.bypassBody(bytes("<html/>"), StandardCharsets.UTF_8)).isFalse();
+        assertThat(BypassRules.NONE.inspectsBody()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should bypass content types which are not JSON")
+    void shouldBypassNonJsonContentType() {
+        assertThat(ALL.bypassContentType("text/html; charset=UTF-8")).isTrue();
+        assertThat(ALL.bypassContentType("application/xml")).isTrue();
+        assertThat(ALL.bypassContentType("application/json")).isFalse();
+        assertThat(ALL.bypassContentType("Application/JSON;charset=ISO-8859-1")).isFalse();
+        assertThat(ALL.bypassContentType("application/problem+json")).isFalse();
+        assertThat(ALL.bypassContentType(null)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should bypass status codes and ranges")
+    void shouldBypassStatusCodes() {
+        assertThat(ALL.bypassStatus(204)).isTrue();
+        assertThat(ALL.bypassStatus(400)).isTrue();
+        assertThat(ALL.bypassStatus(499)).isTrue();
+        assertThat(ALL.bypassStatus(503)).isTrue();
+        assertThat(ALL.bypassStatus(200)).isFalse();
+        assertThat(ALL.bypassStatus(500)).isFalse();
+        assertThat(ALL.bypassStatus(-1)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should reject invalid status codes")
+    void shouldRejectInvalidStatusCodes() {
+        assertThatThrownBy(() -> new BypassRules(false, "abc", false, false)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new BypassRules(false, "500-400", false, false)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Should bypass when XML is not accepted")
+    void shouldBypassWhenXmlIsNotAccepted() {
+        assertThat(ALL.bypassAccept(() -> "application/json")).isTrue();
+        assertThat(ALL.bypassAccept(() -> "application/json, application/xml;q=0")).isTrue();
+        assertThat(ALL.bypassAccept(() -> "application/json, text/xml;q=0.5")).isFalse();
+        assertThat(ALL.bypassAccept(() -> "application/atom+xml")).isFalse();
+        assertThat(ALL.bypassAccept(() -> "application/*")).isFalse();
+        assertThat(ALL.bypassAccept(() -> "*/*")).isFalse();
+        assertThat(ALL.bypassAccept(() -> null)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should bypass bodies which do not start with an object or an array")
+    void shouldBypassNonJsonBody() {
+        assertThat(ALL.bypassBody(bytes("<html></html>"), StandardCharsets.UTF_8)).isTrue();
+        assertThat(ALL.bypassBody(bytes(" \r\n\t"), StandardCharsets.UTF_8)).isTrue();
+        assertThat(ALL.bypassBody(bytes(""), StandardCharsets.UTF_8)).isTrue();
+        assertThat(ALL.bypassBody(bytes(" \n{\"a\":1}"), StandardCharsets.UTF_8)).isFalse();
+        assertThat(ALL.bypassBody(bytes("\uFEFF[1]"), StandardCharsets.UTF_8)).isFalse();
+        assertThat(ALL.bypassBody(bytes("{}"), StandardCharsets.ISO_8859_1)).isFalse();
+        assertThat(ALL.bypassBody(Unpooled.wrappedBuffer("<a/>".getBytes(StandardCharsets.UTF_16)), StandardCharsets.UTF_16)).isFalse();
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "false, false, false, false", "true, false, false, true", "false, true, true, false", "true, true, true, true" })
+    @DisplayName("Should bypass empty and blank bodies alike, whether non JSON bodies are bypassed or not")
+    void shouldBypassEmptyAndBlankBodiesAlike(boolean nonJson, boolean emptyBody, boolean emptyBypassed, boolean nonJsonBypassed) {
+        final BypassRules rules = new BypassRules(nonJson, null, emptyBody, false);
+
+        assertThat(rules.bypassBody(bytes(""), StandardCharsets.UTF_8)).isEqualTo(emptyBypassed);
+        assertThat(rules.bypassBody(bytes(" \r\n\t"), StandardCharsets.UTF_8)).isEqualTo(emptyBypassed);
+        assertThat(rules.bypassBody(bytes("\uFEFF "), StandardCharsets.UTF_8)).isEqualTo(emptyBypassed);
+        assertThat(rules.bypassBody(bytes("<html/>"), StandardCharsets.UTF_8)).isEqualTo(nonJsonBypassed);
+        assertThat(rules.bypassBody(bytes("{}"), StandardCharsets.UTF_8)).isFalse();
+    }
+
+    private static ByteBuf bytes(String content) {
+        return Unpooled.wrappedBuffer(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.configuration;
+
+import static io.gravitee.common.http.HttpStatusCode.BAD_REQUEST_400;
+import static io.gravitee.common.http.HttpStatusCode.INTERNAL_SERVER_ERROR_500;
+import static io.gravitee.common.http.HttpStatusCode.SERVICE_UNAVAILABLE_503;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.gravitee.gateway.reactive.api.ExecutionFailure;
+import io.gravitee.node.api.configuration.Configuration;
+import io.gravitee.policy.json2xml.batch.MessageBatching;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics.Phase;
+import io.gravitee.policy.json2xml.transformer.JSONTokener;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+class ExecutionPlanTest {
+
+    @Test
+    @DisplayName("Should resolve the max depth from the configuration of the gateway")
+    void shouldResolveMaxDepth() {
+        final Configuration nodeConfiguration = mock(Configuration.class);
+        when(nodeConfiguration.getProperty(ExecutionPlan.POLICY_JSON_XML_MAXDEPTH, Integer.class, JSONTokener.DEFAULT_MAX_DEPTH))
+            .thenReturn(-1);
+
+        assertThat(ExecutionPlan.of(new JsonToXmlTransformationPolicyConfiguration(), nodeConfiguration).getMaxDepth()).isEqualTo(-1);
+        assertThat(ExecutionPlan.of(new JsonToXmlTransformationPolicyConfiguration(), null).getMaxDepth())
+            .isEqualTo(JSONTokener.DEFAULT_MAX_DEPTH);
+    }
+
+    @Test
+    @DisplayName("Should resolve the directory of the spilled bodies from the configuration of the gateway")
+    void shouldResolveSpillDirectory() {
+        final Configuration nodeConfiguration = mock(Configuration.class);
+        when(nodeConfiguration.getProperty(ExecutionPlan.POLICY_JSON_XML_SPILL_DIRECTORY)).thenReturn("/var/spill");
+
+        assertThat(ExecutionPlan.of(new JsonToXmlTransformationPolicyConfiguration(), nodeConfiguration).getSpillDirectory())
+            .isEqualTo(Path.of("/var/spill"));
+        assertThat(ExecutionPlan.of(new JsonToXmlTransformationPolicyConfiguration(), null).getSpillDirectory()).isNull();
+    }
+
+    @Test
+    @DisplayName("Should resolve the options of the policy")
+    void shouldResolveOptions() {
+        final JsonToXmlTransformationPolicyConfiguration configuration = new JsonToXmlTransformationPolicyConfiguration();
+        configuration.setRootElement("envelope");
+        configuration.setStreaming(true);
+        configuration.setMaxElements(10);
+        configuration.setOffloadThreshold(1024);
+        configuration.setBypassStatusCodes("204");
+
+        final ExecutionPlan cut = new ExecutionPlan(configuration, 5);
+
+        assertThat(cut.getRootElement()).isEqualTo("envelope");
+        assertThat(cut.getMaxDepth()).isEqualTo(5);
+        assertThat(cut.getLimits().getMaxElements()).isEqualTo(10);
+        assertThat(cut.getBypass().bypassStatus(204)).isTrue();
+        assertThat(cut.offloads(1023)).isFalse();
+        assertThat(cut.offloads(1024)).isTrue();
+        assertThat(cut.streams(StandardCharsets.UTF_8)).isTrue();
+        assertThat(cut.streams(StandardCharsets.ISO_8859_1)).isFalse();
+        assertThat(cut.getBatching()).isNull();
+        assertThat(cut.getParallelism()).isEqualTo(1);
+        assertThat(cut.offloadsMessage(1023)).isFalse();
+        assertThat(cut.offloadsMessage(1024)).isTrue();
+        assertThat(cut.forks(Integer.MAX_VALUE)).isFalse();
+
+        configuration.setBatching(true);
+        configuration.setBatchMaxMessages(50);
+        final MessageBatching batching = new ExecutionPlan(configuration, 5).getBatching();
+        assertThat(batching.getMaxMessages()).isEqualTo(50);
+        assertThat(batching.getMaxDelay()).isEqualTo(JsonToXmlTransformationPolicyConfiguration.DEFAULT_BATCH_MAX_DELAY);
+        assertThat(batching.getRecordElement()).isEqualTo("array");
+
+        configuration.setMessageParallelism(4);
+        final ExecutionPlan parallel = new ExecutionPlan(configuration, 5);
+        assertThat(parallel.getParallelism()).isEqualTo(4);
+        assertThat(parallel.getMaxBytesInFlight())
+            .isEqualTo(JsonToXmlTransformationPolicyConfiguration.DEFAULT_MESSAGE_MAX_BYTES_IN_FLIGHT);
+        assertThat(parallel.offloads(1)).isFalse();
+        assertThat(parallel.offloadsMessage(1)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Should read the body chunk by chunk when it is streamed, its size is limited or it may be spilled")
+    void shouldReadChunksWhenStreamedOrLimited() {
+        final JsonToXmlTransformationPolicyConfiguration configuration = new JsonToXmlTransformationPolicyConfiguration();
+        assertThat(new ExecutionPlan(configuration, 5).readsChunks()).isFalse();
+
+        configuration.setMaxInputSize(1024);
+        assertThat(new ExecutionPlan(configuration, 5).readsChunks()).isTrue();
+        assertThat(new ExecutionPlan(configuration, 5).streams(StandardCharsets.UTF_8)).isFalse();
+
+        configuration.setMaxInputSize(0);
+        configuration.setSpillThreshold(1024);
+        assertThat(new ExecutionPlan(configuration, 5).readsChunks()).isTrue();
+        assertThat(new ExecutionPlan(configuration, 5).getSpillThreshold()).isEqualTo(1024);
+
+        configuration.setSpillThreshold(0);
+        configuration.setStreaming(true);
+        assertThat(new ExecutionPlan(configuration, 5).readsChunks()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Should resolve the input mode, a NDJSON body being streamed and never split")
+    void shouldResolveInputMode() {
+        final JsonToXmlTransformationPolicyConfiguration configuration = new JsonToXmlTransformationPolicyConfiguration();
+        assertThat(new ExecutionPlan(configuration, 5).getRecordElement()).isNull();
+
+        configuration.setInputMode(InputMode.ARRAY);
+        configuration.setForkJoinThreshold(1024);
+        configuration.setOffloadThreshold(2048);
+        final ExecutionPlan array = new ExecutionPlan(configuration, 5);
+        assertThat(array.getRecordElement()).isEqualTo("array");
+        assertThat(array.isDelimited()).isFalse();
+        assertThat(array.isStreaming()).isFalse();
+        assertThat(array.isDirectOutput()).isFalse();
+        assertThat(array.forks(1023)).isFalse();
+        // A payload is only split on a worker thread.
+        assertThat(array.forks(2047)).isFalse();
+        assertThat(array.forks(2048)).isTrue();
+
+        configuration.setInputMode(InputMode.NDJSON);
+        configuration.setRecordElement("item");
+        configuration.setDirectOutput(true);
+        final ExecutionPlan ndjson = new ExecutionPlan(configuration, 5);
+        assertThat(ndjson.getRecordElement()).isEqualTo("item");
+        assertThat(ndjson.isDelimited()).isTrue();
+        assertThat(ndjson.isStreaming()).isTrue();
+        assertThat(ndjson.isDirectOutput()).isTrue();
+        assertThat(ndjson.forks(1024)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should give the failure of each phase")
+    void shouldGiveFailures() {
+        final ExecutionPlan cut = new ExecutionPlan(new JsonToXmlTransformationPolicyConfiguration(), JSONTokener.DEFAULT_MAX_DEPTH);
+
+        assertFailure(cut.failure(Phase.REQUEST, false), BAD_REQUEST_400, "JSON_INVALID_PAYLOAD");
+        assertFailure(cut.failure(Phase.RESPONSE, true), INTERNAL_SERVER_ERROR_500, "JSON_PAYLOAD_LIMIT_EXCEEDED");
+        assertFailure(cut.failure(Phase.MESSAGE_REQUEST, true), BAD_REQUEST_400, "JSON_MESSAGE_PAYLOAD_LIMIT_EXCEEDED");
+        assertFailure(cut.failure(Phase.MESSAGE_RESPONSE, false), INTERNAL_SERVER_ERROR_500, "JSON_INVALID_MESSAGE_PAYLOAD");
+        assertFailure(cut.rejection(), SERVICE_UNAVAILABLE_503, "JSON_TRANSFORMATION_REJECTED");
+        assertThat(cut.failure(Phase.REQUEST, false)).isSameAs(cut.failure(Phase.REQUEST, false));
+    }
+
+    private static void assertFailure(ExecutionFailure failure, int statusCode, String key) {
+        assertThat(failure.statusCode()).isEqualTo(statusCode);
+        assertThat(failure.key()).isEqualTo(key);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.metrics;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.gateway.api.stream.exception.TransformationException;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics.Cause;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics.Phase;
+import io.gravitee.policy.json2xml.metrics.TransformationMetrics.Recorder;
+import io.gravitee.policy.json2xml.transformer.JSONException;
+import io.gravitee.policy.json2xml.transformer.JSONTokener;
+import io.gravitee.policy.json2xml.transformer.JsonToXmlTranscoder;
+import io.gravitee.policy.json2xml.transformer.TranscodingLimitException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+class TransformationMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private TransformationMetrics cut;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        cut = new TransformationMetrics(registry);
+    }
+
+    @Test
+    @DisplayName("Should record a successful transformation")
+    void shouldRecordSuccess() {
+        final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(new JSONTokener("{\"a\":{\"b\":[1,2]}}", DEFAULT_MAX_DEPTH));
+        final String xml = transcoder.transcode("root");
+
+        cut.start("my-api", Phase.REQUEST).success(transcoder, 17, xml.length());
+
+        assertThat(registry.get("gravitee.policy.json.xml.transcoding").tag("api", "my-api").tag("phase", "request").timer().count())
+            .isEqualTo(1);
+        assertThat(registry.get("gravitee.policy.json.xml.bytes.in").tag("api", "my-api").counter().count()).isEqualTo(17);
+        assertThat(registry.get("gravitee.policy.json.xml.bytes.out").tag("api", "my-api").counter().count()).isEqualTo(xml.length());
+        final DistributionSummary depth = registry.get("gravitee.policy.json.xml.depth").summary();
+        assertThat(depth.max()).isEqualTo(3);
+        final DistributionSummary elements = registry.get("gravitee.policy.json.xml.elements").summary();
+        assertThat(elements.max()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Should not time a streamed transformation")
+    void shouldNotTimeStreaming() {
+        final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(new JSONTokener("{}", DEFAULT_MAX_DEPTH));
+        transcoder.transcode("root");
+
+        cut.startStreaming(null, Phase.RESPONSE).success(transcoder, 2, 7);
+
+        assertThat(registry.get("gravitee.policy.json.xml.transcoding").tag("api", "unknown").tag("phase", "response").timer().count())
+            .isZero();
+        assertThat(registry.get("gravitee.policy.json.xml.bytes.in").tag("api", "unknown").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should not time the wait before a restarted transformation")
+    void shouldNotTimeWaitBeforeRestart() throws Exception {
+        final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(new JSONTokener("{}", DEFAULT_MAX_DEPTH));
+        transcoder.transcode("root");
+        final Recorder recorder = cut.start("my-api", Phase.REQUEST);
+
+        Thread.sleep(50);
+        recorder.restart().success(transcoder, 2, 7);
+
+        final Timer timer = registry.get("gravitee.policy.json.xml.transcoding").tag("api", "my-api").timer();
+        assertThat(timer.count()).isEqualTo(1);
+        assertThat(timer.totalTime(TimeUnit.MILLISECONDS)).isLessThan(50);
+    }
+
+    @Test
+    @DisplayName("Should count failures by cause")
+    void shouldCountFailuresByCause() {
+        final Recorder recorder = cut.start("my-api", Phase.MESSAGE_RESPONSE);
+
+        recorder.failure(new JSONException("Expected a ',' or '}'"));
+        recorder.failure(new TransformationException("Unable to transform", new JSONException("Missing value")));
+        recorder.failure(new IllegalArgumentException(JSONTokener.MAX_DEPTH_EXCEEDED));
+
+        assertThat(
+            registry.get("gravitee.policy.json.xml.failures").tag("phase", "message_response").tag("cause", "invalid_json").counter().count()
+        )
+            .isEqualTo(2);
+        assertThat(registry.get("gravitee.policy.json.xml.failures").tag("cause", "max_depth").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should resolve the cause of a failure")
+    void shouldResolveCause() {
+        assertThat(Cause.of(new JSONException("Missing value"))).isEqualTo(Cause.INVALID_JSON);
+        assertThat(Cause.of(new IllegalArgumentException(JSONTokener.MAX_DEPTH_EXCEEDED))).isEqualTo(Cause.MAX_DEPTH);
+        assertThat(Cause.of(new IllegalCharsetNameException("utf 8"))).isEqualTo(Cause.CHARSET);
+        assertThat(Cause.of(new TranscodingLimitException("More than 10 XML elements"))).isEqualTo(Cause.LIMIT);
+        assertThat(Cause.of(new RejectedExecutionException())).isEqualTo(Cause.REJECTED);
+        assertThat(Cause.of(new IllegalStateException())).isEqualTo(Cause.OTHER);
+    }
+
+    @Test
+    @DisplayName("Should record the failure of a max depth check")
+    void shouldRecordMaxDepthFailure() {
+        final String json = "{\"a\":".repeat(DEFAULT_MAX_DEPTH * 2) + "1" + "}".repeat(DEFAULT_MAX_DEPTH * 2);
+        final Recorder recorder = cut.start("my-api", Phase.RESPONSE);
+
+        assertThatThrownBy(() -> new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH)).transcode("root"))
+            .satisfies(recorder::failure);
+
+        assertThat(registry.get("gravitee.policy.json.xml.failures").tag("cause", "max_depth").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should remove the meters of the least recently used API beyond the maximum number of APIs")
+    void shouldEvictLeastRecentlyUsedApi() {
+        cut = new TransformationMetrics(registry, 2);
+
+        cut.start("api-1", Phase.REQUEST).failure(new JSONException("Missing value"));
+        cut.start("api-2", Phase.REQUEST).failure(new JSONException("Missing value"));
+        cut.start("api-1", Phase.RESPONSE).failure(new JSONException("Missing value"));
+        cut.start("api-3", Phase.REQUEST).failure(new JSONException("Missing value"));
+
+        assertThat(cut.apiCount()).isEqualTo(2);
+        assertThat(registry.find("gravitee.policy.json.xml.failures").tag("api", "api-1").counters()).hasSize(2);
+        assertThat(registry.find("gravitee.policy.json.xml.transcoding").tag("api", "api-2").timers()).isEmpty();
+        assertThat(registry.find("gravitee.policy.json.xml.failures").tag("api", "api-2").counters()).isEmpty();
+        assertThat(registry.find("gravitee.policy.json.xml.failures").tag("api", "api-3").counters()).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("Should look the registry of the gateway up until it is created")
+    void shouldLookBackendUpUntilCreated() {
+        final AtomicReference<MeterRegistry> backend = new AtomicReference<>();
+        cut = new TransformationMetrics(backend::get, TransformationMetrics.DEFAULT_MAX_APIS);
+
+        cut.start("late-api", Phase.REQUEST).failure(new JSONException("Missing value"));
+
+        assertThat(cut.getRegistry()).isSameAs(Metrics.globalRegistry);
+        assertThat(Metrics.globalRegistry.find("gravitee.policy.json.xml.failures").tag("api", "late-api").counters()).hasSize(1);
+
+        backend.set(registry);
+        cut.start("late-api", Phase.REQUEST).failure(new JSONException("Missing value"));
+
+        assertThat(cut.getRegistry()).isSameAs(registry);
+        assertThat(registry.get("gravitee.policy.json.xml.failures").tag("api", "late-api").counter().count()).isEqualTo(1);
+        assertThat(Metrics.globalRegistry.find("gravitee.policy.json.xml.failures").tag("api", "late-api").counters()).isEmpty();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.offload;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+class ByteBudgetTest {
+
+    @Test
+    @DisplayName("Should admit the payloads fitting into the budget at once")
+    void shouldAdmitFittingPayloads() {
+        final ByteBudget cut = new ByteBudget(10);
+
+        cut.run(4, MaybeSubject::<String>create).test().assertNotComplete();
+        cut.run(6, MaybeSubject::<String>create).test().assertNotComplete();
+
+        assertThat(cut.inFlight()).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("Should make a payload wait until enough bytes are released, in the order of the requests")
+    void shouldWaitForRelease() {
+        final ByteBudget cut = new ByteBudget(10);
+        final MaybeSubject<String> first = MaybeSubject.create();
+        final AtomicInteger started = new AtomicInteger();
+        cut.run(8, () -> first).test();
+
+        final TestObserver<String> large = cut.run(6, () -> started(started)).test();
+        final TestObserver<String> small = cut.run(1, () -> started(started)).test();
+        assertThat(started).hasValue(0);
+
+        first.onSuccess("<root/>");
+
+        assertThat(started).hasValue(2);
+        large.assertNotComplete();
+        small.assertNotComplete();
+        assertThat(cut.inFlight()).isEqualTo(7);
+    }
+
+    @Test
+    @DisplayName("Should admit a payload larger than the budget when it is alone")
+    void shouldAdmitLargePayloadAlone() {
+        final ByteBudget cut = new ByteBudget(10);
+        final MaybeSubject<String> large = MaybeSubject.create();
+        final AtomicInteger started = new AtomicInteger();
+
+        cut.run(100, () -> large).test();
+        cut.run(1, () -> started(started)).test();
+        assertThat(started).hasValue(0);
+
+        large.onComplete();
+        assertThat(started).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("Should forget a payload disposed while waiting, letting the next ones through")
+    void shouldForgetDisposedWaiter() {
+        final ByteBudget cut = new ByteBudget(10);
+        final AtomicInteger started = new AtomicInteger();
+        cut.run(5, MaybeSubject::<String>create).test();
+        final TestObserver<String> disposed = cut.run(10, () -> started(started)).test();
+        cut.run(5, () -> started(started)).test();
+        assertThat(started).hasValue(0);
+
+        disposed.dispose();
+
+        assertThat(started).hasValue(1);
+        assertThat(cut.inFlight()).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("Should give back the bytes of a transformation once it terminates")
+    void shouldReleaseAfterRun() {
+        final ByteBudget cut = new ByteBudget(10);
+        final MaybeSubject<String> transformation = MaybeSubject.create();
+
+        final TestObserver<String> result = cut.run(6, () -> transformation).test();
+        assertThat(cut.inFlight()).isEqualTo(6);
+        transformation.onSuccess("<root/>");
+
+        result.assertValue("<root/>");
+        assertThat(cut.inFlight()).isZero();
+        cut.run(6, () -> Maybe.<String>error(new IllegalStateException())).test().assertError(IllegalStateException.class);
+        assertThat(cut.inFlight()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should give back every byte when transformations are disposed concurrently with their admission")
+    void shouldNotLeakUnderConcurrentDisposal() throws Exception {
+        final ByteBudget cut = new ByteBudget(10);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2_000; i++) {
+                final MaybeSubject<String> first = MaybeSubject.create();
+                cut.run(10, () -> first).test();
+                final TestObserver<String> waiting = cut.run(10, () -> Maybe.<String>never()).test();
+                final CountDownLatch ready = new CountDownLatch(1);
+                final Future<?> completion = executor.submit(() -> {
+                    ready.await();
+                    first.onSuccess("<root/>");
+                    return null;
+                });
+                final Future<?> disposal = executor.submit(() -> {
+                    ready.await();
+                    waiting.dispose();
+                    return null;
+                });
+                ready.countDown();
+                completion.get();
+                disposal.get();
+
+                assertThat(cut.inFlight()).isZero();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Maybe<String> started(AtomicInteger started) {
+        started.incrementAndGet();
+        return Maybe.never();
+    }
+}
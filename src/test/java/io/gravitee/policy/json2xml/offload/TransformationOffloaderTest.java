@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.offload;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.reactivex.rxjava3.observers.TestObserver;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+class TransformationOffloaderTest {
+
+    private SimpleMeterRegistry registry;
+    private TransformationOffloader cut;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        cut = new TransformationOffloader(1, 1, true, registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cut.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should run the transformation on a worker thread")
+    void shouldRunOnWorker() throws InterruptedException {
+        final TestObserver<String> obs = cut.offload(() -> Thread.currentThread().getName()).test();
+
+        obs.await(5, TimeUnit.SECONDS);
+        obs.assertValue(name -> name.startsWith("gravitee-json-xml-worker-"));
+        assertThat(cut.offloadedCount()).isEqualTo(1);
+        assertThat(registry.get("gravitee.policy.json.xml.offload.tasks").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should emit the failure of the transformation")
+    void shouldEmitFailure() throws InterruptedException {
+        final TestObserver<String> obs = cut
+            .<String>offload(() -> {
+                throw new IllegalStateException("boom");
+            })
+            .test();
+
+        obs.await(5, TimeUnit.SECONDS);
+        obs.assertError(IllegalStateException.class);
+    }
+
+    @Test
+    @DisplayName("Should fail the transformation when the queue is full")
+    void shouldFailWhenQueueIsFull() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestObserver<Boolean> busy = cut
+            .offload(() -> {
+                started.countDown();
+                return release.await(5, TimeUnit.SECONDS);
+            })
+            .test();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        final TestObserver<String> queued = cut.offload(() -> "queued").test();
+
+        assertThat(cut.queueDepth()).isEqualTo(1);
+        assertThat(registry.get("gravitee.policy.json.xml.offload.queue").gauge().value()).isEqualTo(1);
+
+        final AtomicBoolean run = new AtomicBoolean();
+        cut.offload(() -> run.getAndSet(true)).test().assertError(RejectedExecutionException.class);
+        assertThat(run).isFalse();
+        assertThat(cut.rejectedCount()).isEqualTo(1);
+
+        release.countDown();
+        busy.await(5, TimeUnit.SECONDS);
+        busy.assertValue(true);
+        queued.await(5, TimeUnit.SECONDS);
+        queued.assertValue("queued");
+        assertThat(cut.offloadedCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should run the transformation on the caller when the queue is full, unless the pool rejects it")
+    void shouldRunOnCallerWhenQueueIsFull() throws InterruptedException {
+        final TransformationOffloader offloader = new TransformationOffloader(1, 1, false, new SimpleMeterRegistry());
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final TestObserver<Boolean> busy = offloader
+                .offload(() -> {
+                    started.countDown();
+                    return release.await(5, TimeUnit.SECONDS);
+                })
+                .test();
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            final TestObserver<String> queued = offloader.offload(() -> "queued").test();
+
+            offloader.offload(() -> Thread.currentThread().getName()).test().assertValue(Thread.currentThread().getName());
+            assertThat(offloader.rejectedCount()).isEqualTo(1);
+
+            release.countDown();
+            busy.await(5, TimeUnit.SECONDS);
+            busy.assertValue(true);
+            queued.await(5, TimeUnit.SECONDS);
+            queued.assertValue("queued");
+        } finally {
+            offloader.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should not run a queued transformation once disposed")
+    void shouldNotRunDisposedTransformation() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestObserver<Boolean> busy = cut
+            .offload(() -> {
+                started.countDown();
+                return release.await(5, TimeUnit.SECONDS);
+            })
+            .test();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        final AtomicBoolean run = new AtomicBoolean();
+        final TestObserver<Boolean> queued = cut.offload(() -> run.getAndSet(true)).test();
+
+        queued.dispose();
+        assertThat(cut.queueDepth()).isZero();
+
+        release.countDown();
+        busy.await(5, TimeUnit.SECONDS);
+        busy.assertValue(true);
+        assertThat(run).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should remove its meters from the registry once shut down")
+    void shouldRemoveMetersOnShutdown() {
+        cut.shutdown();
+
+        assertThat(registry.getMeters()).isEmpty();
+        cut.offload(() -> "rejected").test().assertError(RejectedExecutionException.class);
+    }
+}
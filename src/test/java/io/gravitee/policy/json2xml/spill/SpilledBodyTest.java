@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.spill;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.gateway.api.buffer.Buffer;
+import io.gravitee.policy.json2xml.transformer.TranscodingLimitException;
+import io.gravitee.policy.json2xml.transformer.TranscodingLimits;
+import io.reactivex.rxjava3.subscribers.TestSubscriber;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author GraviteeSource Team
+ */
+class SpilledBodyTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Should hold a body in memory until it exceeds the threshold")
+    void shouldHoldBodyInMemory() throws IOException {
+        try (SpilledBody cut = new SpilledBody(8, directory)) {
+            cut.append(Buffer.buffer("{\"a\":"));
+            cut.append(Buffer.buffer("1}"));
+
+            assertThat(cut.isSpilled()).isFalse();
+            assertThat(cut.size()).isEqualTo(7);
+            assertThat(cut.head().toString()).isEqualTo("{\"a\":1}");
+            assertThat(directory).isEmptyDirectory();
+        }
+    }
+
+    @Test
+    @DisplayName("Should always hold the first chunk in memory")
+    void shouldHoldFirstChunkInMemory() throws IOException {
+        try (SpilledBody cut = new SpilledBody(4, directory)) {
+            cut.append(Buffer.buffer("{\"a\":1}"));
+
+            assertThat(cut.isSpilled()).isFalse();
+            assertThat(cut.head().toString()).isEqualTo("{\"a\":1}");
+        }
+    }
+
+    @Test
+    @DisplayName("Should spill a body exceeding the threshold to a file, read back lazily")
+    void shouldSpillBodyToFile() throws IOException {
+        final String json = "{\"name\":\"" + "é".repeat(SpilledBody.CHUNK_SIZE) + "\"}";
+        try (SpilledBody cut = new SpilledBody(8, directory)) {
+            cut.append(Buffer.buffer("{\"name\":\""));
+            cut.append(Buffer.buffer("é".repeat(SpilledBody.CHUNK_SIZE) + "\"}"));
+
+            assertThat(cut.isSpilled()).isTrue();
+            assertThat(cut.head().toString()).isEqualTo("{\"name\":\"");
+            try (Reader reader = cut.reader(StandardCharsets.UTF_8)) {
+                final StringWriter read = new StringWriter();
+                reader.transferTo(read);
+                assertThat(read.toString()).isEqualTo(json);
+            }
+
+            final TestSubscriber<Buffer> chunks = cut.readInput().test(1);
+            chunks.assertValueCount(1).assertNotComplete();
+            chunks.requestMore(Long.MAX_VALUE).assertComplete();
+            assertThat(chunks.values().stream().mapToInt(Buffer::length).sum()).isEqualTo(json.getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+    @Test
+    @DisplayName("Should write the XML into its own file")
+    void shouldWriteXmlToFile() throws IOException {
+        try (SpilledBody cut = new SpilledBody(0, directory)) {
+            cut.append(Buffer.buffer("{}"));
+            cut.append(Buffer.buffer(" "));
+            try (Writer writer = cut.writer(TranscodingLimits.NONE)) {
+                writer.write("<root>é</root>");
+            }
+
+            assertThat(cut.outputSize()).isEqualTo(15);
+            assertThat(cut.readOutput().map(Buffer::toString).toList().blockingGet().stream().collect(Collectors.joining()))
+                .isEqualTo("<root>é</root>");
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject XML larger than the maximum output size")
+    void shouldRejectTooLargeXml() throws IOException {
+        try (SpilledBody cut = new SpilledBody(0, directory)) {
+            cut.append(Buffer.buffer("{}"));
+
+            assertThatThrownBy(() -> {
+                    try (Writer writer = cut.writer(new TranscodingLimits(0, 0, 0, 0, 8))) {
+                        writer.write("<root>" + "a".repeat(16) + "</root>");
+                    }
+                })
+                .isInstanceOf(TranscodingLimitException.class);
+        }
+    }
+
+    @Test
+    @DisplayName("Should delete the files once closed")
+    void shouldDeleteFilesOnClose() throws IOException {
+        final SpilledBody cut = new SpilledBody(0, directory);
+        cut.append(Buffer.buffer("{}"));
+        cut.append(Buffer.buffer(" "));
+        cut.writer(TranscodingLimits.NONE).close();
+        assertThat(directory.toFile().list()).hasSize(2);
+
+        cut.close();
+        cut.close();
+
+        assertThat(directory).isEmptyDirectory();
+        assertThat(cut.head()).isNull();
+        assertThatThrownBy(() -> cut.append(Buffer.buffer(" "))).isInstanceOf(ClosedChannelException.class);
+    }
+}
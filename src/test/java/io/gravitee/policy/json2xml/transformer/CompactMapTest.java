@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class CompactMapTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = { 0, 1, CompactMap.THRESHOLD, CompactMap.THRESHOLD + 1, 100 })
+    @DisplayName("Should behave like a LinkedHashMap, whatever its size")
+    void shouldBehaveLikeLinkedHashMap(int size) {
+        final CompactMap<String, Integer> map = new CompactMap<>();
+        final Map<String, Integer> expected = new LinkedHashMap<>();
+        for (int i = size; i > 0; i--) {
+            assertThat(map.put("key" + i, i)).isEqualTo(expected.put("key" + i, i));
+        }
+        assertThat(map.put("key1", -1)).isEqualTo(expected.put("key1", -1));
+        assertThat(map.remove("key2")).isEqualTo(expected.remove("key2"));
+        assertThat(map.putIfAbsent("key2", 2)).isEqualTo(expected.putIfAbsent("key2", 2));
+        assertThat(map.putIfAbsent("key3", -3)).isEqualTo(expected.putIfAbsent("key3", -3));
+
+        assertThat(map).isEqualTo(expected).hasSameHashCodeAs(expected);
+        assertThat(map.keySet()).containsExactlyElementsOf(expected.keySet());
+        assertThat(map.values()).containsExactlyElementsOf(expected.values());
+        assertThat(map.get("missing")).isNull();
+        assertThat(map.containsKey("key3")).isEqualTo(expected.containsKey("key3"));
+    }
+
+    @Test
+    @DisplayName("Should remove and update entries through the iterator")
+    void shouldRemoveAndUpdateThroughIterator() {
+        final CompactMap<String, Integer> map = new CompactMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+
+        final Iterator<Map.Entry<String, Integer>> entries = map.entrySet().iterator();
+        entries.next().setValue(10);
+        entries.next();
+        entries.remove();
+        assertThatThrownBy(entries::remove).isInstanceOf(IllegalStateException.class);
+        assertThat(entries.next().getKey()).isEqualTo("c");
+        assertThat(entries.hasNext()).isFalse();
+
+        assertThat(map).containsExactly(Map.entry("a", 10), Map.entry("c", 3));
+    }
+
+    @Test
+    @DisplayName("Should reject a duplicate key of a JSON object")
+    void shouldRejectDuplicateKey() {
+        final JSONObject object = new JSONObject().putOnce("a", 1).putOnce("b", 2);
+
+        assertThatThrownBy(() -> object.putOnce("a", 3)).isInstanceOf(JSONException.class).hasMessage("Duplicate key \"a\"");
+        assertThat(object.get("a")).isEqualTo(1);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+class DecodingReaderTest {
+
+    private static final String TEXT = "{\"emoji\":\"😀\",\"kanji\":\"日本\"}";
+
+    @Test
+    @DisplayName("Should decode the bytes into the array of the caller")
+    void shouldDecode() throws IOException {
+        final DecodingReader reader = reader(TEXT.getBytes(StandardCharsets.UTF_16), StandardCharsets.UTF_16);
+        final char[] chars = new char[64];
+
+        final int read = reader.read(chars, 0, chars.length);
+
+        assertThat(new String(chars, 0, read)).isEqualTo(TEXT);
+        assertThat(reader.read(chars, 0, chars.length)).isEqualTo(-1);
+    }
+
+    @Test
+    @DisplayName("Should split a surrogate pair when a single char is read")
+    void shouldDecodeCharByChar() throws IOException {
+        final DecodingReader reader = reader(TEXT.getBytes(Charset.forName("UTF-32")), Charset.forName("UTF-32"));
+        final StringBuilder text = new StringBuilder();
+
+        for (int c = reader.read(); c >= 0; c = reader.read()) {
+            text.append((char) c);
+        }
+
+        assertThat(text).hasToString(TEXT);
+    }
+
+    @Test
+    @DisplayName("Should replace malformed input")
+    void shouldReplaceMalformedInput() throws IOException {
+        final DecodingReader reader = reader(new byte[] { 0, '{', (byte) 0xD8, 0 }, StandardCharsets.UTF_16BE);
+        final char[] chars = new char[8];
+
+        final int read = reader.read(chars, 0, chars.length);
+
+        assertThat(new String(chars, 0, read)).isEqualTo(new String(new byte[] { 0, '{', (byte) 0xD8, 0 }, StandardCharsets.UTF_16BE));
+    }
+
+    private static DecodingReader reader(byte[] bytes, Charset charset) {
+        return new DecodingReader(
+            ByteBuffer.wrap(bytes),
+            charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE)
+        );
+    }
+}
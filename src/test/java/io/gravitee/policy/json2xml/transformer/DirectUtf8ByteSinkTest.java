@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class DirectUtf8ByteSinkTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = { "", "ascii <only>", "é", "߿ࠀ￿", "中文", "😀", "\uD83D", "\uDE00a", "a\uD83Db" })
+    @DisplayName("Should encode like String.getBytes")
+    void shouldEncodeLikeStringGetBytes(String string) {
+        final DirectUtf8ByteSink cut = new DirectUtf8ByteSink(PooledByteBufAllocator.DEFAULT, 1);
+        try {
+            cut.append(string);
+
+            assertThat(cut.toByteArray()).isEqualTo(string.getBytes(StandardCharsets.UTF_8));
+            assertThat(cut.writeIndex()).isEqualTo(string.getBytes(StandardCharsets.UTF_8).length);
+        } finally {
+            cut.release();
+        }
+    }
+
+    @Test
+    @DisplayName("Should encode a surrogate pair split across appends")
+    void shouldEncodeSplitSurrogatePair() {
+        final DirectUtf8ByteSink cut = new DirectUtf8ByteSink(PooledByteBufAllocator.DEFAULT, 16);
+        try {
+            cut.append('\uD83D').append("\uDE00a");
+
+            assertThat(cut.toString()).isEqualTo("😀a");
+        } finally {
+            cut.release();
+        }
+    }
+
+    @Test
+    @DisplayName("Should take the bytes written since the last take into direct buffers released with the sink")
+    void shouldTakeDirectBuffers() {
+        final DirectUtf8ByteSink cut = new DirectUtf8ByteSink(PooledByteBufAllocator.DEFAULT, 16);
+        cut.append("<root>").write("é".getBytes(StandardCharsets.UTF_8), 0, 2);
+        final ByteBuf first = cut.take();
+        cut.append("a".repeat(64)).append("</root>");
+        final ByteBuf second = cut.take();
+
+        assertThat(first.isDirect()).isTrue();
+        assertThat(first.toString(StandardCharsets.UTF_8)).isEqualTo("<root>é");
+        assertThat(second.toString(StandardCharsets.UTF_8)).isEqualTo("a".repeat(64) + "</root>");
+        assertThat(cut.take().readableBytes()).isZero();
+
+        cut.release();
+        cut.release();
+
+        assertThat(first.refCnt()).isZero();
+        assertThat(second.refCnt()).isZero();
+        assertThatThrownBy(() -> cut.append("a")).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    @DisplayName("Should reject more bytes than the maximum output size, those taken included")
+    void shouldRejectTooManyBytes() {
+        final DirectUtf8ByteSink cut = new DirectUtf8ByteSink(PooledByteBufAllocator.DEFAULT, 16).limit(
+            new TranscodingLimits(0, 0, 0, 0, 8)
+        );
+        try {
+            cut.append("<root>").take();
+
+            assertThatThrownBy(() -> cut.append("</root>")).isInstanceOf(TranscodingLimitException.class);
+            assertThatThrownBy(cut::array).isInstanceOf(UnsupportedOperationException.class);
+        } finally {
+            cut.release();
+        }
+    }
+
+    @Test
+    @DisplayName("Should leak no direct buffer once released, and have the leak of an unreleased one reported")
+    void shouldNotLeakOnceReleased() throws InterruptedException {
+        assertThat(ResourceLeakDetector.getLevel()).isEqualTo(ResourceLeakDetector.Level.PARANOID);
+
+        for (int i = 0; i < 64; i++) {
+            final DirectUtf8ByteSink released = new DirectUtf8ByteSink(PooledByteBufAllocator.DEFAULT, 16);
+            released.append("<released>").take();
+            released.append("</released>");
+            released.release();
+        }
+        assertThat(sinkLeaks("shouldNotLeakOnceReleased", 16)).isEmpty();
+
+        new DirectUtf8ByteSink(PooledByteBufAllocator.DEFAULT, 16).append("<leaked>");
+        assertThat(sinkLeaks("shouldNotLeakOnceReleased", 64)).isNotEmpty();
+    }
+
+    /**
+     * Collect the garbage until a leak of the sinks allocated by the given test is reported, the leaks only being
+     * reported on the next allocation once their buffers have been collected.
+     */
+    static List<String> sinkLeaks(String test, int attempts) throws InterruptedException {
+        List<String> leaks = List.of();
+        for (int i = 0; i < attempts && leaks.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(10);
+            PooledByteBufAllocator.DEFAULT.directBuffer(1).release();
+            leaks =
+                RecordingLeakDetector
+                    .leaks()
+                    .stream()
+                    .filter(leak -> leak.contains(DirectUtf8ByteSink.class.getName()) && leak.contains(test))
+                    .collect(Collectors.toList());
+        }
+        return leaks;
+    }
+}
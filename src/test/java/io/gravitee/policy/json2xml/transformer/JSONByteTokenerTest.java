@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class JSONByteTokenerTest {
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = {
+            "{\"a\":\"b\",\"c\":[1,2.5,-0,true,null,{}]}",
+            "{\"été\":\"中文\",\"emoji\":\"😀\"}",
+            "{\"escaped\":\"\\u00e9\\n\\t\\\"\\/\\\\\"}",
+            "{unquoted: café crème , 'single':'quote'}",
+            "{\"a\":[1,,2,],\"b\":{\"c\":\"\"};\"d\":1}",
+        }
+    )
+    @DisplayName("Should read the same values as the character based tokener")
+    void shouldReadSameValuesAsJSONTokener(String json) {
+        final JSONObject expected = new JSONObject(new JSONTokener(json, DEFAULT_MAX_DEPTH));
+
+        final JSONObject actual = new JSONObject(new JSONByteTokener(json.getBytes(StandardCharsets.UTF_8), DEFAULT_MAX_DEPTH));
+
+        assertThat(actual.toString()).isEqualTo(expected.toString());
+    }
+
+    @Test
+    @DisplayName("Should read the remaining bytes of a direct buffer")
+    void shouldReadDirectBuffer() {
+        final byte[] bytes = "xx{\"a\":\"é\"}".getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().position(2);
+
+        final JSONObject actual = new JSONObject(new JSONByteTokener(buffer, DEFAULT_MAX_DEPTH));
+
+        assertThat(actual.getString("a")).isEqualTo("é");
+        assertThat(buffer.position()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should read a slice of bytes as if it was enclosed into the given characters, without copying it")
+    void shouldReadEnclosedSlice() {
+        final byte[] bytes = "[{\"a\":1},\"é\", 2 ,true]".getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer slice = ByteBuffer.wrap(bytes, 1, bytes.length - 2);
+
+        final JSONObject actual = new JSONObject(
+            new JSONByteTokener(slice, StandardCharsets.UTF_8, DEFAULT_MAX_DEPTH).enclose("{\"été\": [", "]}")
+        );
+
+        assertThat(actual.toString()).isEqualTo("{\"été\":[{\"a\":1},\"é\",2,true]}");
+    }
+
+    @Test
+    @DisplayName("Should replace malformed UTF-8 like a String decoding would")
+    void shouldReplaceMalformedInput() {
+        final byte[] bytes = { '{', '"', 'a', '"', ':', '"', (byte) 0xE8, (byte) 0x9C, 'u', (byte) 0xFF, '"', '}' };
+
+        final JSONObject actual = new JSONObject(new JSONByteTokener(bytes, DEFAULT_MAX_DEPTH));
+
+        assertThat(actual.getString("a")).isEqualTo(new JSONObject(new String(bytes, StandardCharsets.UTF_8), DEFAULT_MAX_DEPTH).get("a"));
+    }
+
+    @Test
+    @DisplayName("Should report the position of a syntax error")
+    void shouldReportSyntaxErrorPosition() {
+        final byte[] bytes = "{\n\"a\":\n}".getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> new JSONObject(new JSONByteTokener(bytes, DEFAULT_MAX_DEPTH)))
+            .isInstanceOf(JSONException.class)
+            .hasMessage("Missing value at 7 [character 0 line 3]");
+    }
+
+    @Test
+    @DisplayName("Should apply the max depth")
+    void shouldApplyMaxDepth() {
+        final byte[] bytes = "{\"a\":{\"b\":[[1]]}}".getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> new JSONObject(new JSONByteTokener(bytes, 0))).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class JsonToXmlForkJoinTranscoderTest {
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void createPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = {
+            "{\"a\":1,\"b\":\"x&<y>\",\"c\":{\"d\":[1,2,[3,[]]]},\"content\":[\"e\",{\"f\":1.10}],\"g\":null,\"h\":[[],{}],\"i\":-0}",
+            "{\"items\":[{\"id\":1},{\"id\":2,\"tags\":[\"a\",\"b\"]},[3,[4]],\"\",{}],\"total\":2,\"empty\":[]}",
+            "{\"a\":[1,2,3],\"b\":[4,5,6],\"c\":\"\\u00e9t\\u00e9 \\ud83d\\ude00\",\"d\":12345678901234567890}",
+            "[{\"id\":1,\"a\":[]},[1,[2]],\"x\",null,{\"content\":{\"b\":[]}},[],{\"id\":2}]",
+        }
+    )
+    @DisplayName("Should write the same XML as the serial transcoder, whatever the size of the segments")
+    void shouldWriteSameXmlAsSerial(String json) {
+        final JsonToXmlTranscoder serial = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH));
+        final String expected = serial.transcode("root", "item", false, new StringBuilder()).toString();
+
+        for (int segmentSize = 1; segmentSize < json.length() / 4; segmentSize += 3) {
+            final Utf8ByteSink output = new Utf8ByteSink();
+            final TranscodingStatistics statistics = transcode(json, segmentSize, DEFAULT_MAX_DEPTH, TranscodingLimits.NONE, output);
+
+            assertThat(output.toString()).isEqualTo(expected);
+            assertThat(statistics.elementCount()).isEqualTo(serial.elementCount());
+            assertThat(statistics.depth()).isEqualTo(serial.depth());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = {
+            "{'a':1,\"b\":2}",
+            "{\"a\":1;\"b\":2}",
+            "{\"a\":1,\"b\":2,}",
+            "{\"a\\u0062\":1,\"c\":2}",
+            "{\"a\":1,\"a\":2}",
+            "{\"a\":[1,,2],\"b\":3}",
+            "{\"a\":1}",
+            "{\"a\":1,\"b\":\"unterminated}",
+            "\"a\"",
+        }
+    )
+    @DisplayName("Should leave to the serial transcoder the payloads which cannot be split")
+    void shouldLeaveUnsplittablePayloadToSerial(String json) {
+        final Utf8ByteSink output = new Utf8ByteSink();
+
+        assertThat(transcode(json, 1, DEFAULT_MAX_DEPTH, TranscodingLimits.NONE, output)).isNull();
+        assertThat(output.writeIndex()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should fail the payloads exceeding the limits or the max depth as the serial transcoder, without it")
+    void shouldFailPayloadExceedingLimits() {
+        // Each member is within the limits, but not the whole payload.
+        final String members = "{\"a\":1,\"b\":2,\"c\":3,\"d\":4}";
+        final TranscodingLimits maxElements = new TranscodingLimits(0, 4, 0, 0, 0);
+        assertThatThrownBy(() -> transcode(members, 1, DEFAULT_MAX_DEPTH, maxElements, new Utf8ByteSink()))
+            .isInstanceOf(TranscodingLimitException.class)
+            .hasMessage("More than 4 XML elements");
+        final TranscodingLimits maxOutputSize = new TranscodingLimits(0, 0, 0, 0, 20);
+        assertThatThrownBy(() -> transcode(members, 1, DEFAULT_MAX_DEPTH, maxOutputSize, new Utf8ByteSink()))
+            .isInstanceOf(TranscodingLimitException.class);
+        // The keys of the root object are only counted by the serial transcoder.
+        assertThat(transcode(members, 1, DEFAULT_MAX_DEPTH, new TranscodingLimits(0, 0, 0, 3, 0), new Utf8ByteSink())).isNull();
+
+        // The empty arrays are never counted out by the tokener, the last array being nested too deeply.
+        final String arrays = "{\"a\":[],\"b\":[],\"c\":[],\"d\":[1]}";
+        assertThatThrownBy(() -> transcode(arrays, 1, 2, TranscodingLimits.NONE, new Utf8ByteSink()))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage(JSONTokener.MAX_DEPTH_EXCEEDED);
+        assertThat(transcode(arrays, 1, 3, TranscodingLimits.NONE, new Utf8ByteSink())).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Should stop the segments as soon as their XML together exceeds the max output size")
+    void shouldStopSegmentsExceedingMaxOutputSize() {
+        final StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < 64; i++) {
+            json.append(i == 0 ? "" : ",").append("\"m").append(i).append("\":\"").append("x".repeat(4096)).append('"');
+        }
+        final String members = json.append('}').toString();
+        final String expected = new JsonToXmlTranscoder(new JSONTokener(members, DEFAULT_MAX_DEPTH))
+            .transcode("root", "item", false, new StringBuilder())
+            .toString();
+        final TranscodingLimits exact = new TranscodingLimits(0, 0, 0, 0, expected.length());
+        final TranscodingLimits smaller = new TranscodingLimits(0, 0, 0, 0, expected.length() / 2);
+
+        final ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            final Utf8ByteSink output = new Utf8ByteSink();
+            assertThat(transcode(single, members, 32 * 1024, exact, output)).isNotNull();
+            assertThat(output.toString()).isEqualTo(expected);
+
+            // A single thread transcodes the segments in order, the XML getting too large while they are transcoded.
+            assertThatThrownBy(() -> transcode(single, members, 32 * 1024, smaller, new Utf8ByteSink()))
+                .isInstanceOf(TranscodingLimitException.class)
+                .hasMessage("XML payload larger than " + expected.length() / 2 + " bytes");
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should leave to the serial transcoder the payloads with an invalid segment, whatever the limits")
+    void shouldLeaveInvalidSegmentToSerial() {
+        final String json = "{\"a\":[1,2],\"b\":{\"c\":\"\\q\"},\"d\":[1,2,3,4,5,6]}";
+
+        assertThat(transcode(json, 1, DEFAULT_MAX_DEPTH, new TranscodingLimits(0, 5, 0, 0, 0), new Utf8ByteSink())).isNull();
+    }
+
+    private static TranscodingStatistics transcode(
+        String json,
+        int segmentSize,
+        int maxDepth,
+        TranscodingLimits limits,
+        Utf8ByteSink output
+    ) {
+        return new JsonToXmlForkJoinTranscoder(pool, "root", "item", maxDepth, false, new TagCache(16, "root", "item"), limits, segmentSize)
+            .transcode(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, output);
+    }
+
+    private static TranscodingStatistics transcode(
+        ForkJoinPool pool,
+        String json,
+        int segmentSize,
+        TranscodingLimits limits,
+        Utf8ByteSink output
+    ) {
+        return new JsonToXmlForkJoinTranscoder(
+            pool,
+            "root",
+            "item",
+            DEFAULT_MAX_DEPTH,
+            false,
+            new TagCache(16, "root", "item"),
+            limits,
+            segmentSize
+        )
+            .transcode(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, output);
+    }
+}
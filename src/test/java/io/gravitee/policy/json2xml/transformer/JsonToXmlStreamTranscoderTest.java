@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class JsonToXmlStreamTranscoderTest {
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = {
+            "{}",
+            "{\"a\":\"\"}",
+            "{\"a\":\"b&<>\\\"'\",\"c\":null,\"d\":true,\"e\":1.10,\"f\":-0,\"g\":12345678901234,\"h\":-1.5E-3}",
+            "{\"a\":{\"b\":{\"c\":[1,2,{\"d\":[]}]}}}",
+            "{\"a\":[[1,[2,3]],[],[[]],{}]}",
+            "{\"content\":\"text\",\"b\":1}",
+            "{\"content\":[\"x\",1,{\"y\":\"}]\"},[3]]}",
+            "{\"content\":{\"y\":\"</z>\"}}",
+            "{ \"\\u00e9t\\u00e9\" : \"\\u4e2d\\n\\uD83D\\uDE00\" ,\n\t\"b\":\"été 😀\" }",
+        }
+    )
+    @DisplayName("Should produce the same XML as the single-pass transcoder, whatever the chunk size")
+    void shouldProduceSameXmlAsTranscoder(String json) {
+        final String expected = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH)).transcode("root");
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+            assertThat(stream(bytes, chunkSize, "root")).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    @DisplayName("Should produce the same XML as the single-pass transcoder when the root element is named content")
+    void shouldProduceSameXmlAsTranscoderWithContentRoot() {
+        final String json = "{\"a\":[1,2],\"b\":\"<c>\"}";
+        final String expected = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH)).transcode("content");
+
+        assertThat(stream(json.getBytes(StandardCharsets.UTF_8), 3, "content")).isEqualTo(expected);
+    }
+
+    @Test
+    @DisplayName("Should write numbers as they are written in the JSON when their format is preserved")
+    void shouldPreserveNumberFormat() {
+        final byte[] json = "{\"a\":1.10,\"b\":-0,\"c\":[1e3,12345678901234567890],\"d\":true,\"content\":2.50}".getBytes(
+            StandardCharsets.UTF_8
+        );
+        final String expected = "<root><a>1.10</a><b>-0</b><c>1e3</c><c>12345678901234567890</c><d>true</d>2.50</root>";
+
+        for (int chunkSize = 1; chunkSize <= json.length; chunkSize++) {
+            final JsonToXmlStreamTranscoder transcoder = new JsonToXmlStreamTranscoder("root", DEFAULT_MAX_DEPTH, true);
+            final Utf8ByteSink xml = new Utf8ByteSink();
+            for (int i = 0; i < json.length; i += chunkSize) {
+                transcoder.write(Arrays.copyOfRange(json, i, Math.min(i + chunkSize, json.length)), xml);
+            }
+            assertThat(transcoder.end(xml)).hasToString(expected);
+        }
+        final StringBuilder writer = new JsonToXmlStreamTranscoder("root", DEFAULT_MAX_DEPTH, true).write(json, new StringBuilder());
+        assertThat(writer).hasToString(expected);
+    }
+
+    @Test
+    @DisplayName("Should transform the reference payload")
+    void shouldTransformReferencePayload() throws IOException {
+        final byte[] input = loadResource("/io/gravitee/policy/json2xml/input.json");
+        final String expected = new String(loadResource("/io/gravitee/policy/json2xml/expected.xml"), StandardCharsets.UTF_8);
+
+        assertThat(stream(input, 7, "root")).isEqualTo(expected);
+    }
+
+    @Test
+    @DisplayName("Should write the XML of a chunk as soon as it is known")
+    void shouldWriteXmlOfEachChunk() {
+        final JsonToXmlStreamTranscoder transcoder = new JsonToXmlStreamTranscoder("root", DEFAULT_MAX_DEPTH);
+
+        assertThat(transcoder.write("{\"a\":\"b\",\"c\":[1,".getBytes(StandardCharsets.UTF_8), new StringBuilder()))
+            .hasToString("<root><a>b</a><c>1</c>");
+        assertThat(transcoder.write("2]}".getBytes(StandardCharsets.UTF_8), new StringBuilder())).hasToString("<c>2</c></root>");
+        assertThat(transcoder.isComplete()).isTrue();
+        assertThat(transcoder.end(new StringBuilder())).isEmpty();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "[]", "[{\"id\":1,\"tags\":[\"a\",\"b\"]},\"text\",[1,[2]],{},null,1.5]" })
+    @DisplayName("Should write the values of a top-level array as records, whatever the chunk size")
+    void shouldTransformTopLevelArray(String json) {
+        final String expected = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH))
+            .transcode("root", "record", false, new StringBuilder())
+            .toString();
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+            assertThat(records(bytes, chunkSize, false)).isEqualTo(expected);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "\n", " ", "{\"id\":1}\n\n{\"id\":2}\r\n\"text\"\n[1,[2]]\n", "{\"content\":[1]}\n42" })
+    @DisplayName("Should write the values separated by new lines as records, whatever the chunk size")
+    void shouldTransformNdjson(String json) {
+        final String expected = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH))
+            .transcode("root", "record", true, new StringBuilder())
+            .toString();
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        for (int chunkSize = 1; chunkSize <= Math.max(1, bytes.length); chunkSize++) {
+            assertThat(records(bytes, chunkSize, true)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    @DisplayName("Should write each record as soon as it is read")
+    void shouldWriteXmlOfEachRecord() {
+        final JsonToXmlStreamTranscoder transcoder = new JsonToXmlStreamTranscoder(
+            "root",
+            DEFAULT_MAX_DEPTH,
+            false,
+            TagCache.NONE,
+            TranscodingLimits.NONE,
+            "record",
+            true
+        );
+
+        assertThat(transcoder.write("{\"id\":1}\n{\"id\"".getBytes(StandardCharsets.UTF_8), new StringBuilder()))
+            .hasToString("<root><record><id>1</id></record><record>");
+        assertThat(transcoder.write(":2}\n".getBytes(StandardCharsets.UTF_8), new StringBuilder())).hasToString("<id>2</id></record>");
+        assertThat(transcoder.isComplete()).isFalse();
+        assertThat(transcoder.end(new StringBuilder())).hasToString("</root>");
+        assertThat(transcoder.isComplete()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Should write nothing for an empty sequence of records")
+    void shouldWriteNothingForEmptyNdjson() {
+        assertThat(records(new byte[0], 1, true)).isEmpty();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "{\"id\":1}\n{", "{\"id\":1}\n,{\"id\":2}", "{\"id\":1}\n]", "'a'" })
+    @DisplayName("Should reject invalid records")
+    void shouldRejectInvalidRecords(String json) {
+        assertThatThrownBy(() -> records(json.getBytes(StandardCharsets.UTF_8), 1, true)).isInstanceOf(JSONException.class);
+    }
+
+    @Test
+    @DisplayName("Should accept an empty body")
+    void shouldAcceptEmptyBody() {
+        assertThat(new JsonToXmlStreamTranscoder("root", DEFAULT_MAX_DEPTH).end(new StringBuilder())).isEmpty();
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = {
+            " ",
+            "[1]",
+            "{\"a\":1",
+            "{\"a\" 1}",
+            "{\"a\":1,\"a\":2}",
+            "{\"a\":[1 2]}",
+            "{\"a\":}",
+            "{a:1}",
+            "{'a':1}",
+            "{\"a\":1,}",
+            "{\"a\":[1,]}",
+            "{\"a\":[1,,2]}",
+            "{\"a\":abc}",
+            "{\"a\":007}",
+            "{\"a\":\"\\q\"}",
+            "{\"a\":\"b\nc\"}",
+        }
+    )
+    @DisplayName("Should reject invalid payload")
+    void shouldRejectInvalidPayload(String json) {
+        assertThatThrownBy(() -> stream(json.getBytes(StandardCharsets.UTF_8), 1, "root")).isInstanceOf(JSONException.class);
+    }
+
+    @Test
+    @DisplayName("Should reject payload exceeding the max depth")
+    void shouldRejectTooDeepPayload() throws IOException {
+        final byte[] objects = loadResource("/io/gravitee/policy/json2xml/invalid-embedded-object.json");
+        final byte[] arrays = loadResource("/io/gravitee/policy/json2xml/invalid-embedded-array.json");
+
+        assertThatThrownBy(() -> stream(objects, 16, "root")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> stream(arrays, 16, "root")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String stream(byte[] json, int chunkSize, String rootElement) {
+        final JsonToXmlStreamTranscoder transcoder = new JsonToXmlStreamTranscoder(rootElement, DEFAULT_MAX_DEPTH);
+        final Utf8ByteSink xml = new Utf8ByteSink();
+
+        for (int i = 0; i < json.length; i += chunkSize) {
+            transcoder.write(Arrays.copyOfRange(json, i, Math.min(i + chunkSize, json.length)), xml);
+        }
+        return transcoder.end(xml).toString();
+    }
+
+    private static String records(byte[] json, int chunkSize, boolean delimited) {
+        final JsonToXmlStreamTranscoder transcoder = new JsonToXmlStreamTranscoder(
+            "root",
+            DEFAULT_MAX_DEPTH,
+            false,
+            TagCache.NONE,
+            TranscodingLimits.NONE,
+            "record",
+            delimited
+        );
+        final Utf8ByteSink xml = new Utf8ByteSink();
+
+        for (int i = 0; i < json.length; i += chunkSize) {
+            transcoder.write(Arrays.copyOfRange(json, i, Math.min(i + chunkSize, json.length)), xml);
+        }
+        return transcoder.end(xml).toString();
+    }
+
+    private byte[] loadResource(String resource) throws IOException {
+        try (InputStream is = this.getClass().getResourceAsStream(resource)) {
+            return Objects.requireNonNull(is).readAllBytes();
+        }
+    }
+}
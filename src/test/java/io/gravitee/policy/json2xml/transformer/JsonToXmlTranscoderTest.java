@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class JsonToXmlTranscoderTest {
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = {
+            "{}",
+            "{\"a\":\"\"}",
+            "{\"a\":\"b&<>\\\"'\",\"c\":null,\"d\":true,\"e\":1.10,\"f\":-0,\"g\":12345678901234}",
+            "{\"a\":{\"b\":{\"c\":[1,2,{\"d\":[]}]}}}",
+            "{\"a\":[[1,[2,3]],[],[[]],{}]}",
+            "{\"a\":[1,,2,]}",
+            "{\"content\":\"text\",\"b\":1}",
+            "{\"content\":[\"x\",1,{\"y\":2},[3]]}",
+            "{\"content\":{\"y\":\"</z>\"}}",
+            "{a:b;'c':'d',}",
+            "{\"\\u00e9t\\u00e9\":\"\\u4e2d\\n\"}",
+            "{{\"a\":[1,{}]}:2,[true,'b']:3}",
+            "{\"content\":[[1,'a'],{\"b\":[1.50,null]}],\"c\":{\"content\":{\"d\":{},\"e\":[]}}}",
+        }
+    )
+    @DisplayName("Should produce the same XML as the tree based transformation")
+    void shouldProduceSameXmlAsTree(String json) {
+        assertThat(transcode(json, "root")).isEqualTo(tree(json, "root"));
+    }
+
+    @Test
+    @DisplayName("Should produce the same XML as the tree based transformation when the root element is named content")
+    void shouldProduceSameXmlAsTreeWithContentRoot() {
+        final String json = "{\"a\":[1,2],\"b\":\"<c>\"}";
+
+        assertThat(transcode(json, "content")).isEqualTo(tree(json, "content"));
+    }
+
+    @Test
+    @DisplayName("Should write numbers as they are written in the JSON when their format is preserved")
+    void shouldPreserveNumberFormat() {
+        final String json = "{\"a\":1.10,\"b\":-0,\"c\":[1e3,12345678901234567890],\"d\":TRUE,\"e\":007,\"content\":2.50}";
+        final String expected = "<root><a>1.10</a><b>-0</b><c>1e3</c><c>12345678901234567890</c><d>true</d><e>007</e>2.50</root>";
+        final JSONByteTokener bytes = new JSONByteTokener(json.getBytes(StandardCharsets.UTF_8), DEFAULT_MAX_DEPTH);
+
+        assertThat(new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH), true).transcode("root")).isEqualTo(expected);
+        assertThat(new JsonToXmlTranscoder(bytes, true).transcode("root")).isEqualTo(expected);
+    }
+
+    @Test
+    @DisplayName("Should transform the reference payload")
+    void shouldTransformReferencePayload() throws IOException {
+        final String input = loadResource("/io/gravitee/policy/json2xml/input.json");
+        final String expected = loadResource("/io/gravitee/policy/json2xml/expected.xml");
+
+        assertThat(transcode(input, "root")).isEqualTo(expected);
+    }
+
+    @Test
+    @DisplayName("Should write the XML to a writer")
+    void shouldWriteToWriter() throws IOException {
+        final String input = loadResource("/io/gravitee/policy/json2xml/input.json");
+        final JSONObject jsonPayloadWithRoot = new JSONObject().append("root", new JSONObject(input, DEFAULT_MAX_DEPTH));
+
+        final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(new JSONTokener(input, DEFAULT_MAX_DEPTH));
+        final StringWriter writer = transcoder.transcode("root", new StringWriter());
+
+        assertThat(writer.toString()).isEqualTo(XML.write(jsonPayloadWithRoot, null, new StringWriter()).toString());
+    }
+
+    @Test
+    @DisplayName("Should write the values of a top-level array as records")
+    void shouldTransformTopLevelArray() {
+        final String json = "[{\"id\":1,\"tags\":[\"a\",\"b\"]},\"text\",[1,2],{}]";
+        final String expected = tree("{\"record\":" + json + "}", "root");
+
+        assertThat(records(json, false)).isEqualTo(expected);
+        assertThat(records("{\"a\":1}", false)).isEqualTo("<root><a>1</a></root>");
+    }
+
+    @Test
+    @DisplayName("Should write the values separated by new lines as records")
+    void shouldTransformNdjson() {
+        final String json = "{\"id\":1}\n\n{\"id\":2}\r\n\"text\"\n[1,2]\n";
+        final String expected = tree("{\"record\":[{\"id\":1},{\"id\":2},\"text\",[1,2]]}", "root");
+
+        assertThat(records(json, true)).isEqualTo(expected);
+        assertThat(records("", true)).isEqualTo("<root></root>");
+        assertThatThrownBy(() -> records("{\"id\":1}\n{", true)).isInstanceOf(JSONException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "[1]", "{\"a\":1", "{\"a\" 1}", "{\"a\":1,\"a\":2}", "{\"a\":[1;2]}", "{\"a\":}" })
+    @DisplayName("Should reject invalid payload")
+    void shouldRejectInvalidPayload(String json) {
+        assertThatThrownBy(() -> transcode(json, "root")).isInstanceOf(JSONException.class);
+    }
+
+    @Test
+    @DisplayName("Should reject payload exceeding the max depth")
+    void shouldRejectTooDeepPayload() throws IOException {
+        final String objects = loadResource("/io/gravitee/policy/json2xml/invalid-embedded-object.json");
+        final String arrays = loadResource("/io/gravitee/policy/json2xml/invalid-embedded-array.json");
+
+        assertThatThrownBy(() -> transcode(objects, "root")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> transcode(arrays, "root")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Should transform deeply nested payload without recursion when the depth is not limited")
+    void shouldTransformDeeplyNestedPayload() {
+        final int levels = 100_000;
+        final StringBuilder json = new StringBuilder("{");
+        final StringBuilder expected = new StringBuilder("<root>");
+        for (int i = 0; i < levels; i++) {
+            json.append("\"a\":{");
+            expected.append("<a>");
+        }
+        json.append("\"content\":[[{\"b\":[1]}]]");
+        expected.append("[{&quot;b&quot;:[1]}]");
+        for (int i = 0; i < levels; i++) {
+            json.append('}');
+            expected.append("</a>");
+        }
+        json.append('}');
+        expected.append("</root>");
+
+        final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(new JSONTokener(json.toString(), -1));
+
+        assertThat(transcoder.transcode("root")).isEqualTo(expected.toString());
+        assertThat(transcoder.depth()).isEqualTo(levels + 1);
+    }
+
+    private static String transcode(String json, String rootElement) {
+        return new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH)).transcode(rootElement);
+    }
+
+    private static String records(String json, boolean delimited) {
+        final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH));
+        return transcoder.transcode("root", "record", delimited, new StringBuilder()).toString();
+    }
+
+    private static String tree(String json, String rootElement) {
+        JSONObject jsonPayloadWithRoot = new JSONObject();
+        jsonPayloadWithRoot.append(rootElement, new JSONObject(json, DEFAULT_MAX_DEPTH));
+        return XML.toString(jsonPayloadWithRoot);
+    }
+
+    private String loadResource(String resource) throws IOException {
+        try (InputStream is = this.getClass().getResourceAsStream(resource)) {
+            return new String(Objects.requireNonNull(is).readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
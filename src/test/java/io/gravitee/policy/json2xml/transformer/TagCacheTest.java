@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class TagCacheTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = { "a", "élément", "中文", "😀", "k\uD800" })
+    @DisplayName("Should write the same bytes as the encoded characters of the tags")
+    void shouldWriteEncodedTags(String name) throws Exception {
+        final TagCache cache = new TagCache(TagCache.DEFAULT_MAX_SIZE, name);
+        final Utf8ByteSink sink = new Utf8ByteSink();
+
+        cache.open(name, sink);
+        cache.empty(name, sink);
+        cache.close(name, sink);
+
+        final String expected = "<" + name + "><" + name + "/></" + name + ">";
+        assertThat(sink.toByteArray()).isEqualTo(expected.getBytes(StandardCharsets.UTF_8));
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should encode the given names upfront")
+    void shouldEncodeNamesUpfront() {
+        assertThat(new TagCache(TagCache.DEFAULT_MAX_SIZE, "root", null).size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should admit the names of the payloads once they repeat")
+    void shouldAdmitRepeatedNames() {
+        final TagCache cache = new TagCache(TagCache.DEFAULT_MAX_SIZE, "root");
+        final String json = "{\"a\":[1,2,3,4],\"b\":2,\"c\":{\"a\":[5,{}]}}";
+        final String expected = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH)).transcode("root");
+
+        final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH), false, cache);
+        final Utf8ByteSink xml = transcoder.transcode("root", new Utf8ByteSink());
+
+        assertThat(xml).hasToString(expected);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should stay within its bounds whatever the names of the payloads")
+    void shouldBeBounded() throws Exception {
+        final TagCache cache = new TagCache(8, "root");
+        final Utf8ByteSink sink = new Utf8ByteSink();
+
+        for (int i = 0; i < 10_000; i++) {
+            cache.open("k" + i, sink);
+        }
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.candidates()).isLessThanOrEqualTo(32);
+
+        for (int i = 0; i < 100; i++) {
+            for (int hit = 0; hit < TagCache.ADMISSION_HITS; hit++) {
+                cache.open("r" + i, sink);
+            }
+        }
+        cache.open("d".repeat(TagCache.MAX_NAME_LENGTH + 1), sink);
+        assertThat(cache.size()).isEqualTo(9);
+    }
+
+    @Test
+    @DisplayName("Should stay within its bounds under concurrent admissions")
+    void shouldBeBoundedConcurrently() throws Exception {
+        final TagCache cache = new TagCache(8);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(
+                    executor.submit(() -> {
+                        final Utf8ByteSink sink = new Utf8ByteSink();
+                        for (int i = 0; i < 1_000; i++) {
+                            cache.open("k" + (i % 16), sink);
+                        }
+                        return null;
+                    })
+                );
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(cache.size()).isEqualTo(8);
+    }
+
+    @Test
+    @DisplayName("Should write the tags as characters to other writers")
+    void shouldWriteCharactersToOtherWriters() {
+        final TagCache cache = new TagCache(TagCache.DEFAULT_MAX_SIZE, "root", "a", "b");
+        final String json = "{\"a\":[1,\"\"],\"b\":{}}";
+
+        final StringBuilder xml = new JsonToXmlStreamTranscoder("root", DEFAULT_MAX_DEPTH, false, cache).write(
+            json.getBytes(StandardCharsets.UTF_8),
+            new StringBuilder()
+        );
+
+        assertThat(xml).hasToString("<root><a>1</a><a/><b></b></root>");
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class TranscodingLimitsTest {
+
+    private static final TranscodingLimits MAX_ELEMENTS = new TranscodingLimits(0, 4, 0, 0, 0);
+    private static final TranscodingLimits MAX_STRING_LENGTH = new TranscodingLimits(0, 0, 5, 0, 0);
+    private static final TranscodingLimits MAX_KEYS = new TranscodingLimits(0, 0, 0, 2, 0);
+
+    @Test
+    @DisplayName("Should not limit anything by default")
+    void shouldNotLimitByDefault() {
+        final String json = "{\"a\":[1,2,3,4],\"b\":\"" + "x".repeat(100_000) + "\",\"c\":1,\"d\":2}";
+
+        assertThat(transcode(json, TranscodingLimits.NONE)).isEqualTo(transcode(json, new TranscodingLimits(-1, -1, -1, -1, -1)));
+        assertThat(stream(json, 7, TranscodingLimits.NONE)).isEqualTo(transcode(json, TranscodingLimits.NONE));
+    }
+
+    @Test
+    @DisplayName("Should accept payload within the limits")
+    void shouldAcceptPayloadWithinLimits() {
+        final TranscodingLimits limits = new TranscodingLimits(43, 4, 5, 2, 67);
+        final String json = "{\"abcde\":[\"\\u00e9bcde\",2],\"f\":\"ééééé\"}";
+        final String expected = "<root><abcde>ébcde</abcde><abcde>2</abcde><f>ééééé</f></root>";
+
+        assertThat(transcode(json, limits)).isEqualTo(expected);
+        for (int chunkSize = 1; chunkSize <= 8; chunkSize++) {
+            assertThat(stream(json, chunkSize, limits)).isEqualTo(expected);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "{\"a\":[1,2,3,4]}", "{\"a\":{\"b\":{\"c\":{\"d\":\"\"}}}}", "{\"a\":[[1,2],[3]]}" })
+    @DisplayName("Should reject payload with too many elements")
+    void shouldRejectTooManyElements(String json) {
+        assertThatThrownBy(() -> transcode(json, MAX_ELEMENTS)).isInstanceOf(TranscodingLimitException.class);
+        assertThatThrownBy(() -> stream(json, 2, MAX_ELEMENTS)).isInstanceOf(TranscodingLimitException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = {
+            "{\"a\":\"abcdef\"}",
+            "{\"a\":\"ab\\ncdef\"}",
+            "{\"abcdef\":1}",
+            "{\"a\":1234567}",
+            "{\"content\":[\"abcdef\"]}",
+            "{\"content\":{\"abcdef\":1}}",
+        }
+    )
+    @DisplayName("Should reject payload with too long strings")
+    void shouldRejectTooLongString(String json) {
+        assertThatThrownBy(() -> transcode(json, MAX_STRING_LENGTH)).isInstanceOf(TranscodingLimitException.class);
+        final JSONTokener tokener = new JSONTokener(json, DEFAULT_MAX_DEPTH).limit(MAX_STRING_LENGTH);
+
+        assertThatThrownBy(() -> new JsonToXmlTranscoder(tokener).transcode("root")).isInstanceOf(TranscodingLimitException.class);
+        assertThatThrownBy(() -> stream(json, 1, MAX_STRING_LENGTH)).isInstanceOf(TranscodingLimitException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "x", "é", "中", "😀", "\\n" })
+    @DisplayName("Should reject a too long string before reaching its end")
+    void shouldRejectTooLongStringBeforeReachingItsEnd(String character) {
+        // The string is not terminated: only a check made while it is read can tell it is too long.
+        final String json = "{\"a\":\"" + character.repeat(100);
+        final JSONTokener tokener = new JSONTokener(json, DEFAULT_MAX_DEPTH).limit(MAX_STRING_LENGTH);
+        final JSONTokener byteTokener = new JSONByteTokener(json.getBytes(StandardCharsets.UTF_8), DEFAULT_MAX_DEPTH)
+            .limit(MAX_STRING_LENGTH);
+
+        assertThatThrownBy(() -> new JsonToXmlTranscoder(tokener).transcode("root")).isInstanceOf(TranscodingLimitException.class);
+        assertThatThrownBy(() -> new JsonToXmlTranscoder(byteTokener).transcode("root")).isInstanceOf(TranscodingLimitException.class);
+    }
+
+    @Test
+    @DisplayName("Should reject a too long string before it has been entirely received")
+    void shouldRejectTooLongStringBeforeItsEnd() {
+        final JsonToXmlStreamTranscoder transcoder = new JsonToXmlStreamTranscoder(
+            "root",
+            DEFAULT_MAX_DEPTH,
+            false,
+            TagCache.NONE,
+            MAX_STRING_LENGTH
+        );
+        transcoder.write("{\"a\":\"abc".getBytes(StandardCharsets.UTF_8), new StringBuilder());
+
+        assertThatThrownBy(() -> transcoder.write("x".repeat(100).getBytes(StandardCharsets.UTF_8), new StringBuilder()))
+            .isInstanceOf(TranscodingLimitException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+        strings = { "{\"a\":1,\"b\":2,\"c\":3}", "{\"a\":{\"b\":1,\"c\":2,\"d\":3}}", "{\"content\":{\"a\":1,\"b\":2,\"c\":3}}" }
+    )
+    @DisplayName("Should reject payload with objects having too many keys")
+    void shouldRejectTooManyKeys(String json) {
+        assertThatThrownBy(() -> transcode(json, MAX_KEYS)).isInstanceOf(TranscodingLimitException.class);
+        assertThatThrownBy(() -> stream(json, 3, MAX_KEYS)).isInstanceOf(TranscodingLimitException.class);
+    }
+
+    @Test
+    @DisplayName("Should reject streamed payload larger than the maximum input size")
+    void shouldRejectTooLargeInput() {
+        final TranscodingLimits limits = new TranscodingLimits(10, 0, 0, 0, 0);
+
+        assertThat(stream("{\"a\":\"b\"}", 3, limits)).isEqualTo("<root><a>b</a></root>");
+        assertThatThrownBy(() -> stream("{\"a\":\"bcdef\"}", 3, limits)).isInstanceOf(TranscodingLimitException.class);
+    }
+
+    @Test
+    @DisplayName("Should reject XML larger than the maximum output size")
+    void shouldRejectTooLargeOutput() {
+        final TranscodingLimits limits = new TranscodingLimits(0, 0, 0, 0, 26);
+
+        assertThat(transcode("{\"a\":\"bcdefg\"}", limits)).isEqualTo("<root><a>bcdefg</a></root>");
+        assertThatThrownBy(() -> transcode("{\"a\":\"bcdefgh\"}", limits)).isInstanceOf(TranscodingLimitException.class);
+        assertThatThrownBy(() -> new Utf8ByteSink(1024).append("x".repeat(20)).limit(limits).append("x".repeat(7)))
+            .isInstanceOf(TranscodingLimitException.class);
+    }
+
+    private static String transcode(String json, TranscodingLimits limits) {
+        final JSONTokener tokener = new JSONByteTokener(json.getBytes(StandardCharsets.UTF_8), DEFAULT_MAX_DEPTH).limit(limits);
+        final JsonToXmlTranscoder transcoder = new JsonToXmlTranscoder(tokener, false, TagCache.NONE, limits);
+        return transcoder.transcode("root", new Utf8ByteSink().limit(limits)).toString();
+    }
+
+    private static String stream(String json, int chunkSize, TranscodingLimits limits) {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        final JsonToXmlStreamTranscoder transcoder = new JsonToXmlStreamTranscoder("root", DEFAULT_MAX_DEPTH, false, TagCache.NONE, limits);
+        final Utf8ByteSink xml = new Utf8ByteSink();
+
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            transcoder.write(Arrays.copyOfRange(bytes, i, Math.min(i + chunkSize, bytes.length)), xml);
+        }
+        return transcoder.end(xml).toString();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static io.gravitee.policy.json2xml.transformer.JSONTokener.DEFAULT_MAX_DEPTH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+class TranscodingScratchTest {
+
+    @Test
+    @DisplayName("Should reuse the output array of the thread once released")
+    void shouldReuseOutputOfThread() {
+        final byte[] array;
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            array = scratch.output(10).append("<root/>").array();
+        }
+
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            final Utf8ByteSink output = scratch.output(10);
+            assertThat(output.array()).isSameAs(array);
+            assertThat(output.writeIndex()).isEqualTo(0);
+            assertThat(scratch.retains(output)).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Should give another output array while the output array of the thread is in use")
+    void shouldGiveAnotherOutputWhenInUse() {
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            final Utf8ByteSink output = scratch.output(10);
+            try (TranscodingScratch nested = TranscodingScratch.acquire()) {
+                assertThat(nested.output(10).array()).isNotSameAs(output.array());
+                assertThat(nested.retains(output)).isFalse();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should not retain the output array grown by a large payload")
+    void shouldNotRetainLargeOutput() {
+        final Utf8ByteSink output;
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            output = scratch.output(10).append("x".repeat(TranscodingScratch.MAX_RETAINED_CAPACITY + 1));
+            assertThat(scratch.retains(output)).isFalse();
+        }
+
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            assertThat(scratch.output(10).array()).isNotSameAs(output.array());
+        }
+    }
+
+    @Test
+    @DisplayName("Should read a new payload with a reset tokener like with a new one")
+    void shouldResetTokener() {
+        final String json = "{\"a\":\"\\u00e9t\\u00e9\",\"b\":[1,{\"c\":null}]}";
+        final String expected = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH)).transcode("root");
+
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            final byte[] truncated = "{\"a\":[\"\\u00e9".getBytes(StandardCharsets.UTF_8);
+            final JSONTokener invalid = scratch.tokener(ByteBuffer.wrap(truncated), DEFAULT_MAX_DEPTH);
+            assertThatThrownBy(() -> new JsonToXmlTranscoder(invalid).transcode("root")).isInstanceOf(JSONException.class);
+
+            final JSONTokener tokener = scratch.tokener(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)), DEFAULT_MAX_DEPTH);
+            assertThat(tokener).isSameAs(invalid);
+            assertThat(new JsonToXmlTranscoder(tokener).transcode("root")).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    @DisplayName("Should reuse the tokener of the thread once released, and give another one while it is in use")
+    void shouldReuseTokener() {
+        final ByteBuffer json = ByteBuffer.wrap("{}".getBytes(StandardCharsets.UTF_8));
+        final JSONTokener tokener;
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            tokener = scratch.tokener(json, DEFAULT_MAX_DEPTH);
+            try (TranscodingScratch nested = TranscodingScratch.acquire()) {
+                assertThat(nested.tokener(json, DEFAULT_MAX_DEPTH)).isNotSameAs(tokener);
+            }
+        }
+
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            assertThat(scratch.tokener(json, DEFAULT_MAX_DEPTH)).isSameAs(tokener);
+        }
+    }
+
+    @Test
+    @DisplayName("Should read the bytes of ISO-8859-1 and US-ASCII payloads, and decode the other charsets")
+    void shouldReadPayloadsOfAnyCharset() {
+        final String json = "{\"caf\u00e9\":\"cr\u00e8me br\u00fbl\u00e9e\",\"n\":[1,\"\u65e5\u672c\"]}";
+        final String expected = new JsonToXmlTranscoder(new JSONTokener(json, DEFAULT_MAX_DEPTH)).transcode("root");
+
+        try (TranscodingScratch scratch = TranscodingScratch.acquire()) {
+            final JSONTokener latin1 = scratch.tokener(
+                ByteBuffer.wrap("{\"caf\u00e9\":\"cr\u00e8me\"}".getBytes(StandardCharsets.ISO_8859_1)),
+                StandardCharsets.ISO_8859_1,
+                DEFAULT_MAX_DEPTH
+            );
+            assertThat(latin1).isInstanceOf(JSONByteTokener.class);
+            assertThat(new JsonToXmlTranscoder(latin1).transcode("root")).isEqualTo("<root><caf\u00e9>cr\u00e8me</caf\u00e9></root>");
+
+            final JSONTokener utf16 = scratch.tokener(
+                ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_16)),
+                StandardCharsets.UTF_16,
+                DEFAULT_MAX_DEPTH
+            );
+            assertThat(utf16).isNotInstanceOf(JSONByteTokener.class);
+            assertThat(new JsonToXmlTranscoder(utf16).transcode("root")).isEqualTo(expected);
+        }
+    }
+}
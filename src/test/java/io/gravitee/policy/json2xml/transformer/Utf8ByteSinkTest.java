@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class Utf8ByteSinkTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = { "", "ascii <only>", "é", "߿ࠀ￿", "中文", "😀", "\uD83D", "\uDE00a", "a\uD83Db" })
+    @DisplayName("Should encode like String.getBytes")
+    void shouldEncodeLikeStringGetBytes(String string) {
+        final Utf8ByteSink sink = new Utf8ByteSink(1).append(string);
+
+        assertThat(sink.toByteArray()).isEqualTo(string.getBytes(StandardCharsets.UTF_8));
+        assertThat(sink.writeIndex()).isEqualTo(string.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    @DisplayName("Should encode a surrogate pair appended in two calls")
+    void shouldEncodeSplitSurrogatePair() {
+        final String string = "a😀b";
+        final Utf8ByteSink sink = new Utf8ByteSink().append(string, 0, 2).append(string, 2, 4);
+
+        assertThat(sink.toByteArray()).isEqualTo(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Should grow and keep the written bytes in the backing array")
+    void shouldGrow() {
+        final Utf8ByteSink sink = new Utf8ByteSink(16);
+        final String string = "<element>value</element>".repeat(100);
+
+        sink.append(string);
+
+        assertThat(sink.writeIndex()).isEqualTo(string.length());
+        assertThat(new String(sink.array(), 0, sink.writeIndex(), StandardCharsets.UTF_8)).isEqualTo(string);
+    }
+}
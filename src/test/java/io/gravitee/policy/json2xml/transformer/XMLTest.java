@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.json2xml.transformer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * @author GraviteeSource Team
+ */
+class XMLTest {
+
+    @ParameterizedTest
+    @CsvSource(
+        delimiter = '|',
+        value = {
+            "&|&amp;",
+            "<a href=\"x\">'b'</a>|&lt;a href=&quot;x&quot;&gt;&apos;b&apos;&lt;/a&gt;",
+            "Tom & Jerry|Tom &amp; Jerry",
+            "crème < brûlée 😀|crème &lt; brûlée 😀",
+            "a&&b|a&amp;&amp;b",
+        }
+    )
+    @DisplayName("Should escape special characters")
+    void shouldEscape(String string, String expected) throws IOException {
+        final StringBuilder writer = new StringBuilder("prefix ");
+        final Utf8ByteSink sink = new Utf8ByteSink();
+        XML.escape(string, writer);
+        XML.escape(string, sink);
+
+        assertThat(XML.escape(string)).isEqualTo(expected);
+        assertThat(writer).hasToString("prefix " + expected);
+        assertThat(sink.toByteArray()).isEqualTo(expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Should return the same string when there is nothing to escape")
+    void shouldReturnSameStringWhenNothingToEscape() {
+        final String string = "nothing to escape here, é 😀";
+
+        assertThat(XML.escape(string)).isSameAs(string);
+        assertThat(XML.escape("")).isEmpty();
+    }
+}
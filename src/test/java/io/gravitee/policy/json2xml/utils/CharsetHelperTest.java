@@ -58,4 +58,36 @@ public class CharsetHelperTest {
         Charset charset = CharsetHelper.extractFromContentType(MediaType.APPLICATION_XML + "; Charset=\"ISO-8859-1\"");
         assertThat(charset.name()).isEqualTo("ISO-8859-1");
     }
+
+    @Test
+    public void shouldReturnCharset_contentType_withOtherParameters() {
+        Charset charset = CharsetHelper.extractFromContentType("application/json; charset=ISO-8859-1; profile=\"urn:x\"");
+        assertThat(charset).isEqualTo(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void shouldReturnUtf8_contentType_withUnsupportedCharset() {
+        Charset charset = CharsetHelper.extractFromContentType("application/json;charset=x-unknown-charset");
+        assertThat(charset).isEqualTo(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shouldReturnUtf8_contentType_withCharsetInAnotherParameter() {
+        Charset charset = CharsetHelper.extractFromContentType("application/json;xcharset=ISO-8859-1");
+        assertThat(charset).isEqualTo(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shouldReturnSameCharset_sameContentType() {
+        Charset first = CharsetHelper.extractFromContentType("text/json;charset=windows-1252");
+        Charset second = CharsetHelper.extractFromContentType("text/json;charset=windows-1252");
+        assertThat(second).isSameAs(first).isEqualTo(Charset.forName("windows-1252"));
+    }
+
+    @Test
+    public void shouldReturnSameCharset_sameCharsetInOtherContentTypes() {
+        Charset first = CharsetHelper.extractFromContentType("text/json;charset=windows-1250");
+        Charset second = CharsetHelper.extractFromContentType("application/json; profile=\"urn:x\"; Charset=\"WINDOWS-1250\"");
+        assertThat(second).isSameAs(first).isEqualTo(Charset.forName("windows-1250"));
+    }
 }
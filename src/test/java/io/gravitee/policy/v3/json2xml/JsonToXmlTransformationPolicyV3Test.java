@@ -174,6 +174,28 @@ class JsonToXmlTransformationPolicyV3Test {
         verify(policyChain, times(1)).streamFailWith(any());
     }
 
+    @Test
+    @DisplayName("Should write numbers as they are written in the JSON when their format is preserved OnResponseContent")
+    public void shouldPreserveNumberFormatOnResponseContent() {
+        final String input = "{\"price\":1.10,\"quantity\":1e3,\"id\":12345678901234567890,\"valid\":true}";
+        final String expected = "<root><price>1.10</price><quantity>1e3</quantity><id>12345678901234567890</id><valid>true</valid></root>";
+
+        // Prepare context
+        when(configuration.getScope()).thenReturn(PolicyScope.RESPONSE);
+        when(configuration.getRootElement()).thenReturn("root");
+        when(configuration.isPreserveNumberFormat()).thenReturn(true);
+        when(response.headers()).thenReturn(HttpHeaders.create());
+
+        final ReadWriteStream result = cut.onResponseContent(response, policyChain, executionContext);
+        assertThat(result).isNotNull();
+        result.bodyHandler(resultBody -> {
+            assertResultingJsonObjectsAreEquals(expected, resultBody);
+        });
+
+        result.write(Buffer.buffer(input));
+        result.end();
+    }
+
     private void assertResultingJsonObjectsAreEquals(String expected, Object resultBody) {
         assertThat(resultBody.toString()).isEqualTo(expected);
     }